@@ -24,6 +24,12 @@ dependencies {
     compileOnly("me.clip:placeholderapi:2.11.5")
     compileOnly("com.github.LoneDev6:API-ItemsAdder:3.6.1")
     implementation("org.jetbrains:annotations:19.0.0")
+
+    testImplementation("org.junit.jupiter:junit-jupiter:5.10.2")
+    testImplementation("org.spigotmc:spigot-api:1.19.4-R0.1-SNAPSHOT")
+    testImplementation("net.milkbowl.vault:VaultAPI:1.7") {
+        isTransitive = false
+    }
 }
 
 val targetJavaVersion = 8
@@ -43,6 +49,9 @@ tasks {
     build {
         dependsOn(shadowJar)
     }
+    test {
+        useJUnitPlatform()
+    }
     withType<JavaCompile> {
         options.encoding = "UTF-8"
         if (targetJavaVersion >= 10 || JavaVersion.current().isJava10Compatible) {
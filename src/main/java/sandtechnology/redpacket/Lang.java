@@ -20,6 +20,8 @@ public enum Lang {
             "&f----- &c&l红包插件&e 帮助&f ----",
             "&f/redpacket gui &e- 通过菜单界面发红包",
             "&f/redpacket [add/new] &e- 通过聊天界面发红包",
+            "&f/redpacket history [sent/claimed/claimable] &e- 查询红包记录",
+            "&f/redpacket history gui [sent/claimed/claimable] &e- 通过菜单界面查询红包记录",
             "&f",
             "&7Powered by sandtechnology and MrXiaoM."
     ),
@@ -38,10 +40,32 @@ public enum Lang {
     COMMANDS__QUERY__EXTRA_DATA_TIPS("&a请输入%extra_info%&a: "),
     COMMANDS__SESSION__CREATE__BROADCAST__NORMAL("&a玩家 &6%player_name%&a 发了一个 %type%! (%extra_key%: %extra_value%)"),
     COMMANDS__SESSION__CREATE__BROADCAST__LIMIT("&a玩家 &6%player_name%&a 发了一个专属 %limit_users% 的 %type%! (%extra_key%: %extra_value%)"),
+    COMMANDS__SESSION__CREATE__WITHDRAW_FAILED("&c扣款失败，红包未创建"),
     COMMANDS__SESSION__CANCEL("&e该会话已取消"),
     COMMANDS__RELOAD__SUCCESS("&a重载成功"),
     COMMANDS__RELOAD__FAILED("&c出现错误，请查看控制台"),
+    COMMANDS__BENCHMARK__START("&a正在进行性能测试，请稍等..."),
+    COMMANDS__BENCHMARK__RESULT("&a%name%: &e%ops% &a次/秒 &7(%count%次，耗时%time%ms)"),
+    COMMANDS__BENCHMARK__MEMORY("&a%name%: &e%per% &a字节/条 &7(%count%条，共%bytes%字节)"),
+    QUERY__TYPE__SENT("发送记录"),
+    QUERY__TYPE__CLAIMED("领取记录"),
+    QUERY__TYPE__CLAIMABLE("可领取红包"),
+    QUERY__HEADER("&6----- &e%type% &6第%page%页 -----"),
+    QUERY__EMPTY("&7没有记录"),
+    QUERY__LOADING("&7正在查询，请稍等..."),
+    QUERY__NO_SESSION("&c请先使用 /redpacket history 开始查询"),
+    QUERY__SENT_ENTRY("&e%time% &a%type% &f个数 %current_amount%/%amount% 余额 %current_money%/%money%元 &7%status%"),
+    QUERY__CLAIMED_ENTRY("&e%time% &a抢了&6%player_name%&a的%type%，抢到了&6%money%&a元"),
+    QUERY__CLAIMABLE_ENTRY("&6%player_name%&a的%type% &f剩余%current_amount%个，共%current_money%元"),
+    QUERY__ENTRY_HOVER("&f%info%"),
+    QUERY__PREVIOUS("&a&n[上一页]"),
+    QUERY__NEXT("&a&n[下一页]"),
     GUI__TITLE("发红包"),
+    GUI__HISTORY__TITLE("%type% 第%page%页"),
+    GUI__HISTORY__PREVIOUS("&a上一页"),
+    GUI__HISTORY__NEXT("&a下一页"),
+    REDPACKET__LOADING("&e红包数据仍在载入中，请稍后再试"),
+    REDPACKET__BUSY("&c抢红包的人太多了，请稍后再试"),
     REDPACKET__NORMAL__CLICK("&a&n点击这里领取"),
     REDPACKET__NORMAL__CLICK_HOVER("&e领取普通红包"),
     REDPACKET__PASSWORD__CLICK("&a&n点击这里领取"),
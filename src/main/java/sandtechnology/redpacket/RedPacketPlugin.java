@@ -4,10 +4,13 @@ import org.bukkit.Bukkit;
 import org.bukkit.command.PluginCommand;
 import org.bukkit.configuration.file.FileConfiguration;
 import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.plugin.RegisteredServiceProvider;
 import org.bukkit.plugin.java.JavaPlugin;
 import sandtechnology.redpacket.command.CommandHandler;
-import sandtechnology.redpacket.database.AbstractDatabaseManager;
+import sandtechnology.redpacket.database.JournalManager;
+import sandtechnology.redpacket.database.MemoryStorage;
 import sandtechnology.redpacket.database.MysqlManager;
+import sandtechnology.redpacket.database.RedPacketStorage;
 import sandtechnology.redpacket.database.SqliteManager;
 import sandtechnology.redpacket.listener.ChatListener;
 import sandtechnology.redpacket.listener.GuiListener;
@@ -18,12 +21,14 @@ import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.Locale;
 import java.util.logging.Level;
+import java.util.logging.Logger;
 
 public class RedPacketPlugin extends JavaPlugin {
 
     private static RedPacketPlugin instance;
-    private static AbstractDatabaseManager databaseManager;
+    private static RedPacketStorage databaseManager;
     private static GuiListener gui;
     private boolean startup;
 
@@ -47,7 +52,7 @@ public class RedPacketPlugin extends JavaPlugin {
         instance = this;
     }
 
-    public static AbstractDatabaseManager getDatabaseManager() {
+    public static RedPacketStorage getDatabaseManager() {
         return databaseManager;
     }
 
@@ -56,7 +61,9 @@ public class RedPacketPlugin extends JavaPlugin {
     }
 
     public static void log(Level level, String msg, Object... format) {
-        getInstance().getLogger().log(level, String.format(msg, format));
+        //插件未开启时（如单元测试中）使用默认的日志
+        Logger logger = instance != null ? instance.getLogger() : Logger.getLogger("RedPacket");
+        logger.log(level, String.format(msg, format));
     }
 
     public static void warn(Throwable t) {
@@ -96,13 +103,38 @@ public class RedPacketPlugin extends JavaPlugin {
         setIfAbsent("Database.Password", "");
         setIfAbsent("Database.DatabaseName", "database");
         setIfAbsent("Database.MySQLArgument", "");
+        setIfAbsent("Database.Sqlite.Profile", "performance");
+        setIfAbsent("Database.Pool.Size", 4);
+        setIfAbsent("Database.Pool.IdleValidation", 30000);
+        setIfAbsent("Database.Pool.LeakDetection", 60000);
+        setIfAbsent("Database.Pool.Timeout", 5000);
+        setIfAbsent("Database.Durability.Mode", "group");
+        setIfAbsent("Database.Durability.GroupSize", 64);
+        setIfAbsent("Database.Durability.GroupDelay", 50);
+        setIfAbsent("Database.Durability.AsyncInterval", 10000);
+        setIfAbsent("Database.Archive.Enabled", true);
+        setIfAbsent("Database.Archive.Interval", 600);
+        setIfAbsent("Database.Archive.ChunkSize", 500);
+        setIfAbsent("Database.HistoryCache.MaxRecords", 2000);
+        setIfAbsent("Database.Load.FetchSize", 500);
+        setIfAbsent("Database.Load.Threads", 2);
+        setIfAbsent("Database.Journal.MapSize", 8388608);
+        setIfAbsent("Database.Journal.CompactSize", 67108864);
+        setIfAbsent("Database.Journal.SnapshotInterval", 3600);
         setIfAbsent("Database.TableName", "redpacket");
         setIfAbsent("RedPacket.MaxAmount", 10000);
         setIfAbsent("RedPacket.MaxMoney", 10000.0);
         setIfAbsent("RedPacket.MinMoney", 1.0);
         setIfAbsent("RedPacket.Expired", false);
         setIfAbsent("RedPacket.ExpiredTime", 86400000);
+        setIfAbsent("RedPacket.Claim.Workers", 2);
+        setIfAbsent("RedPacket.Claim.QueueSize", 1000);
+        setIfAbsent("RedPacket.Claim.BroadcastWindow", 10);
         setIfAbsent("RedPacket.SessionExpiredTime", 500000);
+        setIfAbsent("Economy.Thread", "main");
+        setIfAbsent("Economy.FlushInterval", 1);
+        setIfAbsent("Economy.BatchSize", 100);
+        setIfAbsent("Economy.MaxAttempts", 3);
         setIfAbsent("gui.size", 54);
         setIfAbsent("gui.title", "发红包");
         saveConfig();
@@ -116,6 +148,35 @@ public class RedPacketPlugin extends JavaPlugin {
         Lang.messages = YamlConfiguration.loadConfiguration(file);
     }
 
+    /**
+     * 根据配置创建红包存储
+     *
+     * @param type 存储类型
+     * @return 红包存储
+     */
+    private RedPacketStorage createStorage(String type) {
+        String tableName = config().getString("Database.TableName");
+        switch (type.toLowerCase(Locale.ROOT)) {
+            case "sqlite":
+                return new SqliteManager(tableName);
+            case "journal":
+                return new JournalManager(tableName);
+            case "memory":
+                log(Level.WARNING, "正在使用内存存储，服务器关闭后所有红包数据都会丢失！");
+                return new MemoryStorage();
+            case "service": {
+                RegisteredServiceProvider<RedPacketStorage> provider = getServer().getServicesManager().getRegistration(RedPacketStorage.class);
+                if (provider == null) {
+                    throw new IllegalStateException("未找到其他插件注册的红包存储！");
+                }
+                log(Level.INFO, "使用插件%s提供的红包存储：%s", provider.getPlugin().getName(), provider.getProvider().getName());
+                return provider.getProvider();
+            }
+            default:
+                return new MysqlManager(tableName);
+        }
+    }
+
     @Override
     public void onEnable() {
         if (startup) {
@@ -132,11 +193,7 @@ public class RedPacketPlugin extends JavaPlugin {
             getLogger().info("更新配置文件...");
             loadMessages();
             updateConfig();
-            if (config().getString("Database.Type", "sqlite").equalsIgnoreCase("sqlite")) {
-                databaseManager = new SqliteManager(config().getString("Database.TableName"));
-            } else {
-                databaseManager = new MysqlManager(config().getString("Database.TableName"));
-            }
+            databaseManager = createStorage(config().getString("Database.Type", "sqlite"));
             getLogger().info("注册监听器...");
             getServer().getPluginManager().registerEvents(new ChatListener(), this);
             getServer().getPluginManager().registerEvents(new MessageSender(), this);
@@ -153,7 +210,8 @@ public class RedPacketPlugin extends JavaPlugin {
             // 为避免需要的经济插件被放在该插件后面加载造成出错
             // 将调用Vault API的方法延迟到服务器完全启动后
             Bukkit.getScheduler().runTask(this, () -> {
-                getLogger().info("正在载入红包信息，请稍等...");
+                getLogger().info("正在后台载入红包信息...");
+                EconomyGateway.getEconomyGateway().setup();
                 RedPacketManager.getRedPacketManager().setup();
                 MessageHelper.setStatus(true);
                 getLogger().info("初始化插件完成！");
@@ -170,7 +228,9 @@ public class RedPacketPlugin extends JavaPlugin {
         if (gui != null) gui.onDisable();
         if (startup) {
             getLogger().info("正在保存红包信息，请稍等...");
-            databaseManager.setRunning(false);
+            RedPacketManager.getRedPacketManager().shutdown();
+            EconomyGateway.getEconomyGateway().shutdown();
+            databaseManager.shutdown();
             MessageHelper.setStatus(false);
             getLogger().info("完成！继续服务器关闭程序...");
         }
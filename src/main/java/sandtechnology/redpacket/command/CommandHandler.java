@@ -12,9 +12,15 @@ import org.bukkit.command.TabExecutor;
 import org.bukkit.entity.Player;
 import org.jetbrains.annotations.NotNull;
 import sandtechnology.redpacket.Lang;
+import sandtechnology.redpacket.database.BenchmarkResult;
+import sandtechnology.redpacket.database.SqliteBenchmark;
+import sandtechnology.redpacket.database.StorageBenchmark;
+import sandtechnology.redpacket.gui.GuiHistory;
 import sandtechnology.redpacket.gui.GuiNewRedPacket;
+import sandtechnology.redpacket.redpacket.ClaimMapBenchmark;
 import sandtechnology.redpacket.redpacket.RedPacket;
 import sandtechnology.redpacket.session.CreateSession;
+import sandtechnology.redpacket.session.QuerySession;
 import sandtechnology.redpacket.util.IdiomManager;
 import sandtechnology.redpacket.util.RedPacketManager;
 
@@ -167,6 +173,9 @@ public class CommandHandler implements TabExecutor {
                                 Bukkit.getScheduler().runTaskAsynchronously(getInstance(), () -> {
                                     if (getSessionManager().getSession(player).getBuilder().isValid()) {
                                         RedPacket redPacket = getSessionManager().getSession(player).create();
+                                        if (redPacket == null) {
+                                            return;
+                                        }
                                         //生成提示信息
                                         BaseComponent text;
                                         if (redPacket.isLimitPlayer()) {
@@ -250,13 +259,88 @@ public class CommandHandler implements TabExecutor {
                     break;
                 case "get":
                     if (checkArgs(args, 2, player) && hasPermission(player, "redpacket.command.get")) {
-                        Bukkit.getScheduler().runTaskAsynchronously(getInstance(), () -> RedPacketManager.getRedPacketManager().getRedPackets().stream().filter(packet -> packet.getUUID().toString().equals(args[1])).forEach(redPacket -> redPacket.giveIfValid(player, "")));
+                        RedPacket found = RedPacketManager.getRedPacketManager().get(args[1]);
+                        if (found != null) {
+                            RedPacketManager.getRedPacketManager().claim(player, found, "");
+                        } else if (RedPacketManager.getRedPacketManager().isLoading()) {
+                            //红包可能尚未载入
+                            Lang.REDPACKET__LOADING.t(player);
+                        }
                     }
                 case "info":
                     break;
+                case "history":
+                    if (hasPermission(player, "redpacket.command.history")) {
+                        String action = args.length >= 2 ? args[1].toLowerCase() : "sent";
+                        switch (action) {
+                            case "next":
+                            case "prev":
+                                QuerySession session = getSessionManager().getQuerySession(player);
+                                if (session == null) {
+                                    Lang.QUERY__NO_SESSION.t(player);
+                                } else if (action.equals("next")) {
+                                    session.next(loaded -> loaded.showInChat(player));
+                                } else {
+                                    session.previous(loaded -> loaded.showInChat(player));
+                                }
+                                break;
+                            case "gui": {
+                                QuerySession.Type type = QuerySession.Type.fromName(args.length >= 3 ? args[2] : "sent");
+                                if (type == null) {
+                                    Lang.COMMANDS__INVALID_ARGUMENT.t(player);
+                                } else {
+                                    Lang.QUERY__LOADING.t(player);
+                                    getSessionManager().createQuerySession(player, type, GuiHistory.getPageSize())
+                                            .first(loaded -> getGui().openGui(new GuiHistory(player, loaded)));
+                                }
+                                break;
+                            }
+                            default: {
+                                QuerySession.Type type = QuerySession.Type.fromName(action);
+                                if (type == null) {
+                                    Lang.COMMANDS__INVALID_ARGUMENT.t(player);
+                                } else {
+                                    getSessionManager().createQuerySession(player, type, QuerySession.CHAT_PAGE_SIZE)
+                                            .first(loaded -> loaded.showInChat(player));
+                                }
+                            }
+                        }
+                    }
+                    break;
                 case "help":
                     Lang.COMMANDS__HELP.t(player);
                     break;
+                case "benchmark":
+                    if (hasPermission(player, "redpacket.command.benchmark")) {
+                        int claims;
+                        try {
+                            claims = args.length >= 2 ? Integer.parseInt(args[1]) : 2000;
+                        } catch (NumberFormatException e) {
+                            claims = 0;
+                        }
+                        if (claims <= 0) {
+                            Lang.COMMANDS__INVALID_ARGUMENT.t(player);
+                            break;
+                        }
+                        int count = claims;
+                        Lang.COMMANDS__BENCHMARK__START.t(player);
+                        Bukkit.getScheduler().runTaskAsynchronously(getInstance(), () -> {
+                            List<BenchmarkResult> results = SqliteBenchmark.run(getInstance().getDataFolder().toPath().resolve("benchmark"), count, 50);
+                            //通过存储接口测试，红包不会被加入红包管理器
+                            results.addAll(StorageBenchmark.run(new RedPacket.Builder(player).amount(count).cents(count * 100L).build(), count));
+                            results.forEach(result -> Lang.COMMANDS__BENCHMARK__RESULT.t(player,
+                                    "%name%", result.getName(),
+                                    "%ops%", result.getOperationsPerSecond(),
+                                    "%count%", result.getOperations(),
+                                    "%time%", result.getElapsedMillis()));
+                            ClaimMapBenchmark.run(count).forEach(result -> Lang.COMMANDS__BENCHMARK__MEMORY.t(player,
+                                    "%name%", result.getName(),
+                                    "%per%", result.getBytesPerClaim(),
+                                    "%count%", result.getClaims(),
+                                    "%bytes%", result.getBytes()));
+                        });
+                    }
+                    break;
                 case "reload":
                     if (hasPermission(player, "redpacket.command.reload")) {
                         checkAndDoSomething(getInstance().reload(), () -> Lang.COMMANDS__RELOAD__SUCCESS.t(player), () -> Lang.COMMANDS__RELOAD__FAILED.t(player));
@@ -273,9 +357,15 @@ public class CommandHandler implements TabExecutor {
     public List<String> onTabComplete(@NotNull CommandSender sender, @NotNull Command command, @NotNull String alias, String[] args) {
         if (args.length == 1) {
             if (sender.isOp()) {
-                return startsWith(args[0], "new", "add", "gui", "reload");
+                return startsWith(args[0], "new", "add", "gui", "history", "reload", "benchmark");
             }
-            return startsWith(args[0], "new", "add", "gui");
+            return startsWith(args[0], "new", "add", "gui", "history");
+        }
+        if (args.length == 2 && args[0].equalsIgnoreCase("history")) {
+            return startsWith(args[1], "sent", "claimed", "claimable", "gui");
+        }
+        if (args.length == 3 && args[0].equalsIgnoreCase("history") && args[1].equalsIgnoreCase("gui")) {
+            return startsWith(args[2], "sent", "claimed", "claimable");
         }
         return empty;
     }
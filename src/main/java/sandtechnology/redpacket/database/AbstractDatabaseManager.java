@@ -1,113 +1,610 @@
 package sandtechnology.redpacket.database;
 
+import org.bukkit.Bukkit;
 import org.bukkit.entity.Player;
+import org.bukkit.scheduler.BukkitTask;
+import sandtechnology.redpacket.redpacket.EncodedClaims;
 import sandtechnology.redpacket.redpacket.RedPacket;
 
-import java.sql.Connection;
+import java.sql.BatchUpdateException;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.logging.Level;
 
-public abstract class AbstractDatabaseManager {
+import static sandtechnology.redpacket.RedPacketPlugin.config;
+import static sandtechnology.redpacket.RedPacketPlugin.getInstance;
+import static sandtechnology.redpacket.RedPacketPlugin.log;
+import static sandtechnology.redpacket.RedPacketPlugin.warn;
+import static sandtechnology.redpacket.util.UUIDHelper.fromBytes;
+import static sandtechnology.redpacket.util.UUIDHelper.toBytes;
 
-    private final Timer timer = new Timer();
-    Connection connection;
-    String tableName;
-    private volatile boolean commiting;
-    private volatile boolean running;
+/**
+ * 基于JDBC的红包存储，修改通过写入队列由单独的线程批量写入数据库
+ */
+public abstract class AbstractDatabaseManager implements RedPacketStorage {
 
-    private void sleep() {
-        try {
-            Thread.sleep(100L);
-        } catch (InterruptedException ignored) {
+    //大于所有UUID的二进制值，用于第一页的键集分页
+    private static final byte[] MAX_UUID = toBytes(new UUID(-1L, -1L));
+    private final HistoryCache historyCache = new HistoryCache();
+    private final WriteBehindQueue writeQueue = new WriteBehindQueue(new WriteBehindQueue.Flusher() {
+        //本次提交中修改过红包的玩家，只由写入线程访问
+        private final Set<UUID> senders = new HashSet<>();
+
+        @Override
+        public void flush(List<WriteBehindQueue.PendingWrite> writes, List<ClaimRecord> claims) {
+            for (WriteBehindQueue.PendingWrite write : writes) {
+                senders.add(write.redPacket.getPlayer().getUniqueId());
+            }
+            flushWrites(writes, claims);
         }
-    }
 
-    void executeUpdate(String sql) {
-        try {
-            while (commiting) {
-                //System.out.println("Waiting commit");
-                sleep();
+        @Override
+        public void commit() {
+            try {
+                commitWrites();
+            } finally {
+                //提交后修改才对查询可见，提交前缓存的查询结果可能是旧数据，需要再清除一次
+                senders.forEach(historyCache::invalidate);
+                senders.clear();
             }
-            getConnection().createStatement().executeUpdate(sql);
-        } catch (SQLException ex) {
-            throw new RuntimeException("SQL语句执行错误！语句：" + sql, ex);
         }
-    }
+
+        @Override
+        public void rollback() {
+            senders.clear();
+            rollbackWrites();
+        }
+    });
+    String tableName;
+    private volatile boolean running;
+    //写入线程持有的连接，写入后一直持有到提交完成
+    private PooledConnection writerConnection;
+    private final AtomicLong archived = new AtomicLong();
+    private BukkitTask maintenanceTask;
 
     abstract void setup(String tableName);
 
-    private ResultSet executeQuery(String sql) {
-        try {
-            return getConnection().createStatement().executeQuery(sql);
-        } catch (SQLException ex) {
-            throw new RuntimeException("SQL语句执行错误！语句：" + sql, ex);
-        }
+    /**
+     * 使用最新的数据库结构创建红包表
+     *
+     * @param statement   用于执行建表语句的Statement
+     * @param packetTable 红包表名称
+     */
+    abstract void createPacketTable(Statement statement, String packetTable) throws SQLException;
+
+    /**
+     * 使用最新的数据库结构创建领取记录表
+     *
+     * @param statement  用于执行建表语句的Statement
+     * @param claimTable 领取记录表名称
+     */
+    abstract void createClaimTable(Statement statement, String claimTable) throws SQLException;
+
+    /**
+     * 使用最新的数据库结构创建红包表与领取记录表（不含索引）
+     *
+     * @param statement   用于执行建表语句的Statement
+     * @param packetTable 红包表名称
+     * @param claimTable  领取记录表名称
+     */
+    void createTables(Statement statement, String packetTable, String claimTable) throws SQLException {
+        createPacketTable(statement, packetTable);
+        createClaimTable(statement, claimTable);
     }
 
+    /**
+     * 创建归档表及其索引，归档表与红包表结构相同
+     *
+     * @param statement 用于执行语句的Statement
+     */
+    void createArchiveTable(Statement statement) throws SQLException {
+        createPacketTable(statement, archiveTableName());
+        //Sqlite的索引名称在整个数据库中唯一，不能与红包表的索引同名
+        createIndex(statement, archiveTableName(), "archiveHistoryIndex", "playerUUID, expireTime, UUID");
+    }
 
     /**
-     * 定时commit
+     * 创建元数据表，保存数据库结构版本等与数据库一起迁移的信息
+     * 使用两种数据库通用的语法，子类无需重写
+     *
+     * @param statement 用于执行语句的Statement
      */
-    void startCommitTimer() {
-        timer.schedule(new TimerTask() {
-            @Override
-            public void run() {
-                long time = System.currentTimeMillis();
-                if (running) {
-                    commit();
-                    // System.out.println("commit! time cost: " + (System.currentTimeMillis() - time) + " ms");
-                } else {
-                    timer.cancel();
-                }
-            }
-        }, 0L, 10000L);
+    void createMetaTable(Statement statement) throws SQLException {
+        statement.executeUpdate(
+                "create table if not exists " + metaTableName() + " (" +
+                        "metaKey VARCHAR(64) PRIMARY KEY," +
+                        "metaValue VARCHAR(255) NOT NULL)"
+        );
+    }
+
+    /**
+     * 新安装时使用最新的数据库结构创建所有表与索引
+     *
+     * @param statement 用于执行语句的Statement
+     */
+    void createSchema(Statement statement) throws SQLException {
+        createTables(statement, tableName, claimTableName());
+        createArchiveTable(statement);
+        createIndexes(statement);
+        createMetaTable(statement);
+    }
+
+    /**
+     * 创建红包表与领取记录表的索引
+     *
+     * @param statement 用于执行语句的Statement
+     */
+    void createIndexes(Statement statement) throws SQLException {
+        //发送记录的键集分页
+        createIndex(statement, tableName, "historyIndex", "playerUUID, expireTime, UUID");
+        createIndex(statement, claimTableName(), "claimIndex", "packetUUID");
+        //领取记录的键集分页，索引中已隐含自增主键id
+        createIndex(statement, claimTableName(), "claimPlayerIndex", "playerUUID");
+    }
+
+    /**
+     * 创建索引，索引已存在时不做任何事
+     *
+     * @param statement 用于执行语句的Statement
+     * @param table     表名称
+     * @param index     索引名称
+     * @param columns   索引的列，以逗号分隔
+     */
+    void createIndex(Statement statement, String table, String index, String columns) throws SQLException {
+        statement.executeUpdate("CREATE INDEX if not exists " + index + " ON " + table + " (" + columns + ")");
+    }
+
+    /**
+     * 删除索引，索引不存在时不做任何事
+     *
+     * @param statement 用于执行语句的Statement
+     * @param table     索引所在的表
+     * @param index     索引名称
+     */
+    void dropIndex(Statement statement, String table, String index) throws SQLException {
+        statement.executeUpdate("DROP INDEX if exists " + index);
+    }
+
+    /**
+     * 借出一个数据库连接，用完后必须调用{@link #release(PooledConnection)}归还
+     *
+     * @return 数据库连接
+     */
+    abstract PooledConnection borrow();
+
+    /**
+     * 借出一个只用于查询的数据库连接，用完后同样需要调用{@link #release(PooledConnection)}归还
+     *
+     * @return 数据库连接
+     */
+    PooledConnection borrowReader() {
+        return borrow();
+    }
+
+    /**
+     * 归还借出的数据库连接
+     *
+     * @param connection 数据库连接
+     */
+    abstract void release(PooledConnection connection);
+
+    /**
+     * 写入线程commit成功后调用，此时连接上没有未完成的事务
+     *
+     * @param connection 执行commit的连接
+     */
+    void afterCommit(PooledConnection connection) throws SQLException {
+    }
+
+    /**
+     * 关闭所有数据库连接
+     */
+    abstract void closeConnections();
+
+    private String insertSQL() {
+        return "INSERT INTO " + tableName + " (UUID,playerUUID,giveType,RedPacketType,amount,money,extraData,givers,expireTime,expired) VALUES (?,?,?,?,?,?,?,?,?,?)";
+    }
+
+    private String updateSQL() {
+        return "UPDATE " + tableName + " SET amount=?,money=?,extraData=?,expired=? where UUID=?";
+    }
+
+    private String deleteSQL() {
+        return "DELETE FROM " + tableName + " Where UUID=?";
+    }
+
+    /**
+     * @return 归档表名称，已领完或已过期的红包会被移动到此表
+     */
+    String archiveTableName() {
+        return tableName + "_archive";
+    }
+
+    /**
+     * @return 元数据表名称
+     */
+    String metaTableName() {
+        return tableName + "_meta";
+    }
+
+    /**
+     * @return 领取记录表名称
+     */
+    String claimTableName() {
+        return tableName + "_claims";
+    }
+
+    private String claimInsertSQL() {
+        return "INSERT INTO " + claimTableName() + " (packetUUID,playerUUID,cents,claimTime) VALUES (?,?,?,?)";
+    }
+
+    private String archiveDeleteSQL() {
+        return "DELETE FROM " + archiveTableName() + " Where UUID=?";
+    }
+
+    private String claimDeleteSQL() {
+        return "DELETE FROM " + claimTableName() + " Where packetUUID=?";
     }
 
     synchronized public void setRunning(boolean running) {
         this.running = running;
-        commit();
-        if (!running) {
+        if (running) {
+            historyCache.configure(config().getInt("Database.HistoryCache.MaxRecords", 2000));
+            writeQueue.loadConfig();
+            writeQueue.start();
+            maintenanceTask = scheduleMaintenance();
+        } else {
+            if (maintenanceTask != null) {
+                maintenanceTask.cancel();
+                maintenanceTask = null;
+            }
+            //写入线程退出前会写入并提交剩余数据
+            writeQueue.shutdown();
             close();
+            if (historyCache.getHits() + historyCache.getMisses() > 0) {
+                log(Level.INFO, "发送记录缓存：命中%d次，未命中%d次，淘汰%d页", historyCache.getHits(), historyCache.getMisses(), historyCache.getEvictions());
+            }
         }
-        //System.out.println("First/Final commit! time cost: " + (System.currentTimeMillis() - time) + " ms");
     }
 
-    private synchronized void close() {
+    /**
+     * 启动定时维护任务，默认为定时将已领完与已过期的红包从红包表移动到归档表，使红包表只保留仍可领取的红包
+     *
+     * @return 定时任务，停止时会被取消，null代表没有定时任务
+     */
+    BukkitTask scheduleMaintenance() {
+        if (!config().getBoolean("Database.Archive.Enabled", true)) {
+            return null;
+        }
+        long interval = Math.max(1, config().getLong("Database.Archive.Interval", 600L)) * 20;
+        int chunkSize = Math.max(1, config().getInt("Database.Archive.ChunkSize", 500));
+        return Bukkit.getScheduler().runTaskTimerAsynchronously(getInstance(),
+                () -> submit(() -> archiveChunk(chunkSize, 0)), interval, interval);
+    }
+
+    /**
+     * 提交一个在写入线程中执行的任务，执行前会先写入并提交队列中已有的数据
+     *
+     * @param task 任务
+     */
+    void submit(Runnable task) {
+        writeQueue.submit(task);
+    }
+
+    /**
+     * 由写入线程调用，在单独的事务中归档最多chunkSize个红包
+     * 未归档完时重新提交任务，两批之间写入线程会先处理队列中的修改，避免领取被长时间阻塞
+     *
+     * @param chunkSize 每批归档的数量
+     * @param moved     本轮已归档的数量
+     */
+    private void archiveChunk(int chunkSize, long moved) {
+        PooledConnection connection = borrow();
+        int count = 0;
         try {
-            getConnection().close();
+            StatementCache cache = connection.getStatements();
+            List<byte[]> uuids = new ArrayList<>(chunkSize);
+            PreparedStatement select = cache.prepare("SELECT UUID FROM " + tableName + " WHERE amount=0 OR expired=1 LIMIT ?");
+            select.setInt(1, chunkSize);
+            try (ResultSet resultSet = select.executeQuery()) {
+                while (resultSet.next()) {
+                    uuids.add(resultSet.getBytes(1));
+                }
+            }
+            if (!uuids.isEmpty()) {
+                //先复制再删除，两者在同一事务中，失败时整批回滚
+                PreparedStatement copy = cache.prepare("INSERT INTO " + archiveTableName() + " SELECT * FROM " + tableName + " WHERE UUID=?");
+                PreparedStatement delete = cache.prepare(deleteSQL());
+                try {
+                    for (byte[] uuid : uuids) {
+                        copy.setBytes(1, uuid);
+                        copy.addBatch();
+                        delete.setBytes(1, uuid);
+                        delete.addBatch();
+                    }
+                    copy.executeBatch();
+                    delete.executeBatch();
+                } finally {
+                    copy.clearBatch();
+                    delete.clearBatch();
+                }
+                connection.getConnection().commit();
+                count = uuids.size();
+                archived.addAndGet(count);
+            }
         } catch (SQLException ex) {
-            throw new RuntimeException("数据库连接关闭失败！", ex);
+            try {
+                connection.getConnection().rollback();
+            } catch (SQLException ignored) {
+            }
+            warn(new RuntimeException("归档红包失败！", ex));
+            return;
+        } finally {
+            release(connection);
+        }
+        long total = moved + count;
+        if (count == chunkSize) {
+            submit(() -> archiveChunk(chunkSize, total));
+        } else if (total > 0) {
+            log(Level.INFO, "已将%d个已领完或已过期的红包移动到归档表", total);
         }
     }
 
-    public Connection getConnection() {
-        return connection;
+    @Override
+    public void shutdown() {
+        setRunning(false);
+    }
+
+    private synchronized void close() {
+        closeConnections();
     }
 
-    private synchronized void commit() {
+    /**
+     * 由写入线程调用，提交之前写入的数据并归还连接
+     */
+    void commitWrites() {
+        PooledConnection connection = writerConnection;
+        if (connection == null) {
+            return;
+        }
         try {
-            commiting = true;
-            getConnection().commit();
-            commiting = false;
+            connection.getConnection().commit();
         } catch (SQLException ex) {
+            //连接仍由写入线程持有，由rollbackWrites回滚并归还
             throw new RuntimeException("数据库提交更改失败！", ex);
         }
+        writerConnection = null;
+        try {
+            afterCommit(connection);
+        } catch (SQLException ex) {
+            //数据已提交，不能再回滚重试
+            warn(new RuntimeException("数据库提交后的维护操作失败！", ex));
+        } finally {
+            release(connection);
+        }
+    }
+
+    /**
+     * 由写入线程调用，写入或提交失败时回滚未提交的数据并归还连接
+     */
+    void rollbackWrites() {
+        PooledConnection connection = writerConnection;
+        if (connection == null) {
+            return;
+        }
+        writerConnection = null;
+        try {
+            connection.getConnection().rollback();
+        } catch (SQLException ex) {
+            throw new RuntimeException("数据库回滚失败！", ex);
+        } finally {
+            release(connection);
+        }
+    }
+
+    /**
+     * 由写入线程调用，将队列中的修改按类型分组后以JDBC批处理写入数据库，提交由{@link #commitWrites()}完成
+     * 任何一条语句失败都会抛出异常，由写入队列回滚整个事务后重试
+     *
+     * @param batch  合并后的修改
+     * @param claims 新增的领取记录
+     */
+    void flushWrites(List<WriteBehindQueue.PendingWrite> batch, List<ClaimRecord> claims) {
+        List<RedPacket> inserts = new ArrayList<>();
+        List<RedPacket> updates = new ArrayList<>();
+        List<RedPacket> deletes = new ArrayList<>();
+        for (WriteBehindQueue.PendingWrite write : batch) {
+            switch (write.operation) {
+                case INSERT:
+                    inserts.add(write.redPacket);
+                    break;
+                case UPDATE:
+                    updates.add(write.redPacket);
+                    break;
+                case DELETE:
+                    deletes.add(write.redPacket);
+            }
+        }
+        if (writerConnection == null) {
+            writerConnection = borrow();
+        }
+        StatementCache cache = writerConnection.getStatements();
+        executeBatch(cache, insertSQL(), inserts, RedPacket::bindInsert);
+        executeBatch(cache, claimInsertSQL(), claims, (claim, statement) -> {
+            statement.setBytes(1, toBytes(claim.getPacketUUID()));
+            statement.setBytes(2, toBytes(claim.getPlayerUUID()));
+            statement.setLong(3, claim.getCents());
+            statement.setLong(4, claim.getClaimTime());
+        });
+        executeBatch(cache, updateSQL(), updates, RedPacket::bindUpdate);
+        executeBatch(cache, claimDeleteSQL(), deletes, (redPacket, statement) -> statement.setBytes(1, toBytes(redPacket.getUUID())));
+        executeBatch(cache, deleteSQL(), deletes, (redPacket, statement) -> statement.setBytes(1, toBytes(redPacket.getUUID())));
+        executeBatch(cache, archiveDeleteSQL(), deletes, (redPacket, statement) -> statement.setBytes(1, toBytes(redPacket.getUUID())));
     }
 
+    private <T> void executeBatch(StatementCache cache, String sql, List<T> values, StatementBinder<T> binder) {
+        if (values.isEmpty()) {
+            return;
+        }
+        PreparedStatement statement = cache.prepare(sql);
+        synchronized (statement) {
+            try {
+                for (T value : values) {
+                    binder.bind(value, statement);
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+            } catch (BatchUpdateException ex) {
+                //部分失败时整个事务回滚，由写入队列重试
+                throw new RuntimeException("SQL批量执行部分失败！语句：" + sql, ex);
+            } catch (SQLException ex) {
+                throw new RuntimeException("SQL语句执行错误！语句：" + sql, ex);
+            } finally {
+                try {
+                    statement.clearBatch();
+                } catch (SQLException ignored) {
+                }
+            }
+        }
+    }
+
+    @Override
     public void store(RedPacket redPacket) {
-        executeUpdate(redPacket.toInsertSQL(tableName));
+        historyCache.invalidate(redPacket.getPlayer().getUniqueId());
+        writeQueue.enqueue(redPacket, WriteBehindQueue.Operation.INSERT);
     }
 
+    @Override
     public void delete(RedPacket redPacket) {
-        executeUpdate("DELETE FROM " + tableName + " Where UUID=" + redPacket.getUUID().toString());
+        historyCache.invalidate(redPacket.getPlayer().getUniqueId());
+        writeQueue.enqueue(redPacket, WriteBehindQueue.Operation.DELETE);
     }
 
-
+    @Override
     public void update(RedPacket redPacket) {
-        executeUpdate(redPacket.toUpdateSQL(tableName));
+        historyCache.invalidate(redPacket.getPlayer().getUniqueId());
+        writeQueue.enqueue(redPacket, WriteBehindQueue.Operation.UPDATE);
+    }
+
+    /**
+     * 追加一条领取记录，红包本身的余额与个数仍需通过{@link #update(RedPacket)}更新
+     *
+     * @param redPacket  被领取的红包
+     * @param playerUUID 领取的玩家
+     * @param cents      领取的金额（单位为分）
+     */
+    @Override
+    public void claim(RedPacket redPacket, UUID playerUUID, long cents) {
+        writeQueue.enqueueClaim(new ClaimRecord(redPacket.getUUID(), playerUUID, cents, System.currentTimeMillis()));
+    }
+
+    /**
+     * SYNC模式下等待当前线程之前的修改全部提交，其他模式下直接返回
+     * 不能在持有红包锁的情况下调用
+     *
+     * @throws RuntimeException 修改所在的事务写入失败或等待超时
+     */
+    @Override
+    public void awaitDurable() {
+        writeQueue.awaitDurable();
+    }
+
+    public DurabilityMode getDurabilityMode() {
+        return writeQueue.getMode();
+    }
+
+    /**
+     * @return 写入线程的提交次数
+     */
+    public long getCommitCount() {
+        return writeQueue.getCommitCount();
+    }
+
+    /**
+     * @return 平均提交耗时（ms）
+     */
+    public double getAverageCommitMillis() {
+        return writeQueue.getAverageCommitMillis();
+    }
+
+    /**
+     * @return 最大提交耗时（ms）
+     */
+    public double getMaxCommitMillis() {
+        return writeQueue.getMaxCommitMillis();
+    }
+
+    /**
+     * @return 最近一次提交耗时（ms）
+     */
+    public double getLastCommitMillis() {
+        return writeQueue.getLastCommitMillis();
+    }
+
+    /**
+     * @return 等待写入数据库的红包数量
+     */
+    public int getQueueDepth() {
+        return writeQueue.getDepth();
+    }
+
+    /**
+     * @return 因同一红包多次修改而被合并掉的写入次数
+     */
+    public long getMergedWrites() {
+        return writeQueue.getMergedCount();
+    }
+
+    /**
+     * @return 发送记录缓存的命中次数
+     */
+    public long getHistoryCacheHits() {
+        return historyCache.getHits();
+    }
+
+    /**
+     * @return 发送记录缓存的未命中次数
+     */
+    public long getHistoryCacheMisses() {
+        return historyCache.getMisses();
+    }
+
+    /**
+     * @return 发送记录缓存因容量不足淘汰的页数
+     */
+    public long getHistoryCacheEvictions() {
+        return historyCache.getEvictions();
+    }
+
+    /**
+     * @return 发送记录缓存中的记录条数
+     */
+    public int getHistoryCacheSize() {
+        return historyCache.getRecords();
+    }
+
+    /**
+     * @return 本次启动以来移动到归档表的红包数量
+     */
+    public long getArchivedCount() {
+        return archived.get();
     }
 
     /**
@@ -115,11 +612,99 @@ public abstract class AbstractDatabaseManager {
      *
      * @return 可被领取的红包list
      */
+    @Override
     public List<RedPacket> getValid() {
         long time = System.currentTimeMillis();
-        ResultSet resultSet = executeQuery("Select * from " + tableName + " where expired=0 and amount!=0");
         //System.out.println("Init Query Time:" + (System.currentTimeMillis() - time) + " ms");
-        return RedPacket.fromSQL(resultSet);
+        PooledConnection connection = borrowReader();
+        try {
+            Map<UUID, EncodedClaims> claims = queryClaims(connection,
+                    "SELECT c.packetUUID,c.playerUUID,c.cents FROM " + claimTableName() + " c JOIN " + tableName + " p ON c.packetUUID=p.UUID"
+                            + " WHERE p.expired=0 AND p.amount!=0 ORDER BY c.id", (ignored) -> {
+                    });
+            return executeQuery(connection, "Select * from " + tableName + " where expired=0 and amount!=0", (ignored) -> {
+            }, claims);
+        } catch (SQLException ex) {
+            throw new RuntimeException("SQL查询执行错误！", ex);
+        } finally {
+            release(connection);
+        }
+    }
+
+    /**
+     * 流式读取可被领取的红包，读取线程只读取原始数据，解析交给多个载入线程
+     * 每读取FetchSize行作为一批提交解析，解析完成后立即发布，不必等待全部载入
+     * 解析队列已满时由读取线程自己解析，避免原始数据在内存中堆积
+     *
+     * @param publisher 接收一批红包，会在多个载入线程中同时调用
+     */
+    @Override
+    public void loadValid(Consumer<List<RedPacket>> publisher) {
+        int fetchSize = Math.max(1, config().getInt("Database.Load.FetchSize", 500));
+        int threads = Math.max(1, config().getInt("Database.Load.Threads", 2));
+        AtomicInteger threadId = new AtomicInteger();
+        ThreadPoolExecutor decoders = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(threads * 2),
+                task -> new Thread(task, "RedPacket-Loader-" + threadId.incrementAndGet()), new ThreadPoolExecutor.CallerRunsPolicy());
+        PooledConnection connection = borrowReader();
+        try {
+            Map<UUID, EncodedClaims> claims = queryClaims(connection,
+                    "SELECT c.packetUUID,c.playerUUID,c.cents FROM " + claimTableName() + " c JOIN " + tableName + " p ON c.packetUUID=p.UUID"
+                            + " WHERE p.expired=0 AND p.amount!=0 ORDER BY c.id", (query) -> query.setFetchSize(fetchSize));
+            PreparedStatement statement = connection.getStatements().prepare("Select * from " + tableName + " where expired=0 and amount!=0");
+            synchronized (statement) {
+                //MySQL需在连接参数中加入useCursorFetch=true才会按FetchSize分批读取
+                statement.setFetchSize(fetchSize);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    List<RedPacket.SQLRow> rows = new ArrayList<>(fetchSize);
+                    while (resultSet.next()) {
+                        rows.add(new RedPacket.SQLRow(resultSet));
+                        if (rows.size() >= fetchSize) {
+                            decode(decoders, rows, claims, publisher);
+                            rows = new ArrayList<>(fetchSize);
+                        }
+                    }
+                    decode(decoders, rows, claims, publisher);
+                }
+            }
+        } catch (SQLException ex) {
+            throw new RuntimeException("SQL查询执行错误！", ex);
+        } finally {
+            release(connection);
+            decoders.shutdown();
+            try {
+                decoders.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static void decode(Executor decoders, List<RedPacket.SQLRow> rows, Map<UUID, EncodedClaims> claims, Consumer<List<RedPacket>> publisher) {
+        if (rows.isEmpty()) {
+            return;
+        }
+        decoders.execute(() -> {
+            List<RedPacket> batch = new ArrayList<>(rows.size());
+            for (RedPacket.SQLRow row : rows) {
+                try {
+                    batch.add(row.decode(claims));
+                } catch (RuntimeException ex) {
+                    warn(new RuntimeException("红包数据解析错误！", ex));
+                }
+            }
+            publisher.accept(batch);
+        });
+    }
+
+    /**
+     * 将领取记录按红包分组读取，同一红包内保持领取顺序
+     */
+    private static void readClaims(ResultSet resultSet, Map<UUID, EncodedClaims> claims) throws SQLException {
+        while (resultSet.next()) {
+            //只保存原始数据，红包使用时才解析
+            claims.computeIfAbsent(fromBytes(resultSet.getBytes(1)), (key) -> new EncodedClaims())
+                    .add(resultSet.getBytes(2), resultSet.getLong(3));
+        }
     }
 
     public RedPacket get(Player player) {
@@ -127,14 +712,165 @@ public abstract class AbstractDatabaseManager {
     }
 
     public List<RedPacket> getAll(Player player, int amount) {
-        return getNext(player, amount, 0);
+        List<RedPacket> list = new ArrayList<>();
+        getSentHistory(player.getUniqueId(), Long.MAX_VALUE, null, amount).forEach(record -> list.add(record.getRedPacket()));
+        return list;
     }
 
-    private List<RedPacket> getNext(Player player, int amount, int offset) {
-        long time = System.currentTimeMillis();
-        ResultSet resultSet = executeQuery("Select * from " + tableName + " where playerUUID='" + player.getUniqueId().toString() + "' order by expireTime desc LIMIT " + amount + " OFFSET " + offset);
-       // System.out.println("Query Time:" + (System.currentTimeMillis() - time) + " ms");
-        return RedPacket.fromSQL(resultSet);
+    /**
+     * 按过期时间从新到旧查询玩家发送的红包，包括已归档的红包
+     * 使用(playerUUID, expireTime, UUID)进行键集分页，翻页耗时与页码无关
+     * 查询结果会被缓存，直到该玩家的红包被保存、修改或删除
+     *
+     * @param playerUUID       发送红包的玩家
+     * @param beforeExpireTime 上一页最后一个红包的过期时间，第一页为{@link Long#MAX_VALUE}
+     * @param beforeUUID       上一页最后一个红包的UUID，第一页为null
+     * @param limit            最多返回的数量
+     * @return 发送记录
+     */
+    @Override
+    public List<HistoryRecord> getSentHistory(UUID playerUUID, long beforeExpireTime, UUID beforeUUID, int limit) {
+        HistoryCache.Key key = new HistoryCache.Key(playerUUID, beforeExpireTime, beforeUUID, limit);
+        List<HistoryRecord> cached = historyCache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        //必须在查询前获取，查询期间缓存被清除时不缓存结果
+        long stamp = historyCache.stamp();
+        List<HistoryRecord> records = Collections.unmodifiableList(querySentHistory(playerUUID, beforeExpireTime, beforeUUID, limit));
+        historyCache.put(key, records, stamp);
+        return records;
+    }
+
+    private List<HistoryRecord> querySentHistory(UUID playerUUID, long beforeExpireTime, UUID beforeUUID, int limit) {
+        ParameterBinder binder = (query) -> {
+            int i = 0;
+            //红包表与归档表各绑定一次，最后是合并后的数量限制
+            for (int table = 0; table < 2; table++) {
+                query.setBytes(++i, toBytes(playerUUID));
+                query.setLong(++i, beforeExpireTime);
+                query.setLong(++i, beforeExpireTime);
+                query.setBytes(++i, beforeUUID == null ? MAX_UUID : toBytes(beforeUUID));
+                query.setInt(++i, limit);
+            }
+            query.setInt(++i, limit);
+        };
+        PooledConnection connection = borrowReader();
+        try {
+            Map<UUID, EncodedClaims> claims = queryClaims(connection,
+                    "SELECT c.packetUUID,c.playerUUID,c.cents FROM " + claimTableName() + " c JOIN"
+                            + " (" + sentPageSQL("UUID,expireTime") + ") p"
+                            + " ON c.packetUUID=p.UUID ORDER BY c.id", binder);
+            List<HistoryRecord> records = new ArrayList<>();
+            executeQuery(connection, sentPageSQL("*"), binder, claims).forEach(redPacket -> records.add(new HistoryRecord(redPacket)));
+            return records;
+        } catch (SQLException ex) {
+            throw new RuntimeException("SQL查询执行错误！", ex);
+        } finally {
+            release(connection);
+        }
+    }
+
+    /**
+     * 红包表与归档表分别取出一页后再合并取出一页，两边都能使用各自的(playerUUID, expireTime, UUID)索引
+     *
+     * @param columns 查询的列
+     */
+    private String sentPageSQL(String columns) {
+        String where = " where playerUUID=? and (expireTime<? or (expireTime=? and UUID<?)) order by expireTime desc, UUID desc LIMIT ?";
+        return "Select " + columns + " from (Select * from " + tableName + where + ") h"
+                + " UNION ALL Select " + columns + " from (Select * from " + archiveTableName() + where + ") a"
+                + " order by expireTime desc, UUID desc LIMIT ?";
+    }
+
+    /**
+     * 按领取顺序从新到旧查询玩家的领取记录
+     * 使用(playerUUID, 领取记录编号)进行键集分页
+     *
+     * @param playerUUID    领取红包的玩家
+     * @param beforeClaimId 上一页最后一条记录的编号，第一页为{@link Long#MAX_VALUE}
+     * @param limit         最多返回的数量
+     * @return 领取记录
+     */
+    @Override
+    public List<HistoryRecord> getClaimHistory(UUID playerUUID, long beforeClaimId, int limit) {
+        ParameterBinder binder = (query) -> {
+            query.setBytes(1, toBytes(playerUUID));
+            query.setLong(2, beforeClaimId);
+            query.setInt(3, limit);
+        };
+        ParameterBinder packetBinder = (query) -> {
+            for (int i = 0; i < 6; i += 3) {
+                query.setBytes(i + 1, toBytes(playerUUID));
+                query.setLong(i + 2, beforeClaimId);
+                query.setInt(i + 3, limit);
+            }
+        };
+        String page = "SELECT packetUUID FROM " + claimTableName() + " WHERE playerUUID=? AND id<? ORDER BY id DESC LIMIT ?";
+        PooledConnection connection = borrowReader();
+        try {
+            Map<UUID, EncodedClaims> claims = queryClaims(connection,
+                    "SELECT a.packetUUID,a.playerUUID,a.cents FROM " + claimTableName() + " a JOIN"
+                            + " (" + page + ") p ON a.packetUUID=p.packetUUID ORDER BY a.id", binder);
+            //领取的红包可能仍在红包表中，也可能已被归档
+            Map<UUID, RedPacket> redPackets = new HashMap<>();
+            executeQuery(connection,
+                    "SELECT p.* FROM " + tableName + " p JOIN (" + page + ") c ON p.UUID=c.packetUUID"
+                            + " UNION ALL SELECT p.* FROM " + archiveTableName() + " p JOIN (" + page + ") c ON p.UUID=c.packetUUID",
+                    packetBinder, claims).forEach(redPacket -> redPackets.put(redPacket.getUUID(), redPacket));
+            PreparedStatement statement = connection.getStatements().prepare(
+                    "SELECT packetUUID,id,cents,claimTime FROM " + claimTableName() + " WHERE playerUUID=? AND id<? ORDER BY id DESC LIMIT ?");
+            List<HistoryRecord> records = new ArrayList<>();
+            synchronized (statement) {
+                binder.bind(statement);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        RedPacket redPacket = redPackets.get(fromBytes(resultSet.getBytes(1)));
+                        //红包已被删除
+                        if (redPacket != null) {
+                            records.add(new HistoryRecord(redPacket, resultSet.getLong(2), resultSet.getLong(3), resultSet.getLong(4)));
+                        }
+                    }
+                }
+            }
+            return records;
+        } catch (SQLException ex) {
+            throw new RuntimeException("SQL查询执行错误！", ex);
+        } finally {
+            release(connection);
+        }
+    }
+
+    private Map<UUID, EncodedClaims> queryClaims(PooledConnection connection, String sql, ParameterBinder binder) throws SQLException {
+        Map<UUID, EncodedClaims> claims = new HashMap<>();
+        PreparedStatement statement = connection.getStatements().prepare(sql);
+        synchronized (statement) {
+            binder.bind(statement);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                readClaims(resultSet, claims);
+            }
+        }
+        return claims;
+    }
+
+    private List<RedPacket> executeQuery(PooledConnection connection, String sql, ParameterBinder binder, Map<UUID, EncodedClaims> claims) throws SQLException {
+        PreparedStatement statement = connection.getStatements().prepare(sql);
+        synchronized (statement) {
+            binder.bind(statement);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return RedPacket.fromSQL(resultSet, claims);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    interface StatementBinder<T> {
+        void bind(T value, PreparedStatement statement) throws SQLException;
+    }
+
+    @FunctionalInterface
+    interface ParameterBinder {
+        void bind(PreparedStatement statement) throws SQLException;
     }
 
 
@@ -0,0 +1,29 @@
+package sandtechnology.redpacket.database;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * 版本5：增加归档表
+ * 已有的已领完与已过期红包不在此处移动，由后台归档任务分批完成
+ */
+class ArchiveTableMigration implements SchemaMigration {
+
+    @Override
+    public int getVersion() {
+        return 5;
+    }
+
+    @Override
+    public String getDescription() {
+        return "红包归档表";
+    }
+
+    @Override
+    public void migrate(AbstractDatabaseManager manager, Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            manager.createArchiveTable(statement);
+        }
+    }
+}
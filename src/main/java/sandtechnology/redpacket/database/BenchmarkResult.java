@@ -0,0 +1,36 @@
+package sandtechnology.redpacket.database;
+
+/**
+ * 一项性能测试的结果
+ */
+public final class BenchmarkResult {
+
+    private final String name;
+    private final long operations;
+    private final long elapsedNanos;
+
+    public BenchmarkResult(String name, long operations, long elapsedNanos) {
+        this.name = name;
+        this.operations = operations;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getOperations() {
+        return operations;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedNanos / 1_000_000L;
+    }
+
+    /**
+     * @return 每秒完成的操作次数
+     */
+    public long getOperationsPerSecond() {
+        return elapsedNanos == 0 ? 0 : operations * 1_000_000_000L / elapsedNanos;
+    }
+}
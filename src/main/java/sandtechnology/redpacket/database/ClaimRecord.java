@@ -0,0 +1,43 @@
+package sandtechnology.redpacket.database;
+
+import java.util.UUID;
+
+/**
+ * 一条红包领取记录，对应领取表中的一行
+ */
+public final class ClaimRecord {
+
+    private final UUID packetUUID;
+    private final UUID playerUUID;
+    private final long cents;
+    private final long claimTime;
+
+    /**
+     * @param packetUUID 红包唯一识别码
+     * @param playerUUID 领取红包的玩家
+     * @param cents      领取的金额（单位为分）
+     * @param claimTime  领取时间，0代表未知（从旧版moneyMap迁移而来）
+     */
+    public ClaimRecord(UUID packetUUID, UUID playerUUID, long cents, long claimTime) {
+        this.packetUUID = packetUUID;
+        this.playerUUID = playerUUID;
+        this.cents = cents;
+        this.claimTime = claimTime;
+    }
+
+    public UUID getPacketUUID() {
+        return packetUUID;
+    }
+
+    public UUID getPlayerUUID() {
+        return playerUUID;
+    }
+
+    public long getCents() {
+        return cents;
+    }
+
+    public long getClaimTime() {
+        return claimTime;
+    }
+}
@@ -0,0 +1,166 @@
+package sandtechnology.redpacket.database;
+
+import com.google.gson.reflect.TypeToken;
+import sandtechnology.redpacket.redpacket.RedPacket;
+
+import java.lang.reflect.Type;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Level;
+
+import static sandtechnology.redpacket.RedPacketPlugin.log;
+import static sandtechnology.redpacket.util.JsonHelper.getGson;
+import static sandtechnology.redpacket.util.UUIDHelper.toBytes;
+
+/**
+ * 版本3：紧凑的数据库结构
+ * UUID改为16字节二进制，金额改为以分为单位的整数，枚举改为数字代码，过期时间统一为UTC毫秒数因此不再存储时区
+ * 弃用的moneyMap列中的领取数据会一并迁移到领取记录表
+ * 迁移时先将数据复制到新表（表名_v3），复制完成时在同一事务中于元数据表记录进度
+ * 之后将旧表重命名为备份表（表名_v2），再将新表重命名为正式表，最后删除备份表
+ * MySQL中每条DDL都会隐式提交，替换表的任何一步中断后，下次启动会根据元数据表中的进度与表是否存在继续替换，不会重新复制
+ */
+class CompactSchemaMigration implements SchemaMigration {
+
+    private static final Type legacyMoneyMapType = new TypeToken<LinkedHashMap<UUID, Double>>() {}.getType();
+    private static final int BATCH_SIZE = 1000;
+    //元数据表中记录迁移进度的键，值为COPIED代表数据已复制到新表
+    private static final String STATE_KEY = "compactMigration";
+    private static final String COPIED = "copied";
+
+    @Override
+    public int getVersion() {
+        return 3;
+    }
+
+    @Override
+    public String getDescription() {
+        return "二进制UUID、整数金额与数字枚举";
+    }
+
+    @Override
+    public void migrate(AbstractDatabaseManager manager, Connection connection) throws SQLException {
+        String packetTable = manager.tableName;
+        String claimTable = manager.claimTableName();
+        String newPacketTable = packetTable + "_v3";
+        String newClaimTable = claimTable + "_v3";
+        if (!COPIED.equals(SchemaMigrator.readMeta(manager, connection, STATE_KEY))) {
+            boolean hasClaimTable = SchemaMigrator.tableExists(connection, claimTable);
+            try (Statement statement = connection.createStatement()) {
+                //清理上次中断的复制
+                statement.executeUpdate("DROP TABLE IF EXISTS " + newPacketTable);
+                statement.executeUpdate("DROP TABLE IF EXISTS " + newClaimTable);
+                manager.createTables(statement, newPacketTable, newClaimTable);
+            }
+            try (PreparedStatement packetInsert = connection.prepareStatement("INSERT INTO " + newPacketTable + " (UUID,playerUUID,giveType,RedPacketType,amount,money,extraData,givers,expireTime,expired) VALUES (?,?,?,?,?,?,?,?,?,?)");
+                 PreparedStatement claimInsert = connection.prepareStatement("INSERT INTO " + newClaimTable + " (packetUUID,playerUUID,cents,claimTime) VALUES (?,?,?,?)")) {
+                copyPackets(connection, packetTable, packetInsert, claimInsert);
+                if (hasClaimTable) {
+                    copyClaims(connection, claimTable, claimInsert);
+                }
+            }
+            SchemaMigrator.writeMeta(manager, connection, STATE_KEY, COPIED);
+            connection.commit();
+        } else {
+            log(Level.INFO, "数据已复制到新表，继续上次中断的表替换");
+        }
+        try (Statement statement = connection.createStatement()) {
+            swap(connection, statement, packetTable, newPacketTable);
+            swap(connection, statement, claimTable, newClaimTable);
+            //Sqlite的索引名称全局唯一，先删除备份表（及其索引）再创建新表的索引
+            statement.executeUpdate("DROP TABLE IF EXISTS " + backupName(claimTable));
+            statement.executeUpdate("DROP TABLE IF EXISTS " + backupName(packetTable));
+            manager.createIndexes(statement);
+        }
+        //与版本号在同一事务中提交
+        SchemaMigrator.deleteMeta(manager, connection, STATE_KEY);
+    }
+
+    /**
+     * 用新表替换旧表，每一步都可以在中断后重新执行
+     * 新表不存在说明已替换完成
+     */
+    private static void swap(Connection connection, Statement statement, String table, String newTable) throws SQLException {
+        if (!SchemaMigrator.tableExists(connection, newTable)) {
+            return;
+        }
+        if (SchemaMigrator.tableExists(connection, table)) {
+            statement.executeUpdate("ALTER TABLE " + table + " RENAME TO " + backupName(table));
+        }
+        statement.executeUpdate("ALTER TABLE " + newTable + " RENAME TO " + table);
+    }
+
+    private static String backupName(String table) {
+        return table + "_v2";
+    }
+
+    private void copyPackets(Connection connection, String packetTable, PreparedStatement packetInsert, PreparedStatement claimInsert) throws SQLException {
+        int count = 0;
+        try (Statement select = connection.createStatement();
+             ResultSet resultSet = select.executeQuery("SELECT UUID,playerUUID,giveType,RedPacketType,amount,money,moneyMap,extraData,givers,expireTime,timeZone,expired FROM " + packetTable)) {
+            while (resultSet.next()) {
+                int i = 0;
+                byte[] uuid = toBytes(UUID.fromString(resultSet.getString(++i)));
+                packetInsert.setBytes(1, uuid);
+                packetInsert.setBytes(2, toBytes(UUID.fromString(resultSet.getString(++i))));
+                packetInsert.setInt(3, RedPacket.GiveType.valueOf(resultSet.getString(++i)).getCode());
+                packetInsert.setInt(4, RedPacket.RedPacketType.valueOf(resultSet.getString(++i)).getCode());
+                packetInsert.setInt(5, resultSet.getInt(++i));
+                packetInsert.setLong(6, Math.round(resultSet.getDouble(++i) * 100));
+                String moneyMap = resultSet.getString(++i);
+                packetInsert.setString(7, resultSet.getString(++i));
+                packetInsert.setString(8, resultSet.getString(++i));
+                long expireTime = resultSet.getLong(++i);
+                ZoneId timeZone = ZoneId.of(resultSet.getString(++i));
+                //旧版本按存储时的时区保存本地时间，转换为当前时区下相同的本地时间
+                packetInsert.setLong(9, Instant.ofEpochMilli(expireTime).atZone(timeZone).withZoneSameLocal(ZoneId.systemDefault()).toInstant().toEpochMilli());
+                packetInsert.setInt(10, resultSet.getInt(++i));
+                packetInsert.addBatch();
+                if (moneyMap != null && !moneyMap.equals("{}")) {
+                    Map<UUID, Double> claims = getGson().fromJson(moneyMap, legacyMoneyMapType);
+                    if (claims != null) {
+                        for (Map.Entry<UUID, Double> entry : claims.entrySet()) {
+                            claimInsert.setBytes(1, uuid);
+                            claimInsert.setBytes(2, toBytes(entry.getKey()));
+                            claimInsert.setLong(3, Math.round(entry.getValue() * 100));
+                            claimInsert.setLong(4, 0L);
+                            claimInsert.addBatch();
+                        }
+                    }
+                }
+                if (++count % BATCH_SIZE == 0) {
+                    packetInsert.executeBatch();
+                    claimInsert.executeBatch();
+                }
+            }
+        }
+        packetInsert.executeBatch();
+        claimInsert.executeBatch();
+    }
+
+    private void copyClaims(Connection connection, String claimTable, PreparedStatement claimInsert) throws SQLException {
+        int count = 0;
+        try (Statement select = connection.createStatement();
+             ResultSet resultSet = select.executeQuery("SELECT packetUUID,playerUUID,cents,claimTime FROM " + claimTable + " ORDER BY id")) {
+            while (resultSet.next()) {
+                claimInsert.setBytes(1, toBytes(UUID.fromString(resultSet.getString(1))));
+                claimInsert.setBytes(2, toBytes(UUID.fromString(resultSet.getString(2))));
+                claimInsert.setLong(3, resultSet.getLong(3));
+                claimInsert.setLong(4, resultSet.getLong(4));
+                claimInsert.addBatch();
+                if (++count % BATCH_SIZE == 0) {
+                    claimInsert.executeBatch();
+                }
+            }
+        }
+        claimInsert.executeBatch();
+    }
+}
@@ -0,0 +1,257 @@
+package sandtechnology.redpacket.database;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Set;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+import static sandtechnology.redpacket.RedPacketPlugin.log;
+import static sandtechnology.redpacket.RedPacketPlugin.warn;
+
+/**
+ * 简易的数据库连接池
+ * 空闲连接以后进先出的顺序借出，只有空闲超过一定时间的连接才会在借出前进行有效性检查
+ * 借出时间过长的连接会被视为泄漏并输出借出时的调用栈
+ */
+public class ConnectionPool implements AutoCloseable {
+
+    private final ConnectionFactory factory;
+    private final int maxSize;
+    private final long idleValidationMillis;
+    private final long leakDetectionMillis;
+    private final long borrowTimeoutMillis;
+    private final BlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    private final Set<PooledConnection> borrowed = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger total = new AtomicInteger();
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong waitCount = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+    private final AtomicLong createdCount = new AtomicLong();
+    private final AtomicLong validationCount = new AtomicLong();
+    private final AtomicLong leakCount = new AtomicLong();
+    private final ScheduledExecutorService leakDetector;
+    private volatile boolean closed;
+
+    /**
+     * @param factory              创建新连接的方法
+     * @param maxSize              最大连接数
+     * @param idleValidationMillis 空闲超过该时间（ms）的连接借出前需要检查有效性
+     * @param leakDetectionMillis  借出超过该时间（ms）视为泄漏，0为不检测
+     * @param borrowTimeoutMillis  连接全部被占用时的最长等待时间（ms）
+     */
+    ConnectionPool(ConnectionFactory factory, int maxSize, long idleValidationMillis, long leakDetectionMillis, long borrowTimeoutMillis) {
+        this.factory = factory;
+        this.maxSize = Math.max(1, maxSize);
+        this.idleValidationMillis = idleValidationMillis;
+        this.leakDetectionMillis = leakDetectionMillis;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        if (leakDetectionMillis > 0) {
+            leakDetector = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "RedPacket-ConnectionLeakDetector");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long period = Math.max(1000L, leakDetectionMillis / 2);
+            leakDetector.scheduleAtFixedRate(this::detectLeaks, period, period, TimeUnit.MILLISECONDS);
+        } else {
+            leakDetector = null;
+        }
+    }
+
+    PooledConnection borrow() {
+        if (closed) {
+            throw new IllegalStateException("连接池已关闭！");
+        }
+        borrowCount.incrementAndGet();
+        long deadline = System.currentTimeMillis() + borrowTimeoutMillis;
+        boolean waited = false;
+        try {
+            while (true) {
+                PooledConnection connection = idle.pollFirst();
+                if (connection == null && !reserveSlot()) {
+                    long remain = deadline - System.currentTimeMillis();
+                    if (remain <= 0) {
+                        timeoutCount.incrementAndGet();
+                        throw new RuntimeException("获取数据库连接超时！当前连接池状态：" + this);
+                    }
+                    if (!waited) {
+                        waited = true;
+                        waitCount.incrementAndGet();
+                    }
+                    //分段等待，以便及时发现被丢弃的连接空出的位置
+                    connection = idle.pollFirst(Math.min(remain, 100L), TimeUnit.MILLISECONDS);
+                    if (connection == null) {
+                        continue;
+                    }
+                } else if (connection == null) {
+                    connection = create();
+                    return lend(connection);
+                }
+                if (isUsable(connection)) {
+                    return lend(connection);
+                }
+                discard(connection);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("等待数据库连接时被中断！", e);
+        }
+    }
+
+    void release(PooledConnection connection) {
+        if (!borrowed.remove(connection)) {
+            return;
+        }
+        connection.lastUsed = System.currentTimeMillis();
+        connection.borrowTrace = null;
+        if (closed) {
+            discard(connection);
+            return;
+        }
+        try {
+            //结束借出期间可能开启的只读事务，避免下次借出时读到旧快照
+            if (!connection.getConnection().getAutoCommit()) {
+                connection.getConnection().rollback();
+            }
+            idle.offerFirst(connection);
+        } catch (SQLException ex) {
+            discard(connection);
+        }
+    }
+
+    private boolean reserveSlot() {
+        int current;
+        do {
+            current = total.get();
+            if (current >= maxSize) {
+                return false;
+            }
+        } while (!total.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    private PooledConnection create() {
+        try {
+            PooledConnection connection = new PooledConnection(factory.create());
+            createdCount.incrementAndGet();
+            return connection;
+        } catch (SQLException | RuntimeException ex) {
+            total.decrementAndGet();
+            throw new RuntimeException("数据库连接错误", ex);
+        }
+    }
+
+    private PooledConnection lend(PooledConnection connection) {
+        connection.borrowedAt = System.currentTimeMillis();
+        connection.leakReported = false;
+        if (leakDetector != null) {
+            connection.borrowTrace = new Throwable("数据库连接借出位置");
+        }
+        borrowed.add(connection);
+        return connection;
+    }
+
+    private boolean isUsable(PooledConnection connection) {
+        if (System.currentTimeMillis() - connection.lastUsed < idleValidationMillis) {
+            return true;
+        }
+        validationCount.incrementAndGet();
+        try {
+            return connection.getConnection().isValid(1);
+        } catch (SQLException ex) {
+            return false;
+        }
+    }
+
+    private void discard(PooledConnection connection) {
+        total.decrementAndGet();
+        connection.close();
+    }
+
+    private void detectLeaks() {
+        long now = System.currentTimeMillis();
+        for (PooledConnection connection : borrowed) {
+            Throwable trace = connection.borrowTrace;
+            if (!connection.leakReported && trace != null && now - connection.borrowedAt > leakDetectionMillis) {
+                connection.leakReported = true;
+                leakCount.incrementAndGet();
+                log(Level.WARNING, "检测到可能泄漏的数据库连接，已借出%dms！", now - connection.borrowedAt);
+                warn(trace);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        if (leakDetector != null) {
+            leakDetector.shutdownNow();
+        }
+        PooledConnection connection;
+        while ((connection = idle.pollFirst()) != null) {
+            discard(connection);
+        }
+    }
+
+    public int getTotalConnections() {
+        return total.get();
+    }
+
+    public int getIdleConnections() {
+        return idle.size();
+    }
+
+    public int getActiveConnections() {
+        return borrowed.size();
+    }
+
+    public long getBorrowCount() {
+        return borrowCount.get();
+    }
+
+    public long getWaitCount() {
+        return waitCount.get();
+    }
+
+    public long getTimeoutCount() {
+        return timeoutCount.get();
+    }
+
+    public long getCreatedCount() {
+        return createdCount.get();
+    }
+
+    public long getValidationCount() {
+        return validationCount.get();
+    }
+
+    public long getLeakCount() {
+        return leakCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return "连接数：" + getTotalConnections() + "/" + maxSize
+                + "，使用中：" + getActiveConnections()
+                + "，空闲：" + getIdleConnections()
+                + "，借出次数：" + getBorrowCount()
+                + "，等待次数：" + getWaitCount()
+                + "，超时次数：" + getTimeoutCount()
+                + "，创建次数：" + getCreatedCount()
+                + "，检查次数：" + getValidationCount()
+                + "，泄漏次数：" + getLeakCount();
+    }
+
+    @FunctionalInterface
+    interface ConnectionFactory {
+        Connection create() throws SQLException;
+    }
+}
@@ -0,0 +1,29 @@
+package sandtechnology.redpacket.database;
+
+import java.util.Locale;
+
+/**
+ * 数据写入的持久化模式，决定写入线程何时写入与提交
+ */
+public enum DurabilityMode {
+    /**
+     * 每次领取立即写入并提交，调用者会等待提交完成后再返回
+     */
+    SYNC,
+    /**
+     * 组提交：累计到指定数量或等待超过指定时间（以先到者为准）后写入并提交一次
+     */
+    GROUP,
+    /**
+     * 异步：修改立即写入但按固定间隔提交，崩溃时可能丢失最后一个间隔内的数据
+     */
+    ASYNC;
+
+    public static DurabilityMode fromName(String name) {
+        try {
+            return valueOf(name.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException | NullPointerException ex) {
+            return GROUP;
+        }
+    }
+}
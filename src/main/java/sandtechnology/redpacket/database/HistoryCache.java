@@ -0,0 +1,172 @@
+package sandtechnology.redpacket.database;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按(玩家, 页)缓存发送记录查询结果的LRU缓存
+ * 容量按缓存的记录条数计算，超出后淘汰最久未使用的页
+ * 玩家的红包被保存或修改时只清除该玩家的缓存
+ * 查询期间该玩家的缓存被清除过时，查询结果不会被缓存，避免缓存旧数据
+ */
+class HistoryCache {
+
+    //记录清除时间的玩家数量上限，超出后全部丢弃并提高下限
+    private static final int MAX_TRACKED_PLAYERS = 10000;
+
+    private final LinkedHashMap<Key, List<HistoryRecord>> pages = new LinkedHashMap<>(16, 0.75F, true);
+    private final Map<UUID, Set<Key>> playerPages = new HashMap<>();
+    //每次清除都会递增，用于判断查询期间缓存是否被清除过
+    private final AtomicLong stamp = new AtomicLong();
+    private final Map<UUID, Long> invalidatedAt = new HashMap<>();
+    private long invalidatedFloor;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private volatile int maxRecords = 2000;
+    private int records;
+
+    /**
+     * @param maxRecords 最多缓存的记录条数，0为不缓存
+     */
+    synchronized void configure(int maxRecords) {
+        this.maxRecords = Math.max(0, maxRecords);
+        evict();
+    }
+
+    /**
+     * @param key 查询的页
+     * @return 缓存的查询结果，未缓存时返回null
+     */
+    synchronized List<HistoryRecord> get(Key key) {
+        List<HistoryRecord> page = pages.get(key);
+        if (page == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return page;
+    }
+
+    /**
+     * @return 开始查询前需要获取的时间戳，用于{@link #put(Key, List, long)}
+     */
+    long stamp() {
+        return stamp.get();
+    }
+
+    /**
+     * 缓存查询结果，查询期间该玩家的缓存被清除过时不缓存
+     *
+     * @param key   查询的页
+     * @param page  查询结果
+     * @param since 开始查询前的时间戳
+     */
+    synchronized void put(Key key, List<HistoryRecord> page, long since) {
+        if (maxRecords == 0 || since < invalidatedFloor || invalidatedAt.getOrDefault(key.playerUUID, Long.MIN_VALUE) > since) {
+            return;
+        }
+        List<HistoryRecord> old = pages.put(key, page);
+        if (old != null) {
+            records -= weight(old);
+        }
+        records += weight(page);
+        playerPages.computeIfAbsent(key.playerUUID, uuid -> new HashSet<>()).add(key);
+        evict();
+    }
+
+    /**
+     * 清除玩家的所有缓存
+     *
+     * @param playerUUID 玩家
+     */
+    synchronized void invalidate(UUID playerUUID) {
+        long now = stamp.incrementAndGet();
+        if (invalidatedAt.size() >= MAX_TRACKED_PLAYERS) {
+            invalidatedAt.clear();
+            invalidatedFloor = now;
+        }
+        invalidatedAt.put(playerUUID, now);
+        Set<Key> keys = playerPages.remove(playerUUID);
+        if (keys != null) {
+            for (Key key : keys) {
+                records -= weight(pages.remove(key));
+            }
+        }
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<Key, List<HistoryRecord>>> iterator = pages.entrySet().iterator();
+        while (records > maxRecords && iterator.hasNext()) {
+            Map.Entry<Key, List<HistoryRecord>> eldest = iterator.next();
+            iterator.remove();
+            records -= weight(eldest.getValue());
+            Set<Key> keys = playerPages.get(eldest.getKey().playerUUID);
+            if (keys != null && keys.remove(eldest.getKey()) && keys.isEmpty()) {
+                playerPages.remove(eldest.getKey().playerUUID);
+            }
+            evictions.incrementAndGet();
+        }
+    }
+
+    //空页也占用一个单位，防止大量空页不受限制
+    private static int weight(List<HistoryRecord> page) {
+        return page == null ? 0 : page.size() + 1;
+    }
+
+    long getHits() {
+        return hits.get();
+    }
+
+    long getMisses() {
+        return misses.get();
+    }
+
+    long getEvictions() {
+        return evictions.get();
+    }
+
+    synchronized int getRecords() {
+        return records;
+    }
+
+    /**
+     * 发送记录的一页，与{@link AbstractDatabaseManager#getSentHistory(UUID, long, UUID, int)}的参数对应
+     */
+    static final class Key {
+        final UUID playerUUID;
+        final long beforeExpireTime;
+        final UUID beforeUUID;
+        final int limit;
+
+        Key(UUID playerUUID, long beforeExpireTime, UUID beforeUUID, int limit) {
+            this.playerUUID = playerUUID;
+            this.beforeExpireTime = beforeExpireTime;
+            this.beforeUUID = beforeUUID;
+            this.limit = limit;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) obj;
+            return beforeExpireTime == key.beforeExpireTime && limit == key.limit
+                    && playerUUID.equals(key.playerUUID) && Objects.equals(beforeUUID, key.beforeUUID);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(playerUUID, beforeExpireTime, beforeUUID, limit);
+        }
+    }
+}
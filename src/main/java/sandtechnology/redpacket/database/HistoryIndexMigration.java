@@ -0,0 +1,30 @@
+package sandtechnology.redpacket.database;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * 版本4：为历史记录的键集分页建立索引
+ * 红包表的(playerUUID, expireTime)索引替换为(playerUUID, expireTime, UUID)，领取记录表增加(playerUUID)索引
+ */
+class HistoryIndexMigration implements SchemaMigration {
+
+    @Override
+    public int getVersion() {
+        return 4;
+    }
+
+    @Override
+    public String getDescription() {
+        return "历史记录分页索引";
+    }
+
+    @Override
+    public void migrate(AbstractDatabaseManager manager, Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            manager.dropIndex(statement, manager.tableName, "searchIndex");
+            manager.createIndexes(statement);
+        }
+    }
+}
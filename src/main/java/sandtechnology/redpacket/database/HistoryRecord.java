@@ -0,0 +1,52 @@
+package sandtechnology.redpacket.database;
+
+import sandtechnology.redpacket.redpacket.RedPacket;
+
+/**
+ * 一条红包历史记录
+ * 发送记录与可领取红包只有红包本身，领取记录还包含该次领取的编号、金额与时间
+ */
+public final class HistoryRecord {
+
+    private final RedPacket redPacket;
+    private final long claimId;
+    private final long cents;
+    private final long claimTime;
+
+    public HistoryRecord(RedPacket redPacket) {
+        this(redPacket, 0L, 0L, 0L);
+    }
+
+    /**
+     * @param redPacket 红包
+     * @param claimId   领取记录编号，用于领取记录的分页
+     * @param cents     领取的金额（单位为分）
+     * @param claimTime 领取时间，旧版本迁移的数据为0
+     */
+    public HistoryRecord(RedPacket redPacket, long claimId, long cents, long claimTime) {
+        this.redPacket = redPacket;
+        this.claimId = claimId;
+        this.cents = cents;
+        this.claimTime = claimTime;
+    }
+
+    public RedPacket getRedPacket() {
+        return redPacket;
+    }
+
+    public long getClaimId() {
+        return claimId;
+    }
+
+    public long getCents() {
+        return cents;
+    }
+
+    public long getClaimTime() {
+        return claimTime;
+    }
+
+    public boolean isClaim() {
+        return claimId != 0;
+    }
+}
@@ -0,0 +1,147 @@
+package sandtechnology.redpacket.database;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * 红包日志的归档文件，保存已领完或已过期的红包，不包含在快照中也不常驻内存
+ * 文件头为魔数，之后是连续的记录，每条记录的格式为：长度(int) 类型(byte) 数据 校验和(int)
+ * 只在文件末尾追加，启动时截断末尾写入不完整的记录
+ * 追加只能在单个线程中进行，读取可以在多个线程中同时进行
+ */
+class JournalArchive implements AutoCloseable {
+
+    private static final int MAGIC = 0x5241524B;
+    private static final int HEADER_SIZE = 4;
+    private final FileChannel channel;
+    //下一条记录的写入位置
+    private long position = HEADER_SIZE;
+
+    /**
+     * @param file 归档文件，不存在时会自动创建
+     */
+    JournalArchive(File file) throws IOException {
+        this.channel = new RandomAccessFile(file, "rw").getChannel();
+    }
+
+    /**
+     * 读取所有记录，之后的追加从最后一条有效记录之后开始
+     *
+     * @param consumer 按写入顺序接收记录
+     */
+    void scan(RecordConsumer consumer) throws IOException {
+        if (channel.size() < HEADER_SIZE) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).flip();
+            channel.write(header, 0);
+            channel.truncate(HEADER_SIZE);
+            channel.force(false);
+            return;
+        }
+        channel.position(0);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+        if (in.readInt() != MAGIC) {
+            throw new IOException("无效的红包归档文件！");
+        }
+        try {
+            while (true) {
+                int length = in.readInt();
+                if (length <= 0 || position + 8 + length > channel.size()) {
+                    break;
+                }
+                byte type = in.readByte();
+                byte[] payload = new byte[length - 1];
+                in.readFully(payload);
+                if (in.readInt() != checksum(type, payload)) {
+                    break;
+                }
+                consumer.accept(type, payload, position + 5);
+                position += 8 + length;
+            }
+        } catch (EOFException ignored) {
+        }
+        //最后一条记录只写入了一部分
+        if (position < channel.size()) {
+            channel.truncate(position);
+            channel.force(false);
+        }
+    }
+
+    /**
+     * 追加一条记录，数据在{@link #force()}之后才保证持久化
+     *
+     * @param type    记录类型
+     * @param payload 记录数据
+     * @return 记录数据在文件中的位置，用于{@link #read(long, int)}
+     */
+    long append(byte type, byte[] payload) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(payload.length + 9);
+        buffer.putInt(payload.length + 1).put(type).put(payload).putInt(checksum(type, payload)).flip();
+        long offset = position + 5;
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        return offset;
+    }
+
+    /**
+     * 读取一条记录的数据
+     *
+     * @param offset 由{@link #append(byte, byte[])}或{@link #scan(RecordConsumer)}得到的位置
+     * @param length 数据长度
+     * @return 记录数据
+     */
+    byte[] read(long offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new EOFException("红包归档文件不完整！");
+            }
+        }
+        return buffer.array();
+    }
+
+    /**
+     * 将已追加的记录写入磁盘
+     */
+    void force() throws IOException {
+        channel.force(false);
+    }
+
+    /**
+     * @return 归档文件的长度
+     */
+    long size() {
+        return position;
+    }
+
+    private static int checksum(byte type, byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    @FunctionalInterface
+    interface RecordConsumer {
+        /**
+         * @param type    记录类型
+         * @param payload 记录数据
+         * @param offset  记录数据在文件中的位置
+         */
+        void accept(byte type, byte[] payload, long offset) throws IOException;
+    }
+}
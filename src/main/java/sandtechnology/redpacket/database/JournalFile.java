@@ -0,0 +1,175 @@
+package sandtechnology.redpacket.database;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * 使用内存映射的只追加日志文件
+ * 文件头为魔数与代数（generation），之后是连续的记录，每条记录的格式为：长度(int) 类型(byte) 数据 校验和(int)
+ * 校验和包含代数，压缩后从文件头重新写入时，新记录之后残留的旧记录会因校验失败而被忽略
+ * 每条记录之后都会写入长度0作为结束标记，回放时遇到结束标记或校验失败即停止
+ * 只能在单个线程中使用
+ */
+class JournalFile implements AutoCloseable {
+
+    static final int HEADER_SIZE = 12;
+    private static final int MAGIC = 0x524A4E4C;
+    private final FileChannel channel;
+    //每次映射的大小，写满后从当前位置重新映射
+    private final int mapSize;
+    private MappedByteBuffer buffer;
+    private long generation;
+    //下一条记录的写入位置
+    private long position = HEADER_SIZE;
+
+    /**
+     * @param file    日志文件，不存在时会自动创建
+     * @param mapSize 每次映射的大小（字节）
+     */
+    JournalFile(File file, int mapSize) throws IOException {
+        this.channel = new RandomAccessFile(file, "rw").getChannel();
+        this.mapSize = mapSize;
+    }
+
+    /**
+     * 读取文件头中的代数
+     *
+     * @return 代数，文件为空或文件头无效时返回-1
+     */
+    long readGeneration() throws IOException {
+        if (channel.size() < HEADER_SIZE) {
+            return -1;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        channel.read(header, 0);
+        header.flip();
+        if (header.getInt() != MAGIC) {
+            return -1;
+        }
+        generation = header.getLong();
+        return generation;
+    }
+
+    /**
+     * 回放日志中的记录，之后的写入将从最后一条有效记录之后开始
+     * 调用前需先调用{@link #readGeneration()}
+     *
+     * @param consumer 按写入顺序接收记录
+     */
+    void replay(RecordConsumer consumer) throws IOException {
+        MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        data.position(HEADER_SIZE);
+        while (data.remaining() >= 4) {
+            int length = data.getInt();
+            //最后一条记录只写入了一部分
+            if (length <= 0 || length + 4 > data.remaining()) {
+                break;
+            }
+            byte type = data.get();
+            byte[] payload = new byte[length - 1];
+            data.get(payload);
+            if (data.getInt() != checksum(type, payload)) {
+                break;
+            }
+            consumer.accept(type, payload);
+            position = data.position();
+        }
+    }
+
+    /**
+     * 清空日志并使用新的代数，用于生成快照之后
+     *
+     * @param generation 新的代数，应与快照的代数相同
+     */
+    void reset(long generation) throws IOException {
+        force();
+        buffer = null;
+        this.generation = generation;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + 4);
+        header.putInt(MAGIC).putLong(generation).putInt(0).flip();
+        channel.write(header, 0);
+        channel.force(false);
+        position = HEADER_SIZE;
+    }
+
+    /**
+     * 追加一条记录，数据在{@link #force()}之后才保证持久化
+     *
+     * @param type    记录类型
+     * @param payload 记录数据
+     */
+    void append(byte type, byte[] payload) throws IOException {
+        int length = payload.length + 1;
+        int size = 4 + length + 4;
+        //额外预留结束标记的空间
+        if (buffer == null || buffer.remaining() < size + 4) {
+            if (buffer != null) {
+                buffer.force();
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, position, Math.max(mapSize, size + 4));
+        }
+        buffer.putInt(length).put(type).put(payload).putInt(checksum(type, payload));
+        buffer.putInt(buffer.position(), 0);
+        position += size;
+    }
+
+    /**
+     * 丢弃指定位置之后追加的记录，用于撤销尚未刷盘的写入
+     *
+     * @param position 保留的日志长度（含文件头），通常为上次刷盘时的{@link #size()}
+     */
+    void truncate(long position) throws IOException {
+        buffer = null;
+        this.position = position;
+        ByteBuffer end = ByteBuffer.allocate(4);
+        end.putInt(0).flip();
+        channel.write(end, position);
+    }
+
+    /**
+     * 将已追加的记录写入磁盘
+     */
+    void force() {
+        if (buffer != null) {
+            buffer.force();
+        }
+    }
+
+    long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * @return 日志中有效数据的长度（含文件头）
+     */
+    long size() {
+        return position;
+    }
+
+    private int checksum(byte type, byte[] payload) {
+        CRC32 crc = new CRC32();
+        for (int i = 56; i >= 0; i -= 8) {
+            crc.update((int) (generation >>> i));
+        }
+        crc.update(type);
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    @Override
+    public void close() throws IOException {
+        force();
+        buffer = null;
+        channel.close();
+    }
+
+    @FunctionalInterface
+    interface RecordConsumer {
+        void accept(byte type, byte[] payload) throws IOException;
+    }
+}
@@ -0,0 +1,774 @@
+package sandtechnology.redpacket.database;
+
+import org.bukkit.Bukkit;
+import org.bukkit.scheduler.BukkitTask;
+import sandtechnology.redpacket.redpacket.EncodedClaims;
+import sandtechnology.redpacket.redpacket.RedPacket;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+
+import static sandtechnology.redpacket.RedPacketPlugin.config;
+import static sandtechnology.redpacket.RedPacketPlugin.getInstance;
+import static sandtechnology.redpacket.RedPacketPlugin.log;
+import static sandtechnology.redpacket.RedPacketPlugin.warn;
+import static sandtechnology.redpacket.util.UUIDHelper.fromBytes;
+import static sandtechnology.redpacket.util.UUIDHelper.toBytes;
+
+/**
+ * 使用只追加日志存储红包，适用于不需要外部数据库的单服务器
+ * 红包的创建、修改、领取与删除都以记录的形式追加到内存映射的日志文件中，可领取的红包同时保存在内存中用于查询
+ * 日志超过一定大小或定时生成快照，快照只包含每个红包的最新状态，之后日志被清空（日志压缩）
+ * 压缩时已领完或已过期的红包连同领取记录被移动到归档文件，不再包含在快照中，内存中只保留用于查询记录的索引
+ * 启动时读取归档文件与快照，再回放日志中快照之后的记录
+ * 写入与刷盘由写入线程完成，刷盘时机由持久化模式决定
+ */
+public class JournalManager implements RedPacketStorage {
+
+    private static final byte PACKET = 1;
+    private static final byte CLAIM = 2;
+    private static final byte DELETE = 3;
+    //归档文件中的红包：红包数据长度、红包数据、领取记录
+    private static final byte ARCHIVED = 4;
+    //领取记录：红包UUID、玩家UUID、金额（分）、领取时间
+    private static final int CLAIM_SIZE = 48;
+    private static final int SNAPSHOT_MAGIC = 0x52534E50;
+    private static final UUID MAX_UUID = new UUID(-1L, -1L);
+    //与数据库中(expireTime, UUID)的降序一致
+    private static final Comparator<Entry> newestFirst = Comparator.<Entry>comparingLong(entry -> entry.expireTime)
+            .thenComparing((entry1, entry2) -> compareUUID(entry1.uuid, entry2.uuid))
+            .reversed();
+
+    private final ReentrantReadWriteLock stateLock = new ReentrantReadWriteLock();
+    //未归档的红包
+    private final Map<UUID, Entry> packets = new HashMap<>();
+    //已归档的红包，只保存在归档文件中的位置
+    private final Map<UUID, Entry> archived = new HashMap<>();
+    //各玩家发送的红包（包括已归档的红包），从新到旧排列
+    private final Map<UUID, NavigableSet<Entry>> sent = new HashMap<>();
+    //未归档红包的领取记录，按领取记录编号从小到大排列
+    private final Map<UUID, List<Claim>> claimsByPacket = new HashMap<>();
+    //各玩家的全部领取记录，按领取记录编号从小到大排列
+    private final Map<UUID, List<Claim>> claimsByPlayer = new HashMap<>();
+    //上次压缩后被删除的已归档红包，下次压缩时写入归档文件，只由写入线程访问
+    private final List<UUID> archivedDeletes = new ArrayList<>();
+    private final WriteBehindQueue writeQueue = new WriteBehindQueue(new WriteBehindQueue.Flusher() {
+        @Override
+        public void flush(List<WriteBehindQueue.PendingWrite> writes, List<ClaimRecord> claims) {
+            flushWrites(writes, claims);
+        }
+
+        @Override
+        public void commit() {
+            commitWrites();
+        }
+
+        @Override
+        public void rollback() {
+            rollbackWrites();
+        }
+    });
+    //已追加到日志但尚未刷盘的记录，只由写入线程访问
+    private final List<Record> unapplied = new ArrayList<>();
+    private final File snapshotFile;
+    private final JournalFile journal;
+    private final JournalArchive archive;
+    private final long compactSize;
+    private final int fetchSize;
+    private long nextClaimId = 1;
+    private long claimCount;
+    //上次刷盘后日志的长度，只由写入线程访问
+    private long committedSize;
+    private BukkitTask snapshotTask;
+
+    public JournalManager(String tableName) {
+        this(getInstance().getDataFolder(), tableName,
+                config().getInt("Database.Journal.MapSize", 8388608),
+                config().getLong("Database.Journal.CompactSize", 67108864L),
+                config().getInt("Database.Load.FetchSize", 500));
+        writeQueue.loadConfig();
+        long interval = config().getLong("Database.Journal.SnapshotInterval", 3600L);
+        if (interval > 0) {
+            snapshotTask = Bukkit.getScheduler().runTaskTimerAsynchronously(getInstance(),
+                    () -> writeQueue.submit(this::compactIfDirty), interval * 20, interval * 20);
+        }
+    }
+
+    /**
+     * 不读取配置也不启动定时快照，用于测试
+     *
+     * @param folder      日志、快照与归档文件所在的文件夹
+     * @param tableName   文件名称
+     * @param mapSize     日志每次内存映射的大小（字节）
+     * @param compactSize 日志超过该大小（字节）后压缩
+     * @param fetchSize   启动时每批载入的红包数量
+     */
+    JournalManager(File folder, String tableName, int mapSize, long compactSize, int fetchSize) {
+        this.snapshotFile = new File(folder, tableName + ".snapshot");
+        this.compactSize = compactSize;
+        this.fetchSize = Math.max(1, fetchSize);
+        try {
+            archive = new JournalArchive(new File(folder, tableName + ".archive"));
+            //先读取归档文件，快照与日志中已归档红包的记录会被忽略
+            archive.scan(this::applyArchive);
+            long snapshotGeneration = snapshotFile.exists() ? loadSnapshot() : 0;
+            journal = new JournalFile(new File(folder, tableName + ".journal"), mapSize);
+            long generation = journal.readGeneration();
+            if (generation == snapshotGeneration) {
+                journal.replay(this::apply);
+            } else if (generation > snapshotGeneration) {
+                log(Level.WARNING, "红包快照文件缺失或版本落后，只能恢复最近一次日志压缩之后的数据！");
+                journal.replay(this::apply);
+            } else {
+                //日志中的记录已全部包含在快照中
+                journal.reset(snapshotGeneration);
+            }
+            committedSize = journal.size();
+        } catch (IOException ex) {
+            throw new RuntimeException("红包日志读取失败！", ex);
+        }
+        log(Level.INFO, "已从日志恢复%d个红包与%d条领取记录，另有%d个已归档的红包", packets.size(), claimCount, archived.size());
+        writeQueue.start();
+    }
+
+    @Override
+    public String getName() {
+        return "journal";
+    }
+
+    @Override
+    public void store(RedPacket redPacket) {
+        writeQueue.enqueue(redPacket, WriteBehindQueue.Operation.INSERT);
+    }
+
+    @Override
+    public void update(RedPacket redPacket) {
+        writeQueue.enqueue(redPacket, WriteBehindQueue.Operation.UPDATE);
+    }
+
+    @Override
+    public void delete(RedPacket redPacket) {
+        writeQueue.enqueue(redPacket, WriteBehindQueue.Operation.DELETE);
+    }
+
+    @Override
+    public void claim(RedPacket redPacket, UUID playerUUID, long cents) {
+        writeQueue.enqueueClaim(new ClaimRecord(redPacket.getUUID(), playerUUID, cents, System.currentTimeMillis()));
+    }
+
+    @Override
+    public void awaitDurable() {
+        writeQueue.awaitDurable();
+    }
+
+    @Override
+    public void shutdown() {
+        if (snapshotTask != null) {
+            snapshotTask.cancel();
+            snapshotTask = null;
+        }
+        //写入线程退出前会写入并提交剩余数据
+        writeQueue.shutdown();
+        try {
+            //关闭时生成快照，下次启动无需回放日志
+            compactIfDirty();
+        } catch (RuntimeException ex) {
+            warn(ex);
+        }
+        try {
+            journal.close();
+            archive.close();
+        } catch (IOException ex) {
+            warn(ex);
+        }
+    }
+
+    /**
+     * 由写入线程调用，将修改追加到日志，刷盘后才应用到内存中的数据
+     */
+    private void flushWrites(List<WriteBehindQueue.PendingWrite> batch, List<ClaimRecord> claims) {
+        try {
+            //先写入红包再写入领取记录，最后删除
+            List<UUID> deletes = new ArrayList<>();
+            for (WriteBehindQueue.PendingWrite write : batch) {
+                if (write.operation == WriteBehindQueue.Operation.DELETE) {
+                    deletes.add(write.redPacket.getUUID());
+                } else {
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+                    write.redPacket.writeTo(new DataOutputStream(bytes));
+                    append(PACKET, bytes.toByteArray());
+                }
+            }
+            for (ClaimRecord claim : claims) {
+                append(CLAIM, writeClaim(claim));
+            }
+            for (UUID uuid : deletes) {
+                append(DELETE, toBytes(uuid));
+            }
+        } catch (IOException ex) {
+            throw new RuntimeException("红包日志写入失败！", ex);
+        }
+    }
+
+    /**
+     * 由写入线程调用，将日志写入磁盘后应用到内存中的数据，日志过大时进行压缩
+     */
+    private void commitWrites() {
+        journal.force();
+        committedSize = journal.size();
+        stateLock.writeLock().lock();
+        try {
+            for (Record record : unapplied) {
+                apply(record.type, record.payload);
+            }
+        } catch (IOException ex) {
+            warn(new RuntimeException("红包日志记录应用失败！", ex));
+        } finally {
+            unapplied.clear();
+            stateLock.writeLock().unlock();
+        }
+        if (journal.size() > compactSize) {
+            //日志已刷盘，压缩失败不能回滚重试，下次提交时会再次压缩
+            try {
+                compact();
+            } catch (RuntimeException ex) {
+                warn(ex);
+            }
+        }
+    }
+
+    /**
+     * 由写入线程调用，丢弃上次刷盘之后追加的记录，这些记录尚未应用到内存中的数据
+     */
+    private void rollbackWrites() {
+        unapplied.clear();
+        try {
+            journal.truncate(committedSize);
+        } catch (IOException ex) {
+            throw new RuntimeException("红包日志回滚失败！", ex);
+        }
+    }
+
+    private void append(byte type, byte[] payload) throws IOException {
+        journal.append(type, payload);
+        unapplied.add(new Record(type, payload));
+    }
+
+    /**
+     * 将一条记录应用到内存中的数据，调用者需持有写锁（启动时除外）
+     * 归档时已领完或已过期的红包不会再被修改，快照或日志中已归档红包的记录（压缩中途崩溃时残留）直接忽略
+     */
+    private void apply(byte type, byte[] payload) throws IOException {
+        switch (type) {
+            case PACKET:
+                Entry entry = new Entry(payload);
+                if (archived.containsKey(entry.uuid)) {
+                    break;
+                }
+                Entry old = packets.put(entry.uuid, entry);
+                NavigableSet<Entry> set = sent.computeIfAbsent(entry.player, key -> new TreeSet<>(newestFirst));
+                if (old != null) {
+                    set.remove(old);
+                }
+                set.add(entry);
+                break;
+            case CLAIM:
+                ClaimRecord record = readClaim(ByteBuffer.wrap(payload), payload.length);
+                if (archived.containsKey(record.getPacketUUID())) {
+                    break;
+                }
+                Claim claim = addClaim(record);
+                claimsByPacket.computeIfAbsent(record.getPacketUUID(), key -> new ArrayList<>()).add(claim);
+                break;
+            case DELETE:
+                UUID uuid = fromBytes(payload);
+                Entry removed = packets.remove(uuid);
+                if (removed != null) {
+                    sent.get(removed.player).remove(removed);
+                    List<Claim> packetClaims = claimsByPacket.remove(uuid);
+                    if (packetClaims != null) {
+                        for (Claim packetClaim : packetClaims) {
+                            claimsByPlayer.get(packetClaim.record.getPlayerUUID()).remove(packetClaim);
+                        }
+                        claimCount -= packetClaims.size();
+                    }
+                } else if (removeArchived(uuid)) {
+                    archivedDeletes.add(uuid);
+                }
+                break;
+            default:
+                throw new IOException("未知的红包日志记录类型：" + type);
+        }
+    }
+
+    /**
+     * 将归档文件中的一条记录应用到内存中的数据，只在启动时调用
+     */
+    private void applyArchive(byte type, byte[] payload, long offset) throws IOException {
+        switch (type) {
+            case ARCHIVED:
+                ByteBuffer buffer = ByteBuffer.wrap(payload);
+                byte[] data = new byte[buffer.getInt()];
+                buffer.get(data);
+                Entry entry = new Entry(new Entry(data), offset, payload.length);
+                archived.put(entry.uuid, entry);
+                sent.computeIfAbsent(entry.player, key -> new TreeSet<>(newestFirst)).add(entry);
+                while (buffer.hasRemaining()) {
+                    addClaim(readClaim(buffer, CLAIM_SIZE));
+                }
+                break;
+            case DELETE:
+                removeArchived(fromBytes(payload));
+                break;
+            default:
+                throw new IOException("未知的红包归档记录类型：" + type);
+        }
+    }
+
+    private Claim addClaim(ClaimRecord record) {
+        Claim claim = new Claim(nextClaimId++, record);
+        claimsByPlayer.computeIfAbsent(record.getPlayerUUID(), key -> new ArrayList<>()).add(claim);
+        claimCount++;
+        return claim;
+    }
+
+    /**
+     * 从内存中移除已归档的红包及其领取记录，调用者需持有写锁（启动时除外）
+     *
+     * @return 红包是否已归档
+     */
+    private boolean removeArchived(UUID uuid) throws IOException {
+        Entry entry = archived.remove(uuid);
+        if (entry == null) {
+            return false;
+        }
+        sent.get(entry.player).remove(entry);
+        ByteBuffer buffer = ByteBuffer.wrap(archive.read(entry.offset, entry.length));
+        buffer.position(4 + buffer.getInt(0));
+        while (buffer.hasRemaining()) {
+            List<Claim> playerClaims = claimsByPlayer.get(readClaim(buffer, CLAIM_SIZE).getPlayerUUID());
+            int size = playerClaims.size();
+            playerClaims.removeIf(claim -> claim.record.getPacketUUID().equals(uuid));
+            claimCount -= size - playerClaims.size();
+        }
+        return true;
+    }
+
+    private static ClaimRecord readClaim(ByteBuffer buffer, int size) {
+        byte[] packetUUID = new byte[16];
+        byte[] playerUUID = new byte[16];
+        buffer.get(packetUUID).get(playerUUID);
+        return new ClaimRecord(fromBytes(packetUUID), fromBytes(playerUUID),
+                //旧版本的领取记录金额为int
+                size < CLAIM_SIZE ? buffer.getInt() : buffer.getLong(), buffer.getLong());
+    }
+
+    private static byte[] writeClaim(ClaimRecord record) {
+        return writeClaim(ByteBuffer.allocate(CLAIM_SIZE), record).array();
+    }
+
+    private static ByteBuffer writeClaim(ByteBuffer buffer, ClaimRecord record) {
+        return buffer.put(toBytes(record.getPacketUUID()))
+                .put(toBytes(record.getPlayerUUID()))
+                .putLong(record.getCents())
+                .putLong(record.getClaimTime());
+    }
+
+    private void compactIfDirty() {
+        if (journal.size() > JournalFile.HEADER_SIZE) {
+            compact();
+        }
+    }
+
+    /**
+     * 由写入线程调用，归档不可领取的红包并生成快照，之后清空日志
+     * 归档文件先写入磁盘，快照先写入临时文件再替换，任何时刻崩溃都能从归档、快照与日志中恢复完整数据
+     */
+    private void compact() {
+        long generation = journal.getGeneration() + 1;
+        int moved;
+        try {
+            moved = archiveInactive();
+            writeSnapshot(generation);
+            journal.reset(generation);
+            committedSize = journal.size();
+        } catch (IOException ex) {
+            throw new RuntimeException("红包日志压缩失败！", ex);
+        }
+        log(Level.INFO, "红包日志压缩完成，共%d个红包与%d条领取记录，本次归档%d个红包", packets.size(), claimCount, moved);
+    }
+
+    /**
+     * 由写入线程调用，将已领完或已过期的红包连同领取记录追加到归档文件，并从快照与内存中移除红包数据
+     * 只有写入线程会修改数据，读取数据与写入归档文件时只需读锁，替换内存中的数据时才需要写锁
+     *
+     * @return 归档的红包数量
+     */
+    private int archiveInactive() throws IOException {
+        List<Entry> inactive = new ArrayList<>();
+        List<byte[]> segments = new ArrayList<>();
+        stateLock.readLock().lock();
+        try {
+            for (Entry entry : packets.values()) {
+                if (!entry.active) {
+                    List<Claim> claims = claimsByPacket.getOrDefault(entry.uuid, Collections.emptyList());
+                    ByteBuffer buffer = ByteBuffer.allocate(4 + entry.data.length + claims.size() * CLAIM_SIZE);
+                    buffer.putInt(entry.data.length).put(entry.data);
+                    for (Claim claim : claims) {
+                        writeClaim(buffer, claim.record);
+                    }
+                    inactive.add(entry);
+                    segments.add(buffer.array());
+                }
+            }
+        } finally {
+            stateLock.readLock().unlock();
+        }
+        if (inactive.isEmpty() && archivedDeletes.isEmpty()) {
+            return 0;
+        }
+        long[] offsets = new long[segments.size()];
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = archive.append(ARCHIVED, segments.get(i));
+        }
+        for (UUID uuid : archivedDeletes) {
+            archive.append(DELETE, toBytes(uuid));
+        }
+        //归档文件写入磁盘后才能从快照中移除
+        archive.force();
+        stateLock.writeLock().lock();
+        try {
+            for (int i = 0; i < offsets.length; i++) {
+                Entry entry = inactive.get(i);
+                Entry archivedEntry = new Entry(entry, offsets[i], segments.get(i).length);
+                packets.remove(entry.uuid);
+                claimsByPacket.remove(entry.uuid);
+                archived.put(entry.uuid, archivedEntry);
+                NavigableSet<Entry> set = sent.get(entry.player);
+                set.remove(entry);
+                set.add(archivedEntry);
+            }
+            archivedDeletes.clear();
+        } finally {
+            stateLock.writeLock().unlock();
+        }
+        return inactive.size();
+    }
+
+    private void writeSnapshot(long generation) throws IOException {
+        File temp = new File(snapshotFile.getPath() + ".tmp");
+        stateLock.readLock().lock();
+        try (FileOutputStream file = new FileOutputStream(temp)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file));
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeLong(generation);
+            for (Entry entry : packets.values()) {
+                writeRecord(out, PACKET, entry.data);
+            }
+            //保持领取顺序
+            List<Claim> claims = new ArrayList<>();
+            claimsByPacket.values().forEach(claims::addAll);
+            claims.sort(Comparator.comparingLong(claim -> claim.id));
+            for (Claim claim : claims) {
+                writeRecord(out, CLAIM, writeClaim(claim.record));
+            }
+            out.writeInt(0);
+            out.flush();
+            file.getFD().sync();
+        } finally {
+            stateLock.readLock().unlock();
+        }
+        Files.move(temp.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeRecord(DataOutputStream out, byte type, byte[] payload) throws IOException {
+        out.writeInt(payload.length + 1);
+        out.writeByte(type);
+        out.write(payload);
+    }
+
+    /**
+     * @return 快照的代数
+     */
+    private long loadSnapshot() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshotFile)))) {
+            if (in.readInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("无效的红包快照文件！");
+            }
+            long generation = in.readLong();
+            int length;
+            while ((length = in.readInt()) != 0) {
+                byte type = in.readByte();
+                byte[] payload = new byte[length - 1];
+                in.readFully(payload);
+                apply(type, payload);
+            }
+            return generation;
+        }
+    }
+
+    /**
+     * 解析红包，已归档的红包从归档文件中读取，调用者需持有读锁
+     */
+    private RedPacket decode(Entry entry) {
+        if (entry.data != null) {
+            return decode(entry.uuid, entry.data, claimsOf(entry));
+        }
+        EncodedClaims claims = new EncodedClaims();
+        byte[] data;
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(archive.read(entry.offset, entry.length));
+            data = new byte[buffer.getInt()];
+            buffer.get(data);
+            while (buffer.hasRemaining()) {
+                ClaimRecord record = readClaim(buffer, CLAIM_SIZE);
+                claims.add(toBytes(record.getPlayerUUID()), record.getCents());
+            }
+        } catch (IOException ex) {
+            throw new RuntimeException("红包归档读取失败！", ex);
+        }
+        return decode(entry.uuid, data, claims);
+    }
+
+    private static RedPacket decode(UUID uuid, byte[] data, EncodedClaims claims) {
+        try {
+            return RedPacket.readFrom(new DataInputStream(new ByteArrayInputStream(data)), Collections.singletonMap(uuid, claims));
+        } catch (IOException ex) {
+            throw new RuntimeException("红包日志解析错误！", ex);
+        }
+    }
+
+    /**
+     * @return 未归档红包的领取记录，调用者需持有读锁
+     */
+    private EncodedClaims claimsOf(Entry entry) {
+        EncodedClaims claims = new EncodedClaims();
+        for (Claim claim : claimsByPacket.getOrDefault(entry.uuid, Collections.emptyList())) {
+            claims.add(toBytes(claim.record.getPlayerUUID()), claim.record.getCents());
+        }
+        return claims;
+    }
+
+    @Override
+    public List<RedPacket> getValid() {
+        stateLock.readLock().lock();
+        try {
+            List<RedPacket> list = new ArrayList<>();
+            for (Entry entry : packets.values()) {
+                if (entry.active) {
+                    list.add(decode(entry));
+                }
+            }
+            return list;
+        } finally {
+            stateLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 分批载入可被领取的红包，每解析FetchSize个就发布一批
+     * 只在读锁中复制原始数据与领取记录，解析与发布时不持有锁，载入期间领取的写入不会被阻塞
+     *
+     * @param publisher 接收一批红包
+     */
+    @Override
+    public void loadValid(Consumer<List<RedPacket>> publisher) {
+        List<Entry> entries = new ArrayList<>();
+        List<EncodedClaims> claims = new ArrayList<>();
+        stateLock.readLock().lock();
+        try {
+            for (Entry entry : packets.values()) {
+                if (entry.active) {
+                    entries.add(entry);
+                    claims.add(claimsOf(entry));
+                }
+            }
+        } finally {
+            stateLock.readLock().unlock();
+        }
+        List<RedPacket> batch = new ArrayList<>(Math.min(fetchSize, entries.size()));
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            try {
+                batch.add(decode(entry.uuid, entry.data, claims.get(i)));
+            } catch (RuntimeException ex) {
+                warn(new RuntimeException("红包数据解析错误！", ex));
+            }
+            if (batch.size() >= fetchSize) {
+                publisher.accept(batch);
+                batch = new ArrayList<>(fetchSize);
+            }
+        }
+        if (!batch.isEmpty()) {
+            publisher.accept(batch);
+        }
+    }
+
+    @Override
+    public List<HistoryRecord> getSentHistory(UUID playerUUID, long beforeExpireTime, UUID beforeUUID, int limit) {
+        stateLock.readLock().lock();
+        try {
+            List<HistoryRecord> records = new ArrayList<>();
+            NavigableSet<Entry> set = sent.get(playerUUID);
+            if (set != null) {
+                for (Entry entry : set.tailSet(new Entry(beforeExpireTime, beforeUUID == null ? MAX_UUID : beforeUUID), false)) {
+                    if (records.size() >= limit) {
+                        break;
+                    }
+                    records.add(new HistoryRecord(decode(entry)));
+                }
+            }
+            return records;
+        } finally {
+            stateLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<HistoryRecord> getClaimHistory(UUID playerUUID, long beforeClaimId, int limit) {
+        stateLock.readLock().lock();
+        try {
+            List<HistoryRecord> records = new ArrayList<>();
+            List<Claim> claims = claimsByPlayer.getOrDefault(playerUUID, Collections.emptyList());
+            //找到第一条编号不小于beforeClaimId的记录
+            int low = 0;
+            int high = claims.size();
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (claims.get(mid).id < beforeClaimId) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            for (int i = low - 1; i >= 0 && records.size() < limit; i--) {
+                Claim claim = claims.get(i);
+                Entry entry = packets.get(claim.record.getPacketUUID());
+                if (entry == null) {
+                    entry = archived.get(claim.record.getPacketUUID());
+                }
+                if (entry != null) {
+                    records.add(new HistoryRecord(decode(entry), claim.id, claim.record.getCents(), claim.record.getClaimTime()));
+                }
+            }
+            return records;
+        } finally {
+            stateLock.readLock().unlock();
+        }
+    }
+
+    private static int compareUUID(UUID uuid1, UUID uuid2) {
+        int result = Long.compareUnsigned(uuid1.getMostSignificantBits(), uuid2.getMostSignificantBits());
+        return result != 0 ? result : Long.compareUnsigned(uuid1.getLeastSignificantBits(), uuid2.getLeastSignificantBits());
+    }
+
+    /**
+     * 内存中的红包，保存{@link RedPacket#writeTo}写入的原始数据，查询时才解析
+     * 已归档的红包不保存原始数据，只保存在归档文件中的位置
+     */
+    private static final class Entry {
+        final UUID uuid;
+        final UUID player;
+        final long expireTime;
+        final boolean active;
+        final byte[] data;
+        final long offset;
+        final int length;
+
+        /**
+         * 从原始数据中读取索引需要的字段，偏移量与{@link RedPacket#writeTo}的格式对应
+         */
+        Entry(byte[] data) {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            byte[] bytes = new byte[16];
+            buffer.get(bytes);
+            this.uuid = fromBytes(bytes);
+            buffer.get(bytes);
+            this.player = fromBytes(bytes);
+            //跳过giveType与RedPacketType
+            int amount = buffer.getInt(34);
+            //过期时间与是否过期位于末尾
+            this.expireTime = buffer.getLong(data.length - 9);
+            this.active = amount != 0 && data[data.length - 1] == 0;
+            this.data = data;
+            this.offset = -1;
+            this.length = 0;
+        }
+
+        /**
+         * 已归档的红包
+         *
+         * @param entry  归档前的红包
+         * @param offset 在归档文件中的位置
+         * @param length 在归档文件中的长度
+         */
+        Entry(Entry entry, long offset, int length) {
+            this.uuid = entry.uuid;
+            this.player = entry.player;
+            this.expireTime = entry.expireTime;
+            this.active = false;
+            this.data = null;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        /**
+         * 用于分页查询定位的键
+         */
+        Entry(long expireTime, UUID uuid) {
+            this.uuid = uuid;
+            this.player = null;
+            this.expireTime = expireTime;
+            this.active = false;
+            this.data = null;
+            this.offset = -1;
+            this.length = 0;
+        }
+    }
+
+    /**
+     * 已追加到日志但尚未刷盘的记录
+     */
+    private static final class Record {
+        final byte type;
+        final byte[] payload;
+
+        Record(byte type, byte[] payload) {
+            this.type = type;
+            this.payload = payload;
+        }
+    }
+
+    private static final class Claim {
+        final long id;
+        final ClaimRecord record;
+
+        Claim(long id, ClaimRecord record) {
+            this.id = id;
+            this.record = record;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package sandtechnology.redpacket.database;
+
+import sandtechnology.redpacket.redpacket.RedPacket;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * 只保存在内存中的红包存储，服务器关闭后数据会丢失
+ * 所有操作都不加锁，用于测试以及与其他存储比较领取性能（不含磁盘IO）
+ */
+public class MemoryStorage implements RedPacketStorage {
+
+    private static final UUID MAX_UUID = new UUID(-1L, -1L);
+
+    private final Map<UUID, RedPacket> packets = new ConcurrentHashMap<>();
+    //各玩家发送的红包，从新到旧排列
+    private final Map<UUID, NavigableMap<Key, RedPacket>> sent = new ConcurrentHashMap<>();
+    //各玩家的领取记录，键为领取记录编号
+    private final Map<UUID, NavigableMap<Long, ClaimRecord>> claims = new ConcurrentHashMap<>();
+    private final AtomicLong nextClaimId = new AtomicLong();
+
+    @Override
+    public String getName() {
+        return "memory";
+    }
+
+    @Override
+    public void store(RedPacket redPacket) {
+        packets.put(redPacket.getUUID(), redPacket);
+        sent.computeIfAbsent(redPacket.getPlayer().getUniqueId(), key -> new ConcurrentSkipListMap<>()).put(new Key(redPacket), redPacket);
+    }
+
+    @Override
+    public void update(RedPacket redPacket) {
+        //保存的就是红包对象本身，无需更新
+    }
+
+    @Override
+    public void delete(RedPacket redPacket) {
+        if (packets.remove(redPacket.getUUID()) != null) {
+            NavigableMap<Key, RedPacket> map = sent.get(redPacket.getPlayer().getUniqueId());
+            if (map != null) {
+                map.remove(new Key(redPacket));
+            }
+            claims.values().forEach(playerClaims -> playerClaims.values().removeIf(claim -> claim.getPacketUUID().equals(redPacket.getUUID())));
+        }
+    }
+
+    @Override
+    public void claim(RedPacket redPacket, UUID playerUUID, long cents) {
+        claims.computeIfAbsent(playerUUID, key -> new ConcurrentSkipListMap<>())
+                .put(nextClaimId.incrementAndGet(), new ClaimRecord(redPacket.getUUID(), playerUUID, cents, System.currentTimeMillis()));
+    }
+
+    @Override
+    public List<RedPacket> getValid() {
+        return packets.values().stream()
+                .filter(redPacket -> !redPacket.isExpired() && redPacket.getCurrentAmount() != 0)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public List<HistoryRecord> getSentHistory(UUID playerUUID, long beforeExpireTime, UUID beforeUUID, int limit) {
+        List<HistoryRecord> records = new ArrayList<>();
+        NavigableMap<Key, RedPacket> map = sent.get(playerUUID);
+        if (map != null) {
+            for (RedPacket redPacket : map.tailMap(new Key(beforeExpireTime, beforeUUID == null ? MAX_UUID : beforeUUID), false).values()) {
+                if (records.size() >= limit) {
+                    break;
+                }
+                records.add(new HistoryRecord(redPacket));
+            }
+        }
+        return records;
+    }
+
+    @Override
+    public List<HistoryRecord> getClaimHistory(UUID playerUUID, long beforeClaimId, int limit) {
+        List<HistoryRecord> records = new ArrayList<>();
+        NavigableMap<Long, ClaimRecord> map = claims.get(playerUUID);
+        if (map != null) {
+            for (Map.Entry<Long, ClaimRecord> entry : map.headMap(beforeClaimId, false).descendingMap().entrySet()) {
+                if (records.size() >= limit) {
+                    break;
+                }
+                RedPacket redPacket = packets.get(entry.getValue().getPacketUUID());
+                if (redPacket != null) {
+                    records.add(new HistoryRecord(redPacket, entry.getKey(), entry.getValue().getCents(), entry.getValue().getClaimTime()));
+                }
+            }
+        }
+        return records;
+    }
+
+    @Override
+    public void shutdown() {
+        packets.clear();
+        sent.clear();
+        claims.clear();
+    }
+
+    /**
+     * 发送记录的排序键，与数据库中(expireTime, UUID)的降序一致
+     */
+    private static final class Key implements Comparable<Key> {
+        final long expireTime;
+        final UUID uuid;
+
+        Key(RedPacket redPacket) {
+            this(redPacket.getExpireTime(), redPacket.getUUID());
+        }
+
+        Key(long expireTime, UUID uuid) {
+            this.expireTime = expireTime;
+            this.uuid = uuid;
+        }
+
+        @Override
+        public int compareTo(Key o) {
+            if (expireTime != o.expireTime) {
+                return Long.compare(o.expireTime, expireTime);
+            }
+            int result = Long.compareUnsigned(o.uuid.getMostSignificantBits(), uuid.getMostSignificantBits());
+            return result != 0 ? result : Long.compareUnsigned(o.uuid.getLeastSignificantBits(), uuid.getLeastSignificantBits());
+        }
+    }
+}
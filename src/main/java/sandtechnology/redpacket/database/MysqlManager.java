@@ -2,38 +2,121 @@ package sandtechnology.redpacket.database;
 
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 
 import static sandtechnology.redpacket.RedPacketPlugin.config;
 
 public class MysqlManager extends AbstractDatabaseManager {
 
+    private ConnectionPool pool;
+
     public MysqlManager(String tableName) {
         setup(tableName);
     }
 
+    /**
+     * @return MySQL连接池，可用于查看连接池状态
+     */
+    public ConnectionPool getPool() {
+        return pool;
+    }
+
+    @Override
+    PooledConnection borrow() {
+        return pool.borrow();
+    }
+
+    @Override
+    void release(PooledConnection connection) {
+        pool.release(connection);
+    }
+
     @Override
-    public Connection getConnection() {
+    void closeConnections() {
+        pool.close();
+    }
+
+    /**
+     * 根据配置创建连接池，配置只在此处读取一次
+     */
+    private ConnectionPool createPool() {
         String argument = config().getString("Database.MySQLArgument");
-        try {
-            if (connection == null || !connection.isValid(800)) {
-                connection = DriverManager.getConnection(
-                        "jdbc:mysql://"
-                                + config().getString("Database.IP")
-                                + ":"
-                                + config().getInt("Database.Port")
-                                + "/"
-                                + config().getString("Database.DatabaseName")
-                                + (argument.equals("null") ? "" : argument)
-                        , config().getString("Database.UserName")
-                        , config().getString("Database.Password")
-                );
-                connection.setAutoCommit(false);
+        String url = "jdbc:mysql://"
+                + config().getString("Database.IP")
+                + ":"
+                + config().getInt("Database.Port")
+                + "/"
+                + config().getString("Database.DatabaseName")
+                + (argument == null || argument.equals("null") ? "" : argument);
+        String userName = config().getString("Database.UserName");
+        String password = config().getString("Database.Password");
+        return new ConnectionPool(() -> {
+            Connection connection = DriverManager.getConnection(url, userName, password);
+            connection.setAutoCommit(false);
+            return connection;
+        },
+                config().getInt("Database.Pool.Size", 4),
+                config().getLong("Database.Pool.IdleValidation", 30000L),
+                config().getLong("Database.Pool.LeakDetection", 60000L),
+                config().getLong("Database.Pool.Timeout", 5000L));
+    }
+
+    @Override
+    void createPacketTable(Statement statement, String packetTable) throws SQLException {
+        statement.executeUpdate(
+                "create table if not exists " + packetTable + " (" +
+                        "UUID BINARY(16) PRIMARY KEY," +
+                        "playerUUID BINARY(16) NOT NULL," +
+                        "giveType TINYINT NOT NULL," +
+                        "RedPacketType TINYINT NOT NULL," +
+                        "amount INTEGER NOT NULL," +
+                        "money BIGINT NOT NULL," +
+                        "extraData MEDIUMTEXT NOT NULL," +
+                        "givers Text NOT NULL," +
+                        "expireTime BIGINT NOT NULL," +
+                        "expired TINYINT NOT NULL)"
+        );
+    }
+
+    @Override
+    void createClaimTable(Statement statement, String claimTable) throws SQLException {
+        statement.executeUpdate(
+                "create table if not exists " + claimTable + " (" +
+                        "id BIGINT AUTO_INCREMENT PRIMARY KEY," +
+                        "packetUUID BINARY(16) NOT NULL," +
+                        "playerUUID BINARY(16) NOT NULL," +
+                        "cents BIGINT NOT NULL," +
+                        "claimTime BIGINT NOT NULL)"
+        );
+    }
+
+    @Override
+    void createIndex(Statement statement, String table, String index, String columns) throws SQLException {
+        //MySQL不支持CREATE INDEX if not exists
+        if (!indexExists(statement, table, index)) {
+            statement.executeUpdate("CREATE INDEX " + index + " ON " + table + " (" + columns + ")");
+        }
+    }
+
+    @Override
+    void dropIndex(Statement statement, String table, String index) throws SQLException {
+        //MySQL不支持DROP INDEX if exists
+        if (indexExists(statement, table, index)) {
+            statement.executeUpdate("DROP INDEX " + index + " ON " + table);
+        }
+    }
+
+    private static boolean indexExists(Statement statement, String table, String index) throws SQLException {
+        try (ResultSet resultSet = statement.getConnection().getMetaData().getIndexInfo(null, null, table, false, true)) {
+            while (resultSet.next()) {
+                if (index.equalsIgnoreCase(resultSet.getString("INDEX_NAME"))) {
+                    return true;
+                }
             }
-        } catch (SQLException e) {
-            throw new RuntimeException("数据库连接错误", e);
         }
-        return connection;
+        return false;
     }
 
     @Override
@@ -41,25 +124,9 @@ public class MysqlManager extends AbstractDatabaseManager {
         try {
             Class.forName("com.mysql.jdbc.Driver");
             this.tableName = tableName;
-            //https://techjourney.net/mysql-error-1170-42000-blobtext-column-used-in-key-specification-without-a-key-length/
-            executeUpdate(
-                    "create table if not exists " + tableName + " (" +
-                            "UUID CHAR(128) PRIMARY KEY," +
-                            "playerUUID CHAR(128) NOT NULL," +
-                            "giveType TEXT NOT NULL," +
-                            "RedPacketType TEXT NOT NULL," +
-                            "amount INTEGER NOT NULL," +
-                            "money DOUBLE NOT NULL," +
-                            "moneyMap LongText NOT NULL," +
-                            "extraData MEDIUMTEXT NOT NULL," +
-                            "givers Text NOT NULL," +
-                            "expireTime BIGINT NOT NULL," +
-                            "timeZone TEXT NOT NULL,"+
-                            "expired INTEGER NOT NULL)"
-            );
-            executeUpdate("CREATE INDEX if not exists searchIndex ON " + tableName + " (playerUUID, expireTime)");
+            pool = createPool();
+            SchemaMigrator.migrate(this);
             setRunning(true);
-            startCommitTimer();
         } catch (Exception ex) {
             throw new RuntimeException("数据库初始化出现错误，将关闭本插件！", ex);
 
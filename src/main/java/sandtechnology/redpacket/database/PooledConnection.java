@@ -0,0 +1,39 @@
+package sandtechnology.redpacket.database;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * 数据库连接及其PreparedStatement缓存
+ * 由连接池借出时会记录借出时间与调用栈，用于泄漏检测
+ */
+final class PooledConnection {
+
+    private final Connection connection;
+    private final StatementCache statements;
+    volatile long lastUsed = System.currentTimeMillis();
+    volatile long borrowedAt;
+    volatile Throwable borrowTrace;
+    volatile boolean leakReported;
+
+    PooledConnection(Connection connection) {
+        this.connection = connection;
+        this.statements = new StatementCache(connection);
+    }
+
+    Connection getConnection() {
+        return connection;
+    }
+
+    StatementCache getStatements() {
+        return statements;
+    }
+
+    void close() {
+        statements.close();
+        try {
+            connection.close();
+        } catch (SQLException ignored) {
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package sandtechnology.redpacket.database;
+
+import sandtechnology.redpacket.redpacket.RedPacket;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * 红包存储接口
+ * 插件内置Sqlite、MySQL、Journal与内存存储，其他插件也可以通过Bukkit的ServicesManager注册自己的实现，
+ * 并将配置中的Database.Type设为service来使用（需在本插件启用前注册，比如在onLoad中）
+ * 写入方法会在领取红包的线程中调用，实现应尽快返回
+ */
+public interface RedPacketStorage {
+
+    /**
+     * @return 存储的名称，用于日志与性能测试
+     */
+    default String getName() {
+        return getClass().getSimpleName();
+    }
+
+    /**
+     * 保存新创建的红包
+     *
+     * @param redPacket 红包
+     */
+    void store(RedPacket redPacket);
+
+    /**
+     * 更新红包的余额、个数、额外数据与过期状态
+     *
+     * @param redPacket 红包
+     */
+    void update(RedPacket redPacket);
+
+    /**
+     * 删除红包及其领取记录
+     *
+     * @param redPacket 红包
+     */
+    void delete(RedPacket redPacket);
+
+    /**
+     * 追加一条领取记录，红包本身的余额与个数仍需通过{@link #update(RedPacket)}更新
+     *
+     * @param redPacket  被领取的红包
+     * @param playerUUID 领取的玩家
+     * @param cents      领取的金额（单位为分）
+     */
+    void claim(RedPacket redPacket, UUID playerUUID, long cents);
+
+    /**
+     * 等待当前线程之前的修改持久化，不需要等待的实现直接返回即可
+     * 不能在持有红包锁的情况下调用
+     *
+     * @throws RuntimeException 修改未能持久化
+     */
+    default void awaitDurable() {
+    }
+
+    /**
+     * @return 可被领取（未领完且未过期）的红包
+     */
+    List<RedPacket> getValid();
+
+    /**
+     * 分批载入可被领取的红包，每解析完一批就交给publisher，用于启动时载入
+     * 默认一次性载入全部红包
+     *
+     * @param publisher 接收一批红包，可能在多个线程中同时调用
+     */
+    default void loadValid(Consumer<List<RedPacket>> publisher) {
+        publisher.accept(getValid());
+    }
+
+    /**
+     * 按过期时间从新到旧查询玩家发送的红包，使用(expireTime, UUID)键集分页
+     *
+     * @param playerUUID       发送红包的玩家
+     * @param beforeExpireTime 上一页最后一个红包的过期时间，第一页为{@link Long#MAX_VALUE}
+     * @param beforeUUID       上一页最后一个红包的UUID，第一页为null
+     * @param limit            最多返回的数量
+     * @return 发送记录
+     */
+    List<HistoryRecord> getSentHistory(UUID playerUUID, long beforeExpireTime, UUID beforeUUID, int limit);
+
+    /**
+     * 按领取顺序从新到旧查询玩家的领取记录，使用领取记录编号键集分页
+     *
+     * @param playerUUID    领取红包的玩家
+     * @param beforeClaimId 上一页最后一条记录的编号，第一页为{@link Long#MAX_VALUE}
+     * @param limit         最多返回的数量
+     * @return 领取记录
+     */
+    List<HistoryRecord> getClaimHistory(UUID playerUUID, long beforeClaimId, int limit);
+
+    /**
+     * 停止存储，写入尚未保存的数据并释放资源
+     */
+    void shutdown();
+}
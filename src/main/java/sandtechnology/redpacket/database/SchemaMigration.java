@@ -0,0 +1,28 @@
+package sandtechnology.redpacket.database;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * 一次数据库结构迁移，由{@link SchemaMigrator}按版本号顺序执行
+ */
+interface SchemaMigration {
+
+    /**
+     * @return 迁移完成后的数据库结构版本
+     */
+    int getVersion();
+
+    /**
+     * @return 迁移说明，用于日志输出
+     */
+    String getDescription();
+
+    /**
+     * 执行迁移，完成后由{@link SchemaMigrator}提交并记录版本号
+     *
+     * @param manager    数据库管理器，提供表名与建表语句
+     * @param connection 数据库连接，已关闭自动提交
+     */
+    void migrate(AbstractDatabaseManager manager, Connection connection) throws SQLException;
+}
@@ -0,0 +1,169 @@
+package sandtechnology.redpacket.database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+
+import static sandtechnology.redpacket.RedPacketPlugin.config;
+import static sandtechnology.redpacket.RedPacketPlugin.getInstance;
+import static sandtechnology.redpacket.RedPacketPlugin.log;
+
+/**
+ * 数据库结构版本管理
+ * 当前版本记录在数据库的元数据表中，与迁移在同一事务中提交，以数据库中的版本为准
+ * 配置文件的Version节点只是数据库中版本的副本，仅在元数据表不存在时（旧版本的数据库）用于确定初始版本
+ * 新安装时直接使用最新的结构建表
+ * 需要分多步提交的迁移（比如MySQL中会隐式提交的DDL）可以在元数据表中记录进度，中断后下次启动时继续
+ */
+final class SchemaMigrator {
+
+    /**
+     * 2及以下为旧版本的文本结构（UUID、枚举名与时区以文本存储，金额为浮点数）
+     */
+    static final int LATEST_VERSION = 5;
+    private static final String VERSION_KEY = "schemaVersion";
+    //按版本号从小到大排列
+    private static final List<SchemaMigration> migrations = Arrays.asList(new CompactSchemaMigration(), new HistoryIndexMigration(), new ArchiveTableMigration());
+
+    private SchemaMigrator() {
+    }
+
+    /**
+     * 创建或升级数据库结构，需在写入线程启动前调用，连接需已关闭自动提交
+     *
+     * @param manager 数据库管理器
+     */
+    static void migrate(AbstractDatabaseManager manager) {
+        PooledConnection pooled = manager.borrow();
+        Connection connection = pooled.getConnection();
+        try {
+            //迁移替换表的中途红包表可能暂时不存在，有元数据表时不视为新安装
+            if (!tableExists(connection, manager.tableName) && !tableExists(connection, manager.metaTableName())) {
+                try (Statement statement = connection.createStatement()) {
+                    manager.createSchema(statement);
+                }
+                writeVersion(manager, connection, LATEST_VERSION);
+                connection.commit();
+                setVersion(LATEST_VERSION);
+                return;
+            }
+            int version;
+            if (tableExists(connection, manager.metaTableName())) {
+                version = readVersion(manager, connection);
+            } else {
+                //元数据表之前的版本只在配置文件中记录了版本
+                version = config().getInt("Version", 1);
+                try (Statement statement = connection.createStatement()) {
+                    manager.createMetaTable(statement);
+                }
+                writeVersion(manager, connection, version);
+                connection.commit();
+            }
+            setVersion(version);
+            for (SchemaMigration migration : migrations) {
+                if (migration.getVersion() <= version) {
+                    continue;
+                }
+                log(Level.INFO, "正在将数据库结构从版本%d升级到版本%d：%s", version, migration.getVersion(), migration.getDescription());
+                long time = System.currentTimeMillis();
+                migration.migrate(manager, connection);
+                writeVersion(manager, connection, migration.getVersion());
+                connection.commit();
+                version = migration.getVersion();
+                setVersion(version);
+                log(Level.INFO, "数据库结构升级完成，耗时%dms", System.currentTimeMillis() - time);
+            }
+        } catch (SQLException ex) {
+            try {
+                connection.rollback();
+            } catch (SQLException ignored) {
+            }
+            throw new RuntimeException("数据库结构升级失败！", ex);
+        } finally {
+            manager.release(pooled);
+        }
+    }
+
+    static boolean tableExists(Connection connection, String table) throws SQLException {
+        try (ResultSet resultSet = connection.getMetaData().getTables(null, null, table, null)) {
+            return resultSet.next();
+        }
+    }
+
+    /**
+     * @return 元数据表中记录的版本，元数据表为空时为1
+     */
+    private static int readVersion(AbstractDatabaseManager manager, Connection connection) throws SQLException {
+        String value = readMeta(manager, connection, VERSION_KEY);
+        if (value == null) {
+            return 1;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException ex) {
+            throw new SQLException("元数据表中的数据库结构版本无效：" + value, ex);
+        }
+    }
+
+    /**
+     * 在当前事务中将版本写入元数据表，由调用者提交
+     */
+    private static void writeVersion(AbstractDatabaseManager manager, Connection connection, int version) throws SQLException {
+        writeMeta(manager, connection, VERSION_KEY, String.valueOf(version));
+    }
+
+    /**
+     * @return 元数据表中的值，不存在时为null
+     */
+    static String readMeta(AbstractDatabaseManager manager, Connection connection, String key) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("SELECT metaValue FROM " + manager.metaTableName() + " WHERE metaKey=?")) {
+            statement.setString(1, key);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() ? resultSet.getString(1) : null;
+            }
+        }
+    }
+
+    /**
+     * 在当前事务中写入元数据表，由调用者提交
+     */
+    static void writeMeta(AbstractDatabaseManager manager, Connection connection, String key, String value) throws SQLException {
+        try (PreparedStatement update = connection.prepareStatement("UPDATE " + manager.metaTableName() + " SET metaValue=? WHERE metaKey=?")) {
+            update.setString(1, value);
+            update.setString(2, key);
+            if (update.executeUpdate() > 0) {
+                return;
+            }
+        }
+        try (PreparedStatement insert = connection.prepareStatement("INSERT INTO " + manager.metaTableName() + " (metaKey,metaValue) VALUES (?,?)")) {
+            insert.setString(1, key);
+            insert.setString(2, value);
+            insert.executeUpdate();
+        }
+    }
+
+    /**
+     * 在当前事务中删除元数据表中的值，由调用者提交
+     */
+    static void deleteMeta(AbstractDatabaseManager manager, Connection connection, String key) throws SQLException {
+        try (PreparedStatement delete = connection.prepareStatement("DELETE FROM " + manager.metaTableName() + " WHERE metaKey=?")) {
+            delete.setString(1, key);
+            delete.executeUpdate();
+        }
+    }
+
+    /**
+     * 将版本同步到配置文件
+     */
+    private static void setVersion(int version) {
+        if (config().getInt("Version", 1) != version) {
+            config().set("Version", version);
+            getInstance().saveConfig();
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package sandtechnology.redpacket.database;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import static sandtechnology.redpacket.util.UUIDHelper.toBytes;
+
+/**
+ * 比较不同Sqlite性能配置下的红包领取吞吐量
+ * 每次领取与插件实际写入相同：追加一条领取记录并更新红包的余额与个数，每batchSize次领取提交一次
+ */
+public final class SqliteBenchmark {
+
+    private SqliteBenchmark() {
+    }
+
+    /**
+     * 依次使用各个预设配置进行测试，测试用的数据库文件会在结束后删除
+     *
+     * @param directory 存放测试数据库的目录
+     * @param claims    每个配置的领取次数
+     * @param batchSize 每次提交包含的领取次数
+     * @return 测试结果
+     */
+    public static List<BenchmarkResult> run(Path directory, int claims, int batchSize) {
+        try {
+            Class.forName("org.sqlite.JDBC");
+            Files.createDirectories(directory);
+        } catch (ClassNotFoundException | IOException ex) {
+            throw new RuntimeException("无法进行Sqlite性能测试！", ex);
+        }
+        List<BenchmarkResult> results = new ArrayList<>();
+        for (SqliteProfile profile : Arrays.asList(SqliteProfile.LEGACY, SqliteProfile.SAFE, SqliteProfile.PERFORMANCE)) {
+            Path file = directory.resolve("benchmark-" + profile.getName() + ".db");
+            try {
+                deleteDatabase(file);
+                results.add(new BenchmarkResult("sqlite-" + profile.getName(), claims, runProfile(file, profile, claims, Math.max(1, batchSize))));
+            } catch (SQLException | IOException ex) {
+                throw new RuntimeException("Sqlite性能测试出现错误！配置：" + profile, ex);
+            } finally {
+                try {
+                    deleteDatabase(file);
+                } catch (IOException ignored) {
+                }
+            }
+        }
+        return results;
+    }
+
+    private static long runProfile(Path file, SqliteProfile profile, int claims, int batchSize) throws SQLException {
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + file)) {
+            profile.apply(connection);
+            byte[] packetUUID = toBytes(UUID.randomUUID());
+            try (Statement statement = connection.createStatement()) {
+                statement.executeUpdate("create table packet (UUID BLOB PRIMARY KEY, amount INTEGER NOT NULL, money INTEGER NOT NULL)");
+                statement.executeUpdate("create table claims (id INTEGER PRIMARY KEY AUTOINCREMENT, packetUUID BLOB NOT NULL, playerUUID BLOB NOT NULL, cents INTEGER NOT NULL, claimTime INTEGER NOT NULL)");
+                statement.executeUpdate("CREATE INDEX claimIndex ON claims (packetUUID)");
+            }
+            try (PreparedStatement insert = connection.prepareStatement("INSERT INTO packet VALUES (?,?,?)")) {
+                insert.setBytes(1, packetUUID);
+                insert.setInt(2, claims);
+                insert.setLong(3, claims);
+                insert.executeUpdate();
+            }
+            connection.setAutoCommit(false);
+            try (PreparedStatement claim = connection.prepareStatement("INSERT INTO claims (packetUUID,playerUUID,cents,claimTime) VALUES (?,?,?,?)");
+                 PreparedStatement update = connection.prepareStatement("UPDATE packet SET amount=?,money=? WHERE UUID=?")) {
+                long start = System.nanoTime();
+                for (int i = 1; i <= claims; i++) {
+                    claim.setBytes(1, packetUUID);
+                    claim.setBytes(2, toBytes(UUID.randomUUID()));
+                    claim.setLong(3, 1);
+                    claim.setLong(4, System.currentTimeMillis());
+                    claim.addBatch();
+                    update.setInt(1, claims - i);
+                    update.setLong(2, claims - i);
+                    update.setBytes(3, packetUUID);
+                    update.addBatch();
+                    if (i % batchSize == 0 || i == claims) {
+                        claim.executeBatch();
+                        update.executeBatch();
+                        connection.commit();
+                    }
+                }
+                return System.nanoTime() - start;
+            }
+        }
+    }
+
+    private static void deleteDatabase(Path file) throws IOException {
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(file.resolveSibling(file.getFileName() + "-wal"));
+        Files.deleteIfExists(file.resolveSibling(file.getFileName() + "-shm"));
+        Files.deleteIfExists(file.resolveSibling(file.getFileName() + "-journal"));
+    }
+}
@@ -1,42 +1,114 @@
 package sandtechnology.redpacket.database;
 
 import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.logging.Level;
 
 import static sandtechnology.redpacket.RedPacketPlugin.config;
 import static sandtechnology.redpacket.RedPacketPlugin.getInstance;
+import static sandtechnology.redpacket.RedPacketPlugin.log;
 
 public class SqliteManager extends AbstractDatabaseManager {
 
+    //Sqlite只有一个写入者，所有线程共享同一个连接
+    private PooledConnection connection;
+    //WAL模式下查询使用独立的只读连接，不会被写入阻塞
+    private PooledConnection readConnection;
+    private SqliteProfile profile;
+    private long lastCheckpoint = System.currentTimeMillis();
 
     public SqliteManager(String tableName) {
         setup(tableName);
     }
 
+    @Override
+    PooledConnection borrow() {
+        return connection;
+    }
+
+    @Override
+    PooledConnection borrowReader() {
+        return readConnection != null ? readConnection : connection;
+    }
+
+    @Override
+    void release(PooledConnection connection) {
+    }
+
+    @Override
+    void afterCommit(PooledConnection connection) throws SQLException {
+        long interval = profile.getCheckpointInterval();
+        if (interval > 0 && System.currentTimeMillis() - lastCheckpoint >= interval) {
+            lastCheckpoint = System.currentTimeMillis();
+            profile.checkpoint(connection.getConnection(), "PASSIVE");
+        }
+    }
+
+    @Override
+    void closeConnections() {
+        if (readConnection != null) {
+            readConnection.close();
+        }
+        try {
+            //关闭前将WAL中的数据全部写回数据库文件
+            profile.checkpoint(connection.getConnection(), "TRUNCATE");
+        } catch (SQLException ex) {
+            log(Level.WARNING, "Sqlite检查点执行失败：" + ex.getMessage());
+        }
+        connection.close();
+    }
+
+    public SqliteProfile getProfile() {
+        return profile;
+    }
+
+    @Override
+    void createPacketTable(Statement statement, String packetTable) throws SQLException {
+        statement.executeUpdate(
+                "create table if not exists " + packetTable + " (" +
+                        "UUID BLOB PRIMARY KEY," +
+                        "playerUUID BLOB NOT NULL," +
+                        "giveType INTEGER NOT NULL," +
+                        "RedPacketType INTEGER NOT NULL," +
+                        "amount INTEGER NOT NULL," +
+                        "money INTEGER NOT NULL," +
+                        "extraData Text NOT NULL," +
+                        "givers Text NOT NULL," +
+                        "expireTime INTEGER NOT NULL," +
+                        "expired INTEGER NOT NULL)"
+        );
+    }
+
+    @Override
+    void createClaimTable(Statement statement, String claimTable) throws SQLException {
+        statement.executeUpdate(
+                "create table if not exists " + claimTable + " (" +
+                        "id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                        "packetUUID BLOB NOT NULL," +
+                        "playerUUID BLOB NOT NULL," +
+                        "cents INTEGER NOT NULL," +
+                        "claimTime INTEGER NOT NULL)"
+        );
+    }
+
     @Override
     void setup(String tableName) {
         try{
             Class.forName("org.sqlite.JDBC");
             this.tableName = tableName;
-            connection = DriverManager.getConnection("jdbc:sqlite:" + getInstance().getDataFolder().toPath().resolve(config().getString("Database.FileName")).toString());
-            executeUpdate(
-                    "create table if not exists " + tableName + " (" +
-                            "UUID Text PRIMARY KEY," +
-                            "playerUUID Text NOT NULL," +
-                            "giveType Text NOT NULL," +
-                            "RedPacketType Text NOT NULL," +
-                            "amount INTEGER NOT NULL," +
-                            "money real NOT NULL," +
-                            "moneyMap Text NOT NULL," +
-                            "extraData Text NOT NULL," +
-                            "givers Text NOT NULL," +
-                            "expireTime INTEGER NOT NULL," +
-                            "timeZone TEXT NOT NULL,"+
-                            "expired INTEGER NOT NULL)"
-            );
-            executeUpdate("CREATE INDEX if not exists searchIndex ON " + tableName + " (playerUUID, expireTime)");
-            connection.setAutoCommit(false);
+            String url = "jdbc:sqlite:" + getInstance().getDataFolder().toPath().resolve(config().getString("Database.FileName")).toString();
+            profile = SqliteProfile.fromConfig(config().getConfigurationSection("Database.Sqlite"));
+            connection = new PooledConnection(DriverManager.getConnection(url));
+            profile.apply(connection.getConnection());
+            log(Level.INFO, "Sqlite性能配置：" + profile);
+            connection.getConnection().setAutoCommit(false);
+            SchemaMigrator.migrate(this);
+            if (profile.isWal()) {
+                readConnection = new PooledConnection(DriverManager.getConnection(url));
+                profile.applyReadOnly(readConnection.getConnection());
+            }
             setRunning(true);
-            startCommitTimer();
         } catch (Exception ex) {
             throw new RuntimeException("数据库初始化出现错误，将关闭本插件！", ex);
         }
@@ -0,0 +1,170 @@
+package sandtechnology.redpacket.database;
+
+import org.bukkit.configuration.ConfigurationSection;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Locale;
+
+/**
+ * Sqlite性能配置，对应一组PRAGMA设置
+ * 参考资料：
+ * <a href="https://www.sqlite.org/pragma.html">SQLite PRAGMA</a>
+ * <a href="https://www.sqlite.org/wal.html">Write-Ahead Logging</a>
+ */
+public final class SqliteProfile {
+
+    /**
+     * 旧版本的行为：回滚日志+完全同步，不做任何调整
+     */
+    public static final SqliteProfile LEGACY = new SqliteProfile("legacy", "DELETE", "FULL", 0L, -2000, "DEFAULT", 1000, 0L);
+    /**
+     * 高性能：WAL+NORMAL同步，崩溃时最多丢失最后一次提交，但数据库不会损坏
+     */
+    public static final SqliteProfile PERFORMANCE = new SqliteProfile("performance", "WAL", "NORMAL", 256L * 1024 * 1024, -16000, "MEMORY", 1000, 60000L);
+    /**
+     * 安全：WAL+FULL同步，每次提交都会fsync
+     */
+    public static final SqliteProfile SAFE = new SqliteProfile("safe", "WAL", "FULL", 64L * 1024 * 1024, -8000, "DEFAULT", 1000, 60000L);
+
+    private final String name;
+    private final String journalMode;
+    private final String synchronous;
+    private final long mmapSize;
+    private final int cacheSize;
+    private final String tempStore;
+    private final int walAutoCheckpoint;
+    private final long checkpointInterval;
+
+    /**
+     * @param name               配置名称
+     * @param journalMode        journal_mode，比如WAL、DELETE
+     * @param synchronous        synchronous，比如NORMAL、FULL
+     * @param mmapSize           mmap_size（单位为字节），0为禁用
+     * @param cacheSize          cache_size，负数代表KiB
+     * @param tempStore          temp_store，比如MEMORY、DEFAULT
+     * @param walAutoCheckpoint  wal_autocheckpoint（单位为页），0为禁用自动检查点
+     * @param checkpointInterval 定时执行检查点的间隔（单位为ms），0为不执行
+     */
+    public SqliteProfile(String name, String journalMode, String synchronous, long mmapSize, int cacheSize, String tempStore, int walAutoCheckpoint, long checkpointInterval) {
+        this.name = name;
+        this.journalMode = journalMode.toUpperCase(Locale.ROOT);
+        this.synchronous = synchronous.toUpperCase(Locale.ROOT);
+        this.mmapSize = mmapSize;
+        this.cacheSize = cacheSize;
+        this.tempStore = tempStore.toUpperCase(Locale.ROOT);
+        this.walAutoCheckpoint = walAutoCheckpoint;
+        this.checkpointInterval = checkpointInterval;
+    }
+
+    public static SqliteProfile byName(String name) {
+        switch (name.toLowerCase(Locale.ROOT)) {
+            case "legacy":
+                return LEGACY;
+            case "safe":
+                return SAFE;
+            case "performance":
+                return PERFORMANCE;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * 从配置读取性能配置，Profile为custom时使用配置中的各项设置
+     *
+     * @param section Database.Sqlite配置节点
+     * @return 性能配置
+     */
+    public static SqliteProfile fromConfig(ConfigurationSection section) {
+        if (section == null) {
+            return PERFORMANCE;
+        }
+        String profileName = section.getString("Profile", "performance");
+        SqliteProfile preset = byName(profileName);
+        if (preset != null) {
+            return preset;
+        }
+        return new SqliteProfile("custom",
+                section.getString("JournalMode", PERFORMANCE.journalMode),
+                section.getString("Synchronous", PERFORMANCE.synchronous),
+                section.getLong("MmapSize", PERFORMANCE.mmapSize),
+                section.getInt("CacheSize", PERFORMANCE.cacheSize),
+                section.getString("TempStore", PERFORMANCE.tempStore),
+                section.getInt("WalAutoCheckpoint", PERFORMANCE.walAutoCheckpoint),
+                section.getLong("CheckpointInterval", PERFORMANCE.checkpointInterval));
+    }
+
+    /**
+     * 将配置应用到连接上，需在关闭自动提交前调用
+     *
+     * @param connection Sqlite连接
+     */
+    void apply(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("PRAGMA journal_mode=" + journalMode);
+            statement.execute("PRAGMA synchronous=" + synchronous);
+            statement.execute("PRAGMA mmap_size=" + mmapSize);
+            statement.execute("PRAGMA cache_size=" + cacheSize);
+            statement.execute("PRAGMA temp_store=" + tempStore);
+            if (isWal()) {
+                statement.execute("PRAGMA wal_autocheckpoint=" + walAutoCheckpoint);
+            }
+        }
+    }
+
+    /**
+     * 将只读相关的配置应用到读取连接上
+     *
+     * @param connection Sqlite连接
+     */
+    void applyReadOnly(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("PRAGMA mmap_size=" + mmapSize);
+            statement.execute("PRAGMA cache_size=" + cacheSize);
+            statement.execute("PRAGMA temp_store=" + tempStore);
+            statement.execute("PRAGMA query_only=1");
+        }
+    }
+
+    /**
+     * 执行一次WAL检查点
+     *
+     * @param connection Sqlite连接
+     * @param mode       检查点模式，比如PASSIVE、TRUNCATE
+     */
+    void checkpoint(Connection connection, String mode) throws SQLException {
+        if (!isWal()) {
+            return;
+        }
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("PRAGMA wal_checkpoint(" + mode + ")");
+        }
+    }
+
+    /**
+     * @return 是否使用WAL模式，只有WAL模式下读取才不会被写入阻塞
+     */
+    public boolean isWal() {
+        return "WAL".equals(journalMode);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getCheckpointInterval() {
+        return checkpointInterval;
+    }
+
+    @Override
+    public String toString() {
+        return name + "(journal_mode=" + journalMode
+                + ",synchronous=" + synchronous
+                + ",mmap_size=" + mmapSize
+                + ",cache_size=" + cacheSize
+                + ",temp_store=" + tempStore
+                + ",wal_autocheckpoint=" + walAutoCheckpoint + ")";
+    }
+}
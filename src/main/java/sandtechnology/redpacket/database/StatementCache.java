@@ -0,0 +1,53 @@
+package sandtechnology.redpacket.database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 单个数据库连接的PreparedStatement缓存
+ * 同一条SQL只会被数据库解析一次，之后的执行只需绑定参数
+ * 注意：同一个PreparedStatement不能被多个线程同时使用，并发使用时请对其加锁
+ */
+class StatementCache implements AutoCloseable {
+
+    private final Connection connection;
+    private final Map<String, PreparedStatement> statements = new ConcurrentHashMap<>();
+
+    StatementCache(Connection connection) {
+        this.connection = connection;
+    }
+
+    Connection getConnection() {
+        return connection;
+    }
+
+    /**
+     * 获取（或创建）SQL对应的PreparedStatement
+     *
+     * @param sql 带有?占位符的SQL语句
+     * @return 缓存的PreparedStatement
+     */
+    PreparedStatement prepare(String sql) {
+        return statements.computeIfAbsent(sql, key -> {
+            try {
+                return connection.prepareStatement(key);
+            } catch (SQLException ex) {
+                throw new RuntimeException("SQL语句预编译错误！语句：" + key, ex);
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+        for (PreparedStatement statement : statements.values()) {
+            try {
+                statement.close();
+            } catch (SQLException ignored) {
+            }
+        }
+        statements.clear();
+    }
+}
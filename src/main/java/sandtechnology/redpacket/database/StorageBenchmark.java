@@ -0,0 +1,68 @@
+package sandtechnology.redpacket.database;
+
+import sandtechnology.redpacket.redpacket.RedPacket;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static sandtechnology.redpacket.RedPacketPlugin.getInstance;
+
+/**
+ * 通过{@link RedPacketStorage}接口比较不同存储的红包领取吞吐量
+ * 每次领取与插件实际调用相同：追加一条领取记录并更新红包，计时包括关闭存储时写入剩余数据的时间
+ */
+public final class StorageBenchmark {
+
+    private static final String JOURNAL_NAME = "benchmark-journal";
+
+    private StorageBenchmark() {
+    }
+
+    /**
+     * 依次测试内存存储与Journal存储，测试用的文件会在结束后删除
+     *
+     * @param redPacket 用于测试的红包，个数应不少于领取次数
+     * @param claims    每个存储的领取次数
+     * @return 测试结果
+     */
+    public static List<BenchmarkResult> run(RedPacket redPacket, int claims) {
+        List<BenchmarkResult> results = new ArrayList<>();
+        results.add(run(new MemoryStorage(), redPacket, claims));
+        Path folder = getInstance().getDataFolder().toPath();
+        try {
+            results.add(run(new JournalManager(JOURNAL_NAME), redPacket, claims));
+        } finally {
+            try {
+                Files.deleteIfExists(folder.resolve(JOURNAL_NAME + ".journal"));
+                Files.deleteIfExists(folder.resolve(JOURNAL_NAME + ".snapshot"));
+                Files.deleteIfExists(folder.resolve(JOURNAL_NAME + ".archive"));
+            } catch (IOException ignored) {
+            }
+        }
+        return results;
+    }
+
+    /**
+     * 测试单个存储，测试结束后存储会被关闭
+     *
+     * @param storage   存储
+     * @param redPacket 用于测试的红包
+     * @param claims    领取次数
+     * @return 测试结果
+     */
+    public static BenchmarkResult run(RedPacketStorage storage, RedPacket redPacket, int claims) {
+        storage.store(redPacket);
+        long start = System.nanoTime();
+        for (int i = 0; i < claims; i++) {
+            storage.claim(redPacket, UUID.randomUUID(), 1);
+            storage.update(redPacket);
+            storage.awaitDurable();
+        }
+        storage.shutdown();
+        return new BenchmarkResult(storage.getName(), claims, System.nanoTime() - start);
+    }
+}
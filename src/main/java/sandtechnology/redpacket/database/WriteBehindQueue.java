@@ -0,0 +1,539 @@
+package sandtechnology.redpacket.database;
+
+import sandtechnology.redpacket.redpacket.RedPacket;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+
+import static sandtechnology.redpacket.RedPacketPlugin.config;
+import static sandtechnology.redpacket.RedPacketPlugin.log;
+import static sandtechnology.redpacket.RedPacketPlugin.warn;
+
+/**
+ * 红包数据的异步写入（write-behind）队列
+ * 领取红包时只需将红包放入队列即可返回，由独立的写入线程负责落库
+ * 同一红包（UUID）在队列中尚未写入的多次修改会被合并为一次写入
+ * 领取记录只会追加，不参与合并
+ * 写入与提交的时机由{@link DurabilityMode}决定，所有提交都在写入线程中完成
+ * 写入或提交失败时回滚整个事务，事务中的修改放回队列，等待一段时间后重试
+ */
+class WriteBehindQueue {
+
+    //超过该耗时的提交会输出警告
+    private static final long SLOW_COMMIT_NANOS = TimeUnit.SECONDS.toNanos(1);
+    //SYNC模式下等待提交的最长时间，防止数据库故障时领取线程被永久阻塞
+    private static final long SYNC_WAIT_NANOS = TimeUnit.SECONDS.toNanos(10);
+    //写入失败后第一次重试的等待时间，之后每次失败翻倍
+    private static final long RETRY_MIN_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long RETRY_MAX_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    private final Map<UUID, PendingWrite> pending = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<ClaimRecord> claims = new ConcurrentLinkedQueue<>();
+    //写入失败后放回的领取记录，写入时排在新的领取记录之前
+    private final ConcurrentLinkedQueue<ClaimRecord> retryClaims = new ConcurrentLinkedQueue<>();
+    //需要在写入线程中执行的任务，比如归档
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition committed = lock.newCondition();
+    private final Flusher flusher;
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong merged = new AtomicLong();
+    private final AtomicLong flushed = new AtomicLong();
+    private final AtomicLong commitCount = new AtomicLong();
+    private final AtomicLong commitNanos = new AtomicLong();
+    //SYNC模式下各线程最后一次加入的修改序号，以及加入时的写入失败次数
+    private final ThreadLocal<long[]> lastEnqueued = ThreadLocal.withInitial(() -> new long[2]);
+    private volatile long maxCommitNanos;
+    private volatile long lastCommitNanos;
+    //已提交的最大序号，序号小于等于该值的修改都已持久化
+    private volatile long committedSeq;
+    //写入或提交失败的次数，只在持有lock时修改
+    private volatile long failures;
+    //以下字段只在写入线程中访问
+    private long flushedSeq;
+    private boolean dirty;
+    //已写入但尚未提交的修改，提交失败时放回队列
+    private final List<PendingWrite> uncommittedWrites = new ArrayList<>();
+    private final List<ClaimRecord> uncommittedClaims = new ArrayList<>();
+    private boolean retrying;
+    private long retryAt;
+    private long retryDelayNanos;
+    private long lastCommit = System.nanoTime();
+    private volatile long firstPendingNanos;
+    private volatile DurabilityMode mode = DurabilityMode.GROUP;
+    private volatile int groupSize = 64;
+    private volatile long groupDelayNanos = TimeUnit.MILLISECONDS.toNanos(50);
+    private volatile long asyncIntervalNanos = TimeUnit.SECONDS.toNanos(10);
+    private volatile boolean running;
+    private Thread writerThread;
+
+    /**
+     * @param flusher 实际执行写入与提交的函数，只会在写入线程中被调用
+     */
+    WriteBehindQueue(Flusher flusher) {
+        this.flusher = flusher;
+    }
+
+    /**
+     * 设置持久化模式
+     *
+     * @param mode                持久化模式
+     * @param groupSize           GROUP模式下触发提交的修改数量
+     * @param groupDelayMillis    GROUP模式下第一条修改最长的等待时间（ms）
+     * @param asyncIntervalMillis ASYNC模式下的提交间隔（ms）
+     */
+    void configure(DurabilityMode mode, int groupSize, long groupDelayMillis, long asyncIntervalMillis) {
+        this.mode = mode;
+        this.groupSize = Math.max(1, groupSize);
+        this.groupDelayNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, groupDelayMillis));
+        this.asyncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, asyncIntervalMillis));
+    }
+
+    /**
+     * 从配置读取持久化模式，配置只在启动时读取一次
+     */
+    void loadConfig() {
+        DurabilityMode mode = DurabilityMode.fromName(config().getString("Database.Durability.Mode", "group"));
+        configure(mode,
+                config().getInt("Database.Durability.GroupSize", 64),
+                config().getLong("Database.Durability.GroupDelay", 50L),
+                config().getLong("Database.Durability.AsyncInterval", 10000L));
+        log(Level.INFO, "数据持久化模式：" + mode);
+    }
+
+    /**
+     * 合并同一红包的两次写入
+     *
+     * @param old 队列中尚未写入的操作
+     * @param now 新加入的操作
+     * @return 合并后的操作，null代表两者相互抵消
+     */
+    private PendingWrite merge(PendingWrite old, PendingWrite now) {
+        merged.incrementAndGet();
+        if (now.operation == Operation.DELETE) {
+            //尚未插入就被删除，直接丢弃
+            return old.operation == Operation.INSERT ? null : now;
+        }
+        if (now.operation == Operation.UPDATE) {
+            //写入时读取的是红包的最新状态，保留原有的插入/更新/删除即可
+            return old;
+        }
+        return now;
+    }
+
+    void enqueue(RedPacket redPacket, Operation operation) {
+        pending.merge(redPacket.getUUID(), new PendingWrite(redPacket, operation), this::merge);
+        afterEnqueue(enqueued.incrementAndGet());
+    }
+
+    /**
+     * 提交一个在写入线程中执行的任务，执行前会先写入并提交队列中已有的数据
+     * 任务可以使用写入线程独占的连接，停止时尚未执行的任务会被丢弃
+     *
+     * @param task 任务
+     */
+    void submit(Runnable task) {
+        if (!running) {
+            return;
+        }
+        tasks.add(task);
+        lock.lock();
+        try {
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void enqueueClaim(ClaimRecord claim) {
+        claims.add(claim);
+        afterEnqueue(enqueued.incrementAndGet());
+    }
+
+    private void afterEnqueue(long seq) {
+        if (firstPendingNanos == 0) {
+            firstPendingNanos = System.nanoTime();
+        }
+        lock.lock();
+        try {
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+        if (mode == DurabilityMode.SYNC) {
+            long[] last = lastEnqueued.get();
+            last[0] = seq;
+            last[1] = failures;
+        }
+    }
+
+    /**
+     * SYNC模式下等待当前线程加入的修改全部提交，其他模式下直接返回
+     * 调用者不能持有红包的锁，否则写入线程读取红包状态时会被阻塞
+     *
+     * @throws RuntimeException 修改所在的事务写入失败（修改已放回队列等待重试）或等待超时
+     */
+    void awaitDurable() {
+        if (mode != DurabilityMode.SYNC) {
+            return;
+        }
+        long[] last = lastEnqueued.get();
+        if (last[0] > committedSeq) {
+            awaitCommitted(last[0], last[1]);
+        }
+    }
+
+    /**
+     * 等待指定序号的修改提交完成
+     *
+     * @param seq      修改的序号
+     * @param failures 加入修改时的写入失败次数，之后再失败说明修改所在的事务已回滚
+     */
+    private void awaitCommitted(long seq, long failures) {
+        if (Thread.currentThread() == writerThread) {
+            return;
+        }
+        lock.lock();
+        try {
+            long nanos = SYNC_WAIT_NANOS;
+            while (running && committedSeq < seq && this.failures == failures && nanos > 0) {
+                nanos = committed.awaitNanos(nanos);
+            }
+            //停止时剩余的修改由关闭线程写入
+            if (running && committedSeq < seq) {
+                throw new RuntimeException(this.failures != failures ? "数据写入失败，已放回队列等待重试！" : "等待数据写入超时！");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        writerThread = new Thread(this::run, "RedPacket-DatabaseWriter");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * 停止写入线程，写入并提交队列中剩余的数据
+     */
+    synchronized void shutdown() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        lock.lock();
+        try {
+            notEmpty.signal();
+            committed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        //写入线程已退出，在当前线程写入并提交剩余数据
+        tasks.clear();
+        work(true);
+    }
+
+    private void run() {
+        while (running) {
+            lock.lock();
+            try {
+                long wait;
+                while (running && (wait = nanosUntilWork()) > 0) {
+                    notEmpty.awaitNanos(wait);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                lock.unlock();
+            }
+            if (running) {
+                try {
+                    work(false);
+                } catch (RuntimeException ex) {
+                    warn(ex);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return 距离下一次需要写入或提交的时间（ns），小于等于0代表需要立即处理
+     */
+    private long nanosUntilWork() {
+        long now = System.nanoTime();
+        if (retrying && retryAt - now > 0) {
+            return retryAt - now;
+        }
+        if (!tasks.isEmpty()) {
+            return 0;
+        }
+        boolean hasPending = !isEmpty();
+        boolean hasUncommitted = flushedSeq > committedSeq;
+        switch (mode) {
+            case SYNC:
+                return hasPending || hasUncommitted ? 0 : Long.MAX_VALUE;
+            case ASYNC:
+                if (hasPending) {
+                    return 0;
+                }
+                return hasUncommitted ? lastCommit + asyncIntervalNanos - now : Long.MAX_VALUE;
+            default:
+                if (hasUncommitted) {
+                    return 0;
+                }
+                if (!hasPending) {
+                    return Long.MAX_VALUE;
+                }
+                if (getDepth() >= groupSize) {
+                    return 0;
+                }
+                return firstPendingNanos + groupDelayNanos - now;
+        }
+    }
+
+    /**
+     * 写入队列中的数据，并在满足条件时提交
+     *
+     * @param forceCommit 是否强制提交
+     */
+    private void work(boolean forceCommit) {
+        firstPendingNanos = 0;
+        //先读取序号再取出数据，保证序号不大于该值的修改都在本次写入中
+        long seq = enqueued.get();
+        try {
+            if (flushOnce()) {
+                dirty = true;
+            }
+            flushedSeq = seq;
+            //任务会单独提交，先提交已写入的数据以免混在同一个事务中
+            if (forceCommit || retrying || !tasks.isEmpty() || mode != DurabilityMode.ASYNC || System.nanoTime() - lastCommit >= asyncIntervalNanos) {
+                commit();
+            }
+        } catch (RuntimeException ex) {
+            //任务要在数据提交之后执行，留到重试成功之后
+            rollback(ex);
+            return;
+        }
+        //只执行当前已有的任务，任务中再次提交的任务要等下一轮写入之后再执行
+        Runnable task;
+        for (int i = tasks.size(); i > 0 && running && (task = tasks.poll()) != null; i--) {
+            try {
+                task.run();
+            } catch (RuntimeException ex) {
+                warn(ex);
+            }
+        }
+    }
+
+    private void commit() {
+        if (dirty) {
+            long start = System.nanoTime();
+            flusher.commit();
+            long cost = System.nanoTime() - start;
+            dirty = false;
+            uncommittedWrites.clear();
+            uncommittedClaims.clear();
+            commitCount.incrementAndGet();
+            commitNanos.addAndGet(cost);
+            lastCommitNanos = cost;
+            if (cost > maxCommitNanos) {
+                maxCommitNanos = cost;
+            }
+            if (cost > SLOW_COMMIT_NANOS) {
+                log(Level.WARNING, "数据库提交耗时%dms，队列中还有%d条数据等待写入", TimeUnit.NANOSECONDS.toMillis(cost), getDepth());
+            }
+        }
+        if (retrying) {
+            retrying = false;
+            retryDelayNanos = 0;
+            log(Level.INFO, "数据重新写入成功");
+        }
+        lastCommit = System.nanoTime();
+        lock.lock();
+        try {
+            committedSeq = flushedSeq;
+            committed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 写入或提交失败时回滚事务，将事务中的修改放回队列，等待一段时间后重试
+     * 已提交的序号保持不变，这些修改不会被视为已持久化
+     *
+     * @param cause 失败的原因
+     */
+    private void rollback(RuntimeException cause) {
+        warn(cause);
+        try {
+            flusher.rollback();
+        } catch (RuntimeException ex) {
+            warn(ex);
+        }
+        dirty = false;
+        flushedSeq = committedSeq;
+        for (PendingWrite write : uncommittedWrites) {
+            //队列中可能已有同一红包更新的修改，放回的修改是较早的一方
+            pending.merge(write.redPacket.getUUID(), write, (newer, older) -> merge(older, newer));
+        }
+        retryClaims.addAll(uncommittedClaims);
+        int count = uncommittedWrites.size() + uncommittedClaims.size();
+        //唤醒等待的线程，告知修改未能持久化
+        lock.lock();
+        try {
+            failures++;
+            committed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        uncommittedWrites.clear();
+        uncommittedClaims.clear();
+        retryDelayNanos = retrying ? Math.min(retryDelayNanos * 2, RETRY_MAX_NANOS) : RETRY_MIN_NANOS;
+        retrying = true;
+        retryAt = System.nanoTime() + retryDelayNanos;
+        if (running) {
+            log(Level.WARNING, "数据写入失败，%d条修改已放回队列，%d秒后重试", count, TimeUnit.NANOSECONDS.toSeconds(retryDelayNanos));
+        } else {
+            log(Level.SEVERE, "停止时数据写入失败，%d条修改未能保存！", count);
+        }
+    }
+
+    private boolean isEmpty() {
+        return pending.isEmpty() && claims.isEmpty() && retryClaims.isEmpty();
+    }
+
+    /**
+     * @return 是否写入了数据
+     */
+    private boolean flushOnce() {
+        if (isEmpty()) {
+            return false;
+        }
+        List<PendingWrite> batch = new ArrayList<>(pending.size());
+        for (UUID uuid : pending.keySet()) {
+            //取出时的最新值，并发加入的修改不会丢失
+            PendingWrite write = pending.remove(uuid);
+            if (write != null) {
+                batch.add(write);
+            }
+        }
+        List<ClaimRecord> claimBatch = new ArrayList<>();
+        ClaimRecord claim;
+        while ((claim = retryClaims.poll()) != null) {
+            claimBatch.add(claim);
+        }
+        while ((claim = claims.poll()) != null) {
+            claimBatch.add(claim);
+        }
+        if (batch.isEmpty() && claimBatch.isEmpty()) {
+            return false;
+        }
+        //先记录再写入，写入中途失败时也能全部放回队列
+        uncommittedWrites.addAll(batch);
+        uncommittedClaims.addAll(claimBatch);
+        flusher.flush(batch, claimBatch);
+        flushed.addAndGet(batch.size() + claimBatch.size());
+        return true;
+    }
+
+    /**
+     * @return 队列中等待写入的红包与领取记录数量
+     */
+    int getDepth() {
+        return pending.size() + claims.size() + retryClaims.size();
+    }
+
+    /**
+     * @return 被合并掉的写入次数
+     */
+    long getMergedCount() {
+        return merged.get();
+    }
+
+    /**
+     * @return 已写入的次数
+     */
+    long getFlushedCount() {
+        return flushed.get();
+    }
+
+    DurabilityMode getMode() {
+        return mode;
+    }
+
+    long getCommitCount() {
+        return commitCount.get();
+    }
+
+    /**
+     * @return 平均提交耗时（ms）
+     */
+    double getAverageCommitMillis() {
+        long count = commitCount.get();
+        return count == 0 ? 0 : commitNanos.get() / (double) count / 1_000_000D;
+    }
+
+    double getMaxCommitMillis() {
+        return maxCommitNanos / 1_000_000D;
+    }
+
+    double getLastCommitMillis() {
+        return lastCommitNanos / 1_000_000D;
+    }
+
+    enum Operation {INSERT, UPDATE, DELETE}
+
+    interface Flusher {
+        /**
+         * 写入数据（不提交）
+         *
+         * @param writes 合并后的红包修改
+         * @param claims 按领取顺序排列的领取记录
+         */
+        void flush(List<PendingWrite> writes, List<ClaimRecord> claims);
+
+        /**
+         * 提交之前写入的数据
+         */
+        void commit();
+
+        /**
+         * 撤销上次提交之后写入的数据，写入或提交失败时调用，之后这些数据会被重新写入
+         */
+        void rollback();
+    }
+
+    static final class PendingWrite {
+        final RedPacket redPacket;
+        final Operation operation;
+
+        PendingWrite(RedPacket redPacket, Operation operation) {
+            this.redPacket = redPacket;
+            this.operation = operation;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package sandtechnology.redpacket.gui;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Material;
+import org.bukkit.entity.Player;
+import org.bukkit.event.inventory.*;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.InventoryView;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.meta.ItemMeta;
+import sandtechnology.redpacket.Lang;
+import sandtechnology.redpacket.RedPacketPlugin;
+import sandtechnology.redpacket.database.HistoryRecord;
+import sandtechnology.redpacket.session.QuerySession;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static sandtechnology.redpacket.session.SessionManager.getSessionManager;
+
+/**
+ * 红包记录查询菜单，最后一行为翻页按钮，其余格子每格显示一条记录
+ */
+public class GuiHistory implements IGui {
+    //固定为6行，最后一行用于翻页
+    private static final int SIZE = 54;
+    private static final int PREVIOUS_SLOT = SIZE - 9;
+    private static final int NEXT_SLOT = SIZE - 1;
+    public final Player player;
+    final QuerySession session;
+
+    public GuiHistory(Player player, QuerySession session) {
+        this.player = player;
+        this.session = session;
+    }
+
+    /**
+     * @return 每页显示的数量
+     */
+    public static int getPageSize() {
+        return SIZE - 9;
+    }
+
+    @Override
+    public Player getPlayer() {
+        return player;
+    }
+
+    @Override
+    public Inventory newInventory() {
+        Inventory inv = Bukkit.createInventory(null, SIZE, Lang.GUI__HISTORY__TITLE.textP(player,
+                "%type%", session.getType().getName(),
+                "%page%", session.getPage()));
+        List<HistoryRecord> records = session.getRecords();
+        for (int i = 0; i < records.size() && i < getPageSize(); i++) {
+            HistoryRecord record = records.get(i);
+            inv.setItem(i, icon(Material.PAPER, session.describe(record), Arrays.asList(record.getRedPacket().toString().split("\n"))));
+        }
+        if (session.hasPrevious()) {
+            inv.setItem(PREVIOUS_SLOT, icon(Material.ARROW, Lang.GUI__HISTORY__PREVIOUS.textP(player), null));
+        }
+        if (session.hasNext()) {
+            inv.setItem(NEXT_SLOT, icon(Material.ARROW, Lang.GUI__HISTORY__NEXT.textP(player), null));
+        }
+        return inv;
+    }
+
+    private static ItemStack icon(Material material, String name, List<String> lore) {
+        ItemStack item = new ItemStack(material);
+        ItemMeta meta = item.getItemMeta();
+        if (meta != null) {
+            meta.setDisplayName(name);
+            meta.setLore(lore);
+            item.setItemMeta(meta);
+        }
+        return item;
+    }
+
+    @Override
+    public void onClick(InventoryAction action, ClickType click, InventoryType.SlotType slotType, int slot, ItemStack currentItem, ItemStack cursor, InventoryView view, InventoryClickEvent event) {
+        event.setCancelled(true);
+        //查询完成后在主线程中重新打开菜单，查询期间玩家已关闭菜单时不再打开
+        if (slot == PREVIOUS_SLOT) {
+            session.previous(loaded -> refreshIfOpen());
+        } else if (slot == NEXT_SLOT) {
+            session.next(loaded -> refreshIfOpen());
+        }
+    }
+
+    private void refreshIfOpen() {
+        if (RedPacketPlugin.getGui().getOpeningGui(player) == this) {
+            refresh();
+        }
+    }
+
+    @Override
+    public void onDrag(InventoryView view, InventoryDragEvent event) {
+        event.setCancelled(true);
+    }
+
+    @Override
+    public void onClose(InventoryView view) {
+        //翻页时重新打开菜单也会关闭，此时会话仍由菜单持有，不影响翻页
+        getSessionManager().removeQuerySession(player, session);
+    }
+}
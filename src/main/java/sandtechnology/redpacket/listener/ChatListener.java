@@ -1,16 +1,20 @@
 package sandtechnology.redpacket.listener;
 
-import org.bukkit.Bukkit;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.Listener;
 import org.bukkit.event.player.AsyncPlayerChatEvent;
+import sandtechnology.redpacket.Lang;
 import sandtechnology.redpacket.redpacket.RedPacket;
 import sandtechnology.redpacket.session.CreateSession;
+import sandtechnology.redpacket.util.IdiomManager;
 
 import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
-import static sandtechnology.redpacket.RedPacketPlugin.getInstance;
 import static sandtechnology.redpacket.session.SessionManager.getSessionManager;
 import static sandtechnology.redpacket.util.RedPacketManager.getRedPacketManager;
 
@@ -18,6 +22,9 @@ import static sandtechnology.redpacket.util.RedPacketManager.getRedPacketManager
 public class ChatListener implements Listener {
 
     private static final CreateSession.State[] inputNeededState = {CreateSession.State.WaitAmount, CreateSession.State.WaitExtra, CreateSession.State.WaitGiver, CreateSession.State.WaitMoney};
+    //载入期间已提示过的玩家，每个玩家只提示一次
+    private final Set<UUID> loadingNotified = ConcurrentHashMap.newKeySet();
+
     @EventHandler
     public void onPlayerChat(AsyncPlayerChatEvent event) {
         Player player=event.getPlayer();
@@ -25,17 +32,33 @@ public class ChatListener implements Listener {
         if (getSessionManager().hasSession(player) && Arrays.stream(inputNeededState).anyMatch(state -> state == getSessionManager().getSession(player).getState())) {
             getSessionManager().getSession(player).parse(event.getPlayer(),event.getMessage());
             event.setCancelled(true);
+            return;
+        }
+        //查找候选只需几次哈希查找，领取交给领取线程池，聊天线程不会被阻塞
+        String message = event.getMessage();
+        List<RedPacket> candidates = getRedPacketManager().getChatCandidates(message);
+        if (candidates.isEmpty()) {
+            notifyLoading(player, message);
+            return;
         }
-        //确保异步执行
-        if(event.isAsynchronous()){
-           checkRedPacket(event);
-        }else {
-            Bukkit.getScheduler().runTaskAsynchronously(getInstance(),()->checkRedPacket(event));
+        for (RedPacket redPacket : candidates) {
+            getRedPacketManager().claim(player, redPacket, message);
         }
     }
 
-    private void checkRedPacket(AsyncPlayerChatEvent event){
-        getRedPacketManager().getRedPackets().stream().filter(redPacket -> redPacket.getType().equals(RedPacket.RedPacketType.JieLongRedPacket) || redPacket.getType().equals(RedPacket.RedPacketType.PasswordRedPacket)).forEach(redPacket -> redPacket.giveIfValid(event.getPlayer(), event.getMessage()));
+    /**
+     * 红包仍在载入时，口令或成语可能对应尚未载入的红包，提示玩家稍后再试
+     * 载入前无法知道口令，因此只对可能是口令的消息（成语或不含空格）提示，且每个玩家在载入期间只提示一次
+     */
+    private void notifyLoading(Player player, String message) {
+        if (!getRedPacketManager().isLoading()) {
+            loadingNotified.clear();
+            return;
+        }
+        boolean mayBeClaim = IdiomManager.getFirstSyllable(message) != null || message.trim().indexOf(' ') < 0;
+        if (mayBeClaim && loadingNotified.add(player.getUniqueId())) {
+            Lang.REDPACKET__LOADING.t(player);
+        }
     }
 
 }
@@ -16,6 +16,8 @@ import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 
+import static sandtechnology.redpacket.session.SessionManager.getSessionManager;
+
 public class GuiListener implements Listener {
 	final RedPacketPlugin plugin;
 	final Map<UUID, IGui> playersGui = new ConcurrentHashMap<>();
@@ -55,6 +57,7 @@ public class GuiListener implements Listener {
 		if (remove != null) {
 			remove.onClose(player.getOpenInventory());
 		}
+		getSessionManager().removeQuerySession(player);
 	}
 
 	@EventHandler
@@ -0,0 +1,232 @@
+package sandtechnology.redpacket.redpacket;
+
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * 玩家UUID到领取金额（分）的映射，保持领取顺序
+ * 使用开放寻址法，UUID以两个long保存在数组中，每条记录约占用32字节，不会为每条记录创建对象
+ * 所有方法都是同步的，临界区只有几次数组访问
+ */
+public final class ClaimMap {
+
+    //被移除的记录的金额，移除的记录在扩容时才会被清理
+    private static final long REMOVED = Long.MIN_VALUE;
+    //按插入顺序保存的记录
+    private long[] mostBits;
+    private long[] leastBits;
+    private long[] cents;
+    private int used;
+    private int size;
+    //哈希表，保存记录下标+1，0代表空位
+    private int[] table;
+
+    public ClaimMap() {
+        this(8);
+    }
+
+    /**
+     * @param expectedSize 预计的记录数量
+     */
+    public ClaimMap(int expectedSize) {
+        allocate(Math.max(expectedSize, 4));
+    }
+
+    /**
+     * @param map 领取记录（单位为分）
+     * @return 包含相同记录的ClaimMap
+     */
+    public static ClaimMap of(Map<UUID, Long> map) {
+        ClaimMap claimMap = new ClaimMap(map.size());
+        map.forEach(claimMap::put);
+        return claimMap;
+    }
+
+    private void allocate(int capacity) {
+        mostBits = new long[capacity];
+        leastBits = new long[capacity];
+        cents = new long[capacity];
+        //负载因子不超过0.5
+        table = new int[Integer.highestOneBit(capacity * 2 - 1) << 1];
+    }
+
+    private static int hash(long mostBits, long leastBits) {
+        long hash = mostBits ^ leastBits;
+        int h = (int) (hash ^ (hash >>> 32));
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @return 哈希表中指向该记录的位置，不存在时为应插入的空位
+     */
+    private int slot(long mostBits, long leastBits) {
+        int mask = table.length - 1;
+        int slot = hash(mostBits, leastBits) & mask;
+        while (true) {
+            int index = table[slot] - 1;
+            if (index < 0 || this.mostBits[index] == mostBits && this.leastBits[index] == leastBits) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * @return 记录的下标，不存在或已被移除时返回-1
+     */
+    private int find(UUID uuid) {
+        int index = table[slot(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits())] - 1;
+        return index >= 0 && cents[index] != REMOVED ? index : -1;
+    }
+
+    private void append(int slot, long mostBits, long leastBits, long value) {
+        if (used == this.cents.length) {
+            rehash();
+            slot = slot(mostBits, leastBits);
+        }
+        this.mostBits[used] = mostBits;
+        this.leastBits[used] = leastBits;
+        this.cents[used] = value;
+        table[slot] = ++used;
+        size++;
+    }
+
+    /**
+     * 清理已移除的记录，仍然放不下时扩容
+     */
+    private void rehash() {
+        long[] oldMostBits = mostBits;
+        long[] oldLeastBits = leastBits;
+        long[] oldCents = cents;
+        int oldUsed = used;
+        allocate(size * 2 > oldCents.length ? oldCents.length * 2 : oldCents.length);
+        used = 0;
+        size = 0;
+        for (int i = 0; i < oldUsed; i++) {
+            if (oldCents[i] != REMOVED) {
+                append(slot(oldMostBits[i], oldLeastBits[i]), oldMostBits[i], oldLeastBits[i], oldCents[i]);
+            }
+        }
+    }
+
+    /**
+     * @param uuid 玩家
+     * @return 是否有该玩家的记录
+     */
+    public synchronized boolean containsKey(UUID uuid) {
+        return find(uuid) >= 0;
+    }
+
+    /**
+     * @param uuid 玩家
+     * @return 该玩家领取的金额（单位为分），没有记录时返回-1
+     */
+    public synchronized long get(UUID uuid) {
+        int index = find(uuid);
+        return index >= 0 ? cents[index] : -1;
+    }
+
+    /**
+     * 没有该玩家的记录时添加记录
+     *
+     * @param uuid  玩家
+     * @param value 金额（单位为分）
+     * @return 是否添加成功
+     */
+    public synchronized boolean putIfAbsent(UUID uuid, long value) {
+        long mostBits = uuid.getMostSignificantBits();
+        long leastBits = uuid.getLeastSignificantBits();
+        int slot = slot(mostBits, leastBits);
+        int index = table[slot] - 1;
+        if (index >= 0 && cents[index] != REMOVED) {
+            return false;
+        }
+        append(slot, mostBits, leastBits, value);
+        return true;
+    }
+
+    /**
+     * 设置玩家的金额，已有记录时保持原来的顺序
+     *
+     * @param uuid  玩家
+     * @param value 金额（单位为分）
+     */
+    public synchronized void put(UUID uuid, long value) {
+        long mostBits = uuid.getMostSignificantBits();
+        long leastBits = uuid.getLeastSignificantBits();
+        int slot = slot(mostBits, leastBits);
+        int index = table[slot] - 1;
+        if (index >= 0 && cents[index] != REMOVED) {
+            cents[index] = value;
+        } else {
+            append(slot, mostBits, leastBits, value);
+        }
+    }
+
+    /**
+     * 玩家的金额等于expected时移除记录
+     *
+     * @param uuid     玩家
+     * @param expected 期望的金额（单位为分）
+     * @return 是否移除成功
+     */
+    public synchronized boolean remove(UUID uuid, long expected) {
+        int index = find(uuid);
+        if (index < 0 || cents[index] != expected) {
+            return false;
+        }
+        cents[index] = REMOVED;
+        size--;
+        return true;
+    }
+
+    /**
+     * @return 记录数量
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * 按领取顺序遍历记录
+     *
+     * @param consumer 接收每条记录，遍历期间持有锁，不应执行耗时操作
+     */
+    public synchronized void forEach(Consumer consumer) {
+        for (int i = 0; i < used; i++) {
+            if (cents[i] != REMOVED) {
+                consumer.accept(mostBits[i], leastBits[i], cents[i]);
+            }
+        }
+    }
+
+    /**
+     * @return 领取金额最多的玩家，金额相同时取先领取的，没有记录时返回null
+     */
+    public synchronized UUID maxKey() {
+        int max = -1;
+        for (int i = 0; i < used; i++) {
+            if (cents[i] != REMOVED && (max < 0 || cents[i] > cents[max])) {
+                max = i;
+            }
+        }
+        return max < 0 ? null : new UUID(mostBits[max], leastBits[max]);
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder("{");
+        forEach((mostBits, leastBits, value) -> {
+            if (builder.length() > 1) {
+                builder.append(", ");
+            }
+            builder.append(new UUID(mostBits, leastBits)).append('=').append(value);
+        });
+        return builder.append('}').toString();
+    }
+
+    @FunctionalInterface
+    public interface Consumer {
+        void accept(long mostBits, long leastBits, long cents);
+    }
+}
@@ -0,0 +1,102 @@
+package sandtechnology.redpacket.redpacket;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.IntFunction;
+
+/**
+ * 比较{@link ClaimMap}与原来使用的LinkedHashMap&lt;UUID, Double&gt;保存领取记录时的内存占用
+ * 通过GC前后的堆使用量估算，结果受其他线程影响，只作参考
+ */
+public final class ClaimMapBenchmark {
+
+    //同时保留的映射数量，用于放大差异
+    private static final int COPIES = 20;
+
+    private ClaimMapBenchmark() {
+    }
+
+    /**
+     * @param claims 每个映射的领取记录数量
+     * @return 测试结果
+     */
+    public static List<Result> run(int claims) {
+        UUID[] players = new UUID[claims];
+        for (int i = 0; i < claims; i++) {
+            players[i] = UUID.randomUUID();
+        }
+        List<Result> results = new ArrayList<>();
+        results.add(measure("LinkedHashMap", claims, copy -> {
+            Map<UUID, Double> map = new LinkedHashMap<>();
+            for (UUID player : players) {
+                //不复用UUID对象，与实际解析领取记录时相同
+                map.put(new UUID(player.getMostSignificantBits(), player.getLeastSignificantBits()), (copy + 1) / 100.0);
+            }
+            return map;
+        }));
+        results.add(measure("ClaimMap", claims, copy -> {
+            ClaimMap map = new ClaimMap();
+            for (UUID player : players) {
+                map.put(player, copy + 1);
+            }
+            return map;
+        }));
+        return results;
+    }
+
+    private static Result measure(String name, int claims, IntFunction<Object> factory) {
+        Object[] maps = new Object[COPIES];
+        long before = usedMemory();
+        for (int i = 0; i < COPIES; i++) {
+            maps[i] = factory.apply(i);
+        }
+        long after = usedMemory();
+        //保证测量时映射仍被引用
+        if (maps[COPIES - 1] == null) {
+            throw new IllegalStateException();
+        }
+        return new Result(name, claims, Math.max(0, after - before) / COPIES);
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * 一个映射的内存占用
+     */
+    public static final class Result {
+        private final String name;
+        private final int claims;
+        private final long bytes;
+
+        Result(String name, int claims, long bytes) {
+            this.name = name;
+            this.claims = claims;
+            this.bytes = bytes;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getClaims() {
+            return claims;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getBytesPerClaim() {
+            return claims == 0 ? 0 : bytes / claims;
+        }
+    }
+}
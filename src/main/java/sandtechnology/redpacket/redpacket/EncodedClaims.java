@@ -0,0 +1,86 @@
+package sandtechnology.redpacket.redpacket;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * 以紧凑的二进制形式保存一个红包的领取记录，每条记录为玩家UUID（16字节）与金额（分，8字节）
+ * 从数据库载入的红包先以此形式保存，只有在领取、显示等需要时才解析为moneyMap
+ * 不是线程安全的，解析前只应由载入线程写入
+ */
+public final class EncodedClaims {
+
+    private static final int RECORD_SIZE = 24;
+    private byte[] data = new byte[RECORD_SIZE];
+    private int size;
+
+    /**
+     * 追加一条领取记录
+     *
+     * @param playerUUID 领取的玩家（二进制UUID）
+     * @param cents      领取的金额（单位为分）
+     */
+    public void add(byte[] playerUUID, long cents) {
+        if (playerUUID == null || playerUUID.length != 16) {
+            throw new IllegalArgumentException("无效的UUID数据！");
+        }
+        int offset = size * RECORD_SIZE;
+        if (offset + RECORD_SIZE > data.length) {
+            data = Arrays.copyOf(data, Math.max(offset + RECORD_SIZE, data.length * 3 / 2));
+        }
+        System.arraycopy(playerUUID, 0, data, offset, 16);
+        ByteBuffer.wrap(data, offset + 16, 8).putLong(cents);
+        size++;
+    }
+
+    /**
+     * @return 领取记录数量
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 在原始数据中查找玩家，无需解析
+     *
+     * @param playerUUID 玩家
+     * @return 该玩家是否有领取记录
+     */
+    public boolean contains(UUID playerUUID) {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        long most = playerUUID.getMostSignificantBits();
+        long least = playerUUID.getLeastSignificantBits();
+        for (int offset = 0; offset < size * RECORD_SIZE; offset += RECORD_SIZE) {
+            if (buffer.getLong(offset) == most && buffer.getLong(offset + 8) == least) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return 已领取的总金额（单位为分），无需解析
+     */
+    public long totalCents() {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        long total = 0;
+        for (int offset = 16; offset < size * RECORD_SIZE; offset += RECORD_SIZE) {
+            total += buffer.getLong(offset);
+        }
+        return total;
+    }
+
+    /**
+     * @return 按领取顺序排列的领取记录（单位为分）
+     */
+    public ClaimMap decode() {
+        //领取中的玩家会额外占用位置
+        ClaimMap moneyMap = new ClaimMap(size + 1);
+        ByteBuffer buffer = ByteBuffer.wrap(data, 0, size * RECORD_SIZE);
+        for (int i = 0; i < size; i++) {
+            moneyMap.put(new UUID(buffer.getLong(), buffer.getLong()), buffer.getLong());
+        }
+        return moneyMap;
+    }
+}
@@ -11,10 +11,15 @@ import org.bukkit.OfflinePlayer;
 import org.bukkit.entity.Player;
 import sandtechnology.redpacket.util.CompatibilityHelper;
 import sandtechnology.redpacket.util.IdiomManager;
-import sandtechnology.redpacket.util.OperatorHelper;
+import sandtechnology.redpacket.util.Money;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.lang.reflect.Type;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
@@ -26,9 +31,11 @@ import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
+import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Predicate;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -38,17 +45,15 @@ import static sandtechnology.redpacket.RedPacketPlugin.getDatabaseManager;
 import static sandtechnology.redpacket.RedPacketPlugin.getInstance;
 import static sandtechnology.redpacket.util.EcoAndPermissionHelper.canGet;
 import static sandtechnology.redpacket.util.EcoAndPermissionHelper.getEco;
+import static sandtechnology.redpacket.util.EconomyGateway.getEconomyGateway;
 import static sandtechnology.redpacket.util.IdiomManager.getIdiomPinyin;
 import static sandtechnology.redpacket.util.IdiomManager.isValidSequence;
 import static sandtechnology.redpacket.util.JsonHelper.getGson;
-import static sandtechnology.redpacket.util.MessageHelper.broadcastMsg;
 import static sandtechnology.redpacket.util.MessageHelper.sendServiceMsg;
 import static sandtechnology.redpacket.util.MessageHelper.sendSimpleMsg;
-import static sandtechnology.redpacket.util.OperatorHelper.add;
-import static sandtechnology.redpacket.util.OperatorHelper.divide;
-import static sandtechnology.redpacket.util.OperatorHelper.multiply;
-import static sandtechnology.redpacket.util.OperatorHelper.toTwoPrecision;
 import static sandtechnology.redpacket.util.RedPacketManager.getRedPacketManager;
+import static sandtechnology.redpacket.util.UUIDHelper.fromBytes;
+import static sandtechnology.redpacket.util.UUIDHelper.toBytes;
 
 /**
  *
@@ -59,20 +64,32 @@ import static sandtechnology.redpacket.util.RedPacketManager.getRedPacketManager
 public class RedPacket implements Comparator<RedPacket>, Comparable<RedPacket> {
 
 
-    private static final Random random = new Random();
-    private static final Type moneyMapType = new TypeToken<LinkedHashMap<UUID, Double>>() {}.getType();
+    /**
+     * 红包表的列数
+     */
+    public static final int SQL_COLUMNS = 10;
+    //领取时的占位金额，真实的领取金额至少为1分
+    private static final long RESERVED = 0L;
     private static final Type giversType = new TypeToken<HashSet<UUID>>() {}.getType();
     private final OfflinePlayer player;
     private final RedPacketType type;
     private final GiveType giveType;
     private final UUID uuid;
-    private final Set<UUID> givers;
-    private final Map<UUID, Double> moneyMap;
-    private int money;
-    private int amount;
-    private String extraData;
+    //从数据库载入的红包在首次使用前只保存原始数据，使用时才解析，解析后原始数据置为null
+    private volatile Set<UUID> givers;
+    private String encodedGivers;
+    private volatile ClaimMap moneyMap;
+    private EncodedClaims encodedClaims;
+    //剩余个数、余额等可变数据，领取与退款通过CAS整体替换，无需加锁
+    private final AtomicReference<State> state;
+    //红包总个数（剩余个数+已领取个数）
+    private final int totalAmount;
+    //拼手气红包在创建对象时生成的每份金额（单位为分），剩余n个时下一次领取取下标n-1，固定数值红包或总额不足每份1分时为null
+    //每份金额不保存到数据库，重启后按剩余的个数与余额重新生成
+    private final long[] shares;
+    //红包总额（单位为分），含已领取的金额
+    private final long totalCents;
     private final long expireTime;
-    private boolean expired;
     private static final DateTimeFormatter dateTimeFormatter = DateTimeFormatter.ofPattern("yyyy/MM/dd HH:mm:ss.SSS O");
     /**
      * 创建红包对象，只能通过内置的Builder创建
@@ -82,60 +99,41 @@ public class RedPacket implements Comparator<RedPacket>, Comparable<RedPacket> {
      * @param giveType   给予的类型
      * @param type       红包类型
      * @param amount     红包数量
-     * @param money      红包总额
-     * @param moneyMap   记录玩家领取红包的数据映射
-     * @param givers     能领取红包的玩家
+     * @param cents      红包余额（单位为分）
+     * @param encodedClaims 未解析的领取数据，null代表没有领取记录
+     * @param givers        能领取红包的玩家，为null时使用encodedGivers
+     * @param encodedGivers 未解析的能领取红包的玩家（JSON）
      * @param extraData  额外数据，存储口令、祝福、成语...
-     * @param timeZone   时区，实际上是ZoneId
-     * @param expireTime 过期时间，以1970-01-01 00:00 UTC到当前时区的时间的毫秒数存储
+     * @param expireTime 过期时间，以1970-01-01 00:00 UTC起的毫秒数存储
+     * @param shares     拼手气红包的每份金额，见{@link #split(long, int)}
      */
-    private RedPacket(UUID uuid, OfflinePlayer player, GiveType giveType, RedPacketType type, int amount, double money, Map<UUID, Double> moneyMap, String extraData,Set<UUID> givers, long expireTime,ZoneId timeZone, boolean expired) {
+    private RedPacket(UUID uuid, OfflinePlayer player, GiveType giveType, RedPacketType type, int amount, long cents, EncodedClaims encodedClaims, String extraData, Set<UUID> givers, String encodedGivers, long expireTime, boolean expired, long[] shares) {
         this.player = player;
-        //注：为防止精度问题，此处将其乘以100来使用int存储
-        this.money = (int) multiply(money, 100);
+        this.state = new AtomicReference<>(new State(amount, cents, extraData, expired, null, 0));
+        this.shares = shares;
         this.giveType = giveType;
         this.type = type;
-        this.amount = amount;
         this.uuid = uuid;
-        this.moneyMap = moneyMap;
-        this.extraData = extraData;
-        this.givers=givers;
-        //防止反序列化时的时区变化
-        this.expireTime = Instant.ofEpochMilli(expireTime).atZone(timeZone).withZoneSameLocal(ZoneId.systemDefault()).toInstant().toEpochMilli();
-        this.expired = expired;
+        this.encodedClaims = encodedClaims;
+        this.totalAmount = amount + (encodedClaims == null ? 0 : encodedClaims.size());
+        this.totalCents = cents + (encodedClaims == null ? 0 : encodedClaims.totalCents());
+        this.givers = givers;
+        this.encodedGivers = encodedGivers;
+        this.expireTime = expireTime;
     }
 
     /**
      * 将结果集序列化为红包
      *
      * @param sqlData 结果集
+     * @param claims  按红包UUID分组的未解析领取记录
      * @return 包含红包的列表，如无红包将为空列表
      */
-    public static List<RedPacket> fromSQL(ResultSet sqlData) {
+    public static List<RedPacket> fromSQL(ResultSet sqlData, Map<UUID, EncodedClaims> claims) {
         List<RedPacket> list = new ArrayList<>();
         try {
             while (sqlData.next()) {
-                int i = 0;
-                //UUID,playerUUID,RedPacketType,giveType,amount,money,moneyMap,extraData,className,expireTime,expired
-                list.add(new Builder()
-                        //1
-                        .uuid(UUID.fromString(sqlData.getString(++i)))
-                        //2
-                        .player(Bukkit.getOfflinePlayer(UUID.fromString(sqlData.getString(++i))))
-                        //3
-                        .giveType(GiveType.valueOf(sqlData.getString(++i)))
-                        //4
-                        .type(RedPacketType.valueOf(sqlData.getString(++i)))
-                        //5....
-                        .amount(sqlData.getInt(++i))
-                        .money(sqlData.getDouble(++i))
-                        .moneyMap(getGson().fromJson(sqlData.getString(++i), moneyMapType))
-                        .extraData(sqlData.getString(++i))
-                        .givers(getGson().<HashSet<UUID>>fromJson(sqlData.getString(++i),giversType))
-                        .expireTime(sqlData.getLong(++i))
-                        .timeZone(ZoneId.of(sqlData.getString(++i)))
-                        .expired(boolFromInt(sqlData.getInt(++i)))
-                        .build());
+                list.add(fromSQLRow(sqlData, claims));
             }
         } catch (Exception e) {
             throw new RuntimeException("SQL解析错误！", e);
@@ -143,16 +141,61 @@ public class RedPacket implements Comparator<RedPacket>, Comparable<RedPacket> {
         return list;
     }
 
+    /**
+     * 将结果集的当前行序列化为红包，读取前{@link #SQL_COLUMNS}列
+     *
+     * @param sqlData 结果集
+     * @param claims  按红包UUID分组的未解析领取记录
+     * @return 红包
+     */
+    public static RedPacket fromSQLRow(ResultSet sqlData, Map<UUID, EncodedClaims> claims) throws SQLException {
+        return new SQLRow(sqlData).decode(claims);
+    }
+
+    /**
+     * @return 能领取红包的玩家，首次调用时解析
+     */
+    private Set<UUID> givers() {
+        Set<UUID> result = givers;
+        if (result == null) {
+            synchronized (this) {
+                if (givers == null) {
+                    givers = getGson().fromJson(encodedGivers, giversType);
+                    encodedGivers = null;
+                }
+                result = givers;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return 领取记录，首次调用时解析，领取中的玩家以{@link #RESERVED}占位
+     */
+    private ClaimMap moneyMap() {
+        ClaimMap result = moneyMap;
+        if (result == null) {
+            synchronized (this) {
+                if (moneyMap == null) {
+                    moneyMap = encodedClaims == null ? new ClaimMap() : encodedClaims.decode();
+                    encodedClaims = null;
+                }
+                result = moneyMap;
+            }
+        }
+        return result;
+    }
+
     public boolean isLimitPlayer() {
-        return !givers.isEmpty();
+        return !givers().isEmpty();
     }
 
     public String getLimitPlayerList() {
-        return givers.parallelStream().map(Bukkit::getOfflinePlayer).map(OfflinePlayer::getName).collect(Collectors.joining(","));
+        return givers().parallelStream().map(Bukkit::getOfflinePlayer).map(OfflinePlayer::getName).collect(Collectors.joining(","));
     }
 
     public List<OfflinePlayer> getLimitPlayers() {
-        return givers.parallelStream().map(Bukkit::getOfflinePlayer).collect(Collectors.toList());
+        return givers().parallelStream().map(Bukkit::getOfflinePlayer).collect(Collectors.toList());
     }
     private static int boolToInt(boolean bool) {
         return bool ? 1 : 0;
@@ -177,130 +220,298 @@ public class RedPacket implements Comparator<RedPacket>, Comparable<RedPacket> {
     }
 
     public String getExtraData() {
-        return extraData;
+        return state.get().extraData;
     }
 
     public RedPacketType getType() {
         return type;
     }
 
+    public GiveType getGiveType() {
+        return giveType;
+    }
+
+    public long getExpireTime() {
+        return expireTime;
+    }
+
+    public boolean isExpired() {
+        return state.get().expired;
+    }
+
+    public String getStatus() {
+        State current = state.get();
+        return current.expired ? "已过期" : current.amount == 0 ? "已领完" : "等待领取";
+    }
+
+    /**
+     * @param playerUUID 玩家
+     * @return 该玩家当前能否领取此红包（不检查权限与口令）
+     */
+    public boolean isClaimableBy(UUID playerUUID) {
+        State current = state.get();
+        return !current.expired && current.amount > 0 && System.currentTimeMillis() < expireTime
+                && (givers().isEmpty() || givers().contains(playerUUID))
+                && !hasClaimed(playerUUID);
+    }
+
+    /**
+     * 判断玩家是否已领取或正在领取，领取记录尚未解析时直接查找原始数据，不会触发解析
+     *
+     * @param playerUUID 玩家
+     * @return 是否已领取或正在领取
+     */
+    private boolean hasClaimed(UUID playerUUID) {
+        ClaimMap result = moneyMap;
+        if (result == null) {
+            synchronized (this) {
+                if (moneyMap == null) {
+                    return encodedClaims != null && encodedClaims.contains(playerUUID);
+                }
+                result = moneyMap;
+            }
+        }
+        return result.containsKey(playerUUID);
+    }
+
     /**
      * 判断红包领取条件
+     * 领取通过CAS预留金额，到账、保存与广播都在预留成功后进行，不持有任何锁
      *
      * @param player 要领取红包的玩家
      * @param extra  用于判断的额外数据
      */
-    synchronized public void giveIfValid(Player player, String extra) {
+    public void giveIfValid(Player player, String extra) {
         //排除不在可领取红包列表中的玩家
-        if (!givers.isEmpty() && !givers.contains(player.getUniqueId()) && canGet(player, type)) {
+        if (!givers().isEmpty() && !givers().contains(player.getUniqueId()) && canGet(player, type)) {
             if (type == RedPacketType.CommonRedPacket) {
                 sendSimpleMsg(player, ChatColor.RED, "你无法领取此红包！");
             }
             return;
         }
-
-        if (!moneyMap.containsKey(player.getUniqueId())) {
-            switch (type) {
-                case JieLongRedPacket:
-                    if (isValidSequence(extraData, extra)) {
-                        this.extraData = extra;
-                        giveMoney(player);
-                    }
-                    break;
-                case PasswordRedPacket:
-                    if (extra.equals(extraData)) {
-                        giveMoney(player);
-                    }
-                    break;
-                default:
-                    giveMoney(player);
-            }
-        } else {
+        //先占位，同一玩家同时领取时只有一次能通过
+        if (!hold(player.getUniqueId())) {
             if (type == RedPacketType.CommonRedPacket) {
                 sendSimpleMsg(player, ChatColor.RED, "你已领取此红包！");
             }
+            return;
         }
+        take(player, extra);
     }
 
 
     /**
-     * 红包过期自动退款
+     * 红包过期自动退款，只有将红包标记为过期的线程会退款
+     * 由{@link sandtechnology.redpacket.util.ExpiryScheduler}在过期时调用，是否启用退款由调用者决定
      */
-    synchronized public void refundIfExpired() {
-        try {
-            if (System.currentTimeMillis() > expireTime && !expired && amount != 0 && getInstance().getConfig().getBoolean("RedPacket.Expired")) {
-                sendServiceMsg(player, ChatColor.GREEN, "您的红包已过期，已退还" + getCurrentMoney() + "元");
-                getEco().depositPlayer(player, getCurrentMoney());
-                expired = true;
-                getDatabaseManager().update(this);
-                getRedPacketManager().remove(this);
+    public void refundIfExpired() {
+        if (System.currentTimeMillis() <= expireTime) {
+            return;
+        }
+        State current;
+        do {
+            current = state.get();
+            if (current.expired || current.amount == 0) {
+                return;
             }
+        } while (!state.compareAndSet(current, current.expire()));
+        try {
+            sendServiceMsg(player, ChatColor.GREEN, "您的红包已过期，已退还" + Money.format(current.money) + "元");
+            getEconomyGateway().deposit(player, current.money, "refund " + uuid);
+            getDatabaseManager().update(this);
+            getRedPacketManager().remove(this);
         } catch (Exception e) {
             throw new RuntimeException("红包退还失败！", e);
         }
     }
 
     public int getCurrentAmount() {
-        return amount;
+        return state.get().amount;
     }
 
-    public double getCurrentMoney() {
-        return divide(money, 100);
+    /**
+     * @return 红包余额（单位为分）
+     */
+    public long getCurrentCents() {
+        return state.get().money;
     }
 
-    private int getAmount() {
-        return amount + moneyMap.size();
+    /**
+     * @return 红包总个数（剩余个数+已领取个数）
+     */
+    public int getAmount() {
+        return totalAmount;
     }
 
     public UUID getUUID() {
         return uuid;
     }
 
-    public double getMoney() {
-        return add(getCurrentMoney(), moneyMap.values().stream().reduce(OperatorHelper::add).orElse(0.0));
+    /**
+     * @return 红包总额（单位为分），含已领取的金额
+     */
+    public long getTotalCents() {
+        return totalCents;
+    }
+
+    /**
+     * 给予红包给对应玩家，不检查口令与成语
+     *
+     * @param player 要给予红包的玩家
+     */
+    public void giveMoney(Player player) {
+        if (hold(player.getUniqueId())) {
+            take(player, null);
+        }
+    }
+
+    /**
+     * 为玩家占位，之后必须调用{@link #reserve(UUID, String)}预留金额或移除占位
+     *
+     * @param playerUUID 玩家
+     * @return 是否占位成功，玩家已领取或正在领取时返回false
+     */
+    boolean hold(UUID playerUUID) {
+        return moneyMap().putIfAbsent(playerUUID, RESERVED);
     }
 
     /**
-     * 给予红包给对应玩家
+     * 生成拼手气红包每次领取的金额，每份至少1分，总和恰好等于总额
      * 使用算法：微信红包的随机算法是怎样实现的？ - 陈鹏的回答 - 知乎
      * <a href="https://www.zhihu.com/question/22625187/answer/85530416">点击这里</a>
      *
+     * @param cents  总额（单位为分）
+     * @param amount 红包个数
+     * @return 按领取顺序从后往前排列的金额，总额不足每份1分时返回null
+     */
+    private static long[] split(long cents, int amount) {
+        if (cents < amount) {
+            return null;
+        }
+        long[] shares = new long[amount];
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long remaining = cents;
+        for (int left = amount; left > 1; left--) {
+            //二倍均值法，同时为之后的每份至少保留1分
+            long max = Math.min(remaining / left * 2, remaining - (left - 1));
+            long share = max <= 1 ? 1 : 1 + random.nextLong(max);
+            shares[left - 1] = share;
+            remaining -= share;
+        }
+        shares[0] = remaining;
+        return shares;
+    }
+
+    /**
+     * 为已占位的玩家预留金额并发放，预留失败时移除占位
+     *
      * @param player 要给予红包的玩家
+     * @param extra  用于判断的额外数据，为null时不检查
      */
-    synchronized public void giveMoney(Player player) {
-        if (System.currentTimeMillis() >= expireTime) {
+    private void take(Player player, String extra) {
+        UUID playerUUID = player.getUniqueId();
+        Reservation reservation = reserve(playerUUID, extra);
+        if (reservation == null) {
             return;
         }
+        long value = reservation.cents;
+        State next = reservation.next;
+        getEconomyGateway().deposit(player, value, "claim " + uuid);
+        getDatabaseManager().claim(this, playerUUID, value);
+        getDatabaseManager().update(this);
+        Bukkit.getScheduler().runTask(getInstance(), () -> CompatibilityHelper.playMeowSound(player));
+        getRedPacketManager().getClaimBroadcaster().claimed(this, player.getName(), value,
+                type == RedPacketType.JieLongRedPacket ? "，下一个成语的音节是" + ChatColor.UNDERLINE + ChatColor.GREEN + getIdiomPinyin(next.extraData) : "");
+        if (next.amount == 0) {
+            getRedPacketManager().remove(this);
+            getRedPacketManager().getClaimBroadcaster().finished(this, "玩家" + ChatColor.GOLD + this.player.getName() + ChatColor.YELLOW + "的红包已被抢完，" + ChatColor.GOLD + Optional.ofNullable(luckiest(next)).map(x -> Bukkit.getServer().getOfflinePlayer(x).getName()).orElse("无人") + ChatColor.YELLOW + "是运气王");
+        } else if (type == RedPacketType.JieLongRedPacket) {
+            //成语已变化，下一个成语需要的音节随之变化
+            getRedPacketManager().updateSyllable(this);
+        }
+    }
 
-        int value;
-        if (amount > 1) {
-            if (giveType.equals(GiveType.LuckyAmount)) {
-                //Math.max((int)(toTwoPrecision(random.nextDouble())/((money/amount)*2),1)
-                //你问为什么不乘0.01？random.nextDouble()已经帮我乘了233
-                value = Math.max((int) (multiply(toTwoPrecision(random.nextDouble()), multiply(divide(money, amount), 2))), 1);
+    /**
+     * 通过CAS为已占位的玩家预留金额并写入领取记录，只修改红包自身的状态，到账、保存与公告由调用者进行
+     * 预留失败时移除占位
+     *
+     * @param playerUUID 已通过{@link #hold(UUID)}占位的玩家
+     * @param extra      用于判断的额外数据，为null时不检查
+     * @return 预留结果，红包已领完、已过期或输入不满足要求时为null
+     */
+    Reservation reserve(UUID playerUUID, String extra) {
+        State current;
+        State next;
+        long value;
+        do {
+            current = state.get();
+            if (current.expired || current.amount <= 0 || System.currentTimeMillis() >= expireTime || !matches(current, extra)) {
+                moneyMap().remove(playerUUID, RESERVED);
+                return null;
+            }
+            if (shares != null) {
+                value = shares[current.amount - 1];
+            } else if (current.amount > 1) {
+                value = current.money / current.amount;
             } else {
-                value = (int) divide(money, amount);
+                value = current.money;
             }
-        } else {
-            value = money;
+            //接龙红包领取后成语变为玩家输入的成语
+            next = current.claim(value, playerUUID, type == RedPacketType.JieLongRedPacket && extra != null ? extra : current.extraData);
+        } while (!state.compareAndSet(current, next));
+        moneyMap().put(playerUUID, value);
+        return new Reservation(value, next);
+    }
+
+    /**
+     * 一次成功的预留
+     */
+    static final class Reservation {
+        //领取的金额（单位为分）
+        final long cents;
+        //预留后的状态
+        final State next;
+
+        Reservation(long cents, State next) {
+            this.cents = cents;
+            this.next = next;
         }
-        money -= value;
-        double giveMoney = multiply(value, 0.01);
-        getEco().depositPlayer(player, giveMoney);
-        moneyMap.put(player.getUniqueId(), giveMoney);
-        Bukkit.getScheduler().runTask(getInstance(), () -> CompatibilityHelper.playMeowSound(player));
-        broadcastMsg(ChatColor.YELLOW,
-                "玩家" + ChatColor.GOLD + player.getName() +
-                        ChatColor.YELLOW + "抢了" + ChatColor.GOLD + this.player.getName() + ChatColor.YELLOW + "的红包" + "，抢到了" + ChatColor.GOLD + giveMoney + ChatColor.YELLOW + "元" + (type == RedPacketType.JieLongRedPacket ? "，下一个成语的音节是" + ChatColor.UNDERLINE + ChatColor.GREEN + getIdiomPinyin(extraData) : ""));
+    }
 
-        amount--;
-        getDatabaseManager().update(this);
-        if (amount == 0) {
-            getRedPacketManager().remove(this);
-            broadcastMsg(ChatColor.YELLOW, "玩家" + ChatColor.GOLD + this.player.getName() + ChatColor.YELLOW + "的红包已被抢完，" + ChatColor.GOLD + moneyMap.entrySet().parallelStream().max(Comparator.comparing(Map.Entry::getValue)).map(x -> Bukkit.getServer().getOfflinePlayer(x.getKey()).getName()).orElse("无人") + ChatColor.YELLOW + "是运气王");
+    /**
+     * @param current 当前状态
+     * @param extra   玩家输入的额外数据，为null时不检查
+     * @return 输入是否满足红包类型的要求
+     */
+    private boolean matches(State current, String extra) {
+        if (extra == null) {
+            return true;
+        }
+        switch (type) {
+            case JieLongRedPacket:
+                return isValidSequence(current.extraData, extra);
+            case PasswordRedPacket:
+                return extra.equals(current.extraData);
+            default:
+                return true;
         }
     }
 
+    /**
+     * 红包被抢完时确定运气王
+     * 其他玩家可能已预留金额但还未写入领取记录，因此同时比较状态中记录的本次启动以来的最大金额
+     *
+     * @param last 最后一次领取后的状态
+     * @return 运气王，无人领取时为null
+     */
+    private UUID luckiest(State last) {
+        UUID claimed = moneyMap().maxKey();
+        if (claimed == null || last.luckiest != null && last.luckiestCents >= moneyMap().get(claimed)) {
+            return last.luckiest;
+        }
+        return claimed;
+    }
+
     @Override
     public boolean equals(Object obj) {
         return obj instanceof RedPacket && ((RedPacket) obj).uuid.equals(uuid);
@@ -318,77 +529,275 @@ public class RedPacket implements Comparator<RedPacket>, Comparable<RedPacket> {
                 + "\n发起人：" + player.getName()
                 + "\n给予方式：" + giveType.getName()
                 + "\n红包类型：" + type.getName()
-                + "\n额外信息：" + extraData
+                + "\n额外信息：" + getExtraData()
                 /*
                 Convert Milliseconds To LocalDateTime In Java 8
                 https://howtoprogram.xyz/2017/02/11/convert-milliseconds-localdatetime-java/
                 */
                 + "\n过期时间：" + ZonedDateTime.ofInstant(Instant.ofEpochMilli(expireTime), ZoneId.systemDefault()).format(dateTimeFormatter)
-                + "\n状态：" + (expired ? "已过期" : amount == 0 ? "已领完" : "等待领取")
+                + "\n状态：" + getStatus()
                 + "\n个数：" + getCurrentAmount() + "/" + getAmount()
-                + "\n余额：" + getCurrentMoney() + "/" + getMoney();
+                + "\n余额：" + Money.format(getCurrentCents()) + "/" + Money.format(getTotalCents());
+    }
+
+    /**
+     * 将红包的可变数据绑定到UPDATE语句，领取数据另行写入领取记录表
+     * 参数顺序：amount,money,extraData,expired,UUID
+     *
+     * @param statement 预编译的UPDATE语句
+     */
+    public void bindUpdate(PreparedStatement statement) throws SQLException {
+        State current = state.get();
+        int i = 0;
+        statement.setInt(++i, current.amount);
+        statement.setLong(++i, current.money);
+        statement.setString(++i, current.extraData);
+        statement.setInt(++i, boolToInt(current.expired));
+        statement.setBytes(++i, toBytes(uuid));
+    }
+
+    /**
+     * 将红包绑定到INSERT语句
+     *
+     * @param statement 预编译的INSERT语句
+     */
+    synchronized public void bindInsert(PreparedStatement statement) throws SQLException {
+        //UUID,playerUUID,giveType,RedPacketType,amount,money,extraData,givers,expireTime,expired
+        State current = state.get();
+        int i = 0;
+        statement.setBytes(++i, toBytes(uuid));
+        statement.setBytes(++i, toBytes(player.getUniqueId()));
+        statement.setInt(++i, giveType.getCode());
+        statement.setInt(++i, type.getCode());
+        statement.setInt(++i, current.amount);
+        statement.setLong(++i, current.money);
+        statement.setString(++i, current.extraData);
+        statement.setString(++i, encodedGivers != null ? encodedGivers : getGson().toJson(givers));
+        statement.setLong(++i, expireTime);
+        statement.setInt(++i, boolToInt(current.expired));
     }
 
-    public String toUpdateSQL(String tableName) {
-        return String.format("UPDATE %s SET amount=%d,money=%f,extraData='%s',moneyMap='%s',expired=%d where UUID='%s'",
-                tableName,
-                getCurrentAmount(),
-                getCurrentMoney(),
-                extraData,
-                getGson().toJson(moneyMap, moneyMapType),
-                boolToInt(expired),
-                uuid.toString());
+    /**
+     * 将红包写入二进制流，领取数据另行写入，与{@link #readFrom(DataInput, Map)}对应
+     *
+     * @param out 输出流
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        //UUID,playerUUID,giveType,RedPacketType,amount,money,extraData,givers,expireTime,expired
+        State current = state.get();
+        out.write(toBytes(uuid));
+        out.write(toBytes(player.getUniqueId()));
+        out.writeByte(giveType.getCode());
+        out.writeByte(type.getCode());
+        out.writeInt(current.amount);
+        out.writeLong(current.money);
+        out.writeUTF(current.extraData);
+        out.writeInt(givers().size());
+        for (UUID giver : givers()) {
+            out.write(toBytes(giver));
+        }
+        out.writeLong(expireTime);
+        out.writeBoolean(current.expired);
     }
 
     /**
-     * 生成序列化红包的SQL语句
+     * 从二进制流读取红包
      *
-     * @param tableName 对应的表
-     * @return 序列化红包的SQL语句
+     * @param in     输入流
+     * @param claims 按红包UUID分组的未解析领取记录
+     * @return 红包
+     */
+    public static RedPacket readFrom(DataInput in, Map<UUID, EncodedClaims> claims) throws IOException {
+        UUID uuid = readUUID(in);
+        Builder builder = new Builder()
+                .uuid(uuid)
+                .player(Bukkit.getOfflinePlayer(readUUID(in)))
+                .giveType(GiveType.fromCode(in.readByte()))
+                .type(RedPacketType.fromCode(in.readByte()))
+                .amount(in.readInt())
+                .cents(in.readLong())
+                .encodedClaims(claims.get(uuid))
+                .extraData(in.readUTF());
+        int size = in.readInt();
+        HashSet<UUID> givers = new HashSet<>(size);
+        for (int i = 0; i < size; i++) {
+            givers.add(readUUID(in));
+        }
+        return builder.givers(givers)
+                .expireTime(in.readLong())
+                .expired(in.readBoolean())
+                .build();
+    }
+
+    private static UUID readUUID(DataInput in) throws IOException {
+        byte[] bytes = new byte[16];
+        in.readFully(bytes);
+        return fromBytes(bytes);
+    }
+
+    /**
+     * 红包的可变数据，不可修改，每次领取或退款都会生成新的状态
+     */
+    private static final class State {
+        final int amount;
+        //余额（单位为分）
+        final long money;
+        final String extraData;
+        final boolean expired;
+        //本次启动以来领取金额最多的玩家，用于确定运气王
+        final UUID luckiest;
+        final long luckiestCents;
+
+        State(int amount, long money, String extraData, boolean expired, UUID luckiest, long luckiestCents) {
+            this.amount = amount;
+            this.money = money;
+            this.extraData = extraData;
+            this.expired = expired;
+            this.luckiest = luckiest;
+            this.luckiestCents = luckiestCents;
+        }
+
+        /**
+         * @param cents      领取的金额（单位为分）
+         * @param playerUUID 领取的玩家
+         * @param extraData  领取后的额外数据
+         * @return 领取后的状态
+         */
+        State claim(long cents, UUID playerUUID, String extraData) {
+            boolean lucky = luckiest == null || cents > luckiestCents;
+            return new State(amount - 1, money - cents, extraData, expired, lucky ? playerUUID : luckiest, lucky ? cents : luckiestCents);
+        }
+
+        /**
+         * @return 标记为过期后的状态
+         */
+        State expire() {
+            return new State(amount, money, extraData, true, luckiest, luckiestCents);
+        }
+    }
+
+    /**
+     * 结果集中一行的原始数据
+     * 读取原始数据很快，耗时的解析（Gson与玩家查找）可以交给其他线程，读取结果集的线程无需等待
      */
-    public String toInsertSQL(String tableName) {
-        //UUID,playerUUID,RedPacketType,giveType,amount,money,moneyMap,extraData,givers,expireTime,Timezone,expired
-        return String.format("INSERT INTO %s VALUES ('%s','%s','%s','%s',%d,%f,'%s','%s','%s',%d,'%s',%d)",
-                tableName,
-                uuid.toString(),
-                player.getUniqueId(),
-                giveType.name(),
-                type.name(),
-                getCurrentAmount(),
-                getCurrentMoney(),
-                getGson().toJson(moneyMap),
-                extraData,
-                getGson().toJson(givers),
-                expireTime,
-                ZoneId.systemDefault().getId(),
-                boolToInt(expired));
+    public static final class SQLRow {
+        private final byte[] uuid;
+        private final byte[] player;
+        private final int giveType;
+        private final int type;
+        private final int amount;
+        private final long money;
+        private final String extraData;
+        private final String givers;
+        private final long expireTime;
+        private final int expired;
+
+        /**
+         * 读取结果集的当前行，读取前{@link #SQL_COLUMNS}列
+         *
+         * @param sqlData 结果集
+         */
+        public SQLRow(ResultSet sqlData) throws SQLException {
+            int i = 0;
+            //UUID,playerUUID,giveType,RedPacketType,amount,money,extraData,givers,expireTime,expired
+            uuid = sqlData.getBytes(++i);
+            player = sqlData.getBytes(++i);
+            giveType = sqlData.getInt(++i);
+            type = sqlData.getInt(++i);
+            amount = sqlData.getInt(++i);
+            money = sqlData.getLong(++i);
+            extraData = sqlData.getString(++i);
+            givers = sqlData.getString(++i);
+            expireTime = sqlData.getLong(++i);
+            expired = sqlData.getInt(++i);
+        }
+
+        /**
+         * 将原始数据解析为红包，可在任意线程中调用
+         *
+         * @param claims 按红包UUID分组的未解析领取记录
+         * @return 红包
+         */
+        public RedPacket decode(Map<UUID, EncodedClaims> claims) {
+            UUID uuid = fromBytes(this.uuid);
+            return new Builder()
+                    .uuid(uuid)
+                    .player(Bukkit.getOfflinePlayer(fromBytes(player)))
+                    .giveType(GiveType.fromCode(giveType))
+                    .type(RedPacketType.fromCode(type))
+                    .amount(amount)
+                    .cents(money)
+                    .encodedClaims(claims.get(uuid))
+                    .extraData(extraData)
+                    //领取数据与可领取玩家在使用时才解析
+                    .encodedGivers(givers)
+                    .expireTime(expireTime)
+                    .expired(boolFromInt(expired))
+                    .build();
+        }
     }
 
+    /**
+     * 给予类型，code为数据库中存储的数字代码，已有的代码不能修改
+     */
     public enum GiveType {
-        LuckyAmount("拼手气"),
-        FixAmount("固定数值");
+        LuckyAmount("拼手气", 0),
+        FixAmount("固定数值", 1);
         final String name;
+        final int code;
 
-        GiveType(String name) {
+        GiveType(String name, int code) {
             this.name = name;
+            this.code = code;
         }
 
-        String getName() {
+        public String getName() {
             return name;
         }
+
+        public int getCode() {
+            return code;
+        }
+
+        public static GiveType fromCode(int code) {
+            for (GiveType giveType : values()) {
+                if (giveType.code == code) {
+                    return giveType;
+                }
+            }
+            throw new IllegalArgumentException("未知的给予类型代码：" + code);
+        }
     }
 
+    /**
+     * 红包类型，code为数据库中存储的数字代码，已有的代码不能修改
+     */
     public enum RedPacketType {
-        CommonRedPacket("普通红包","祝福语"),
-        JieLongRedPacket("接龙红包","成语"),
-        PasswordRedPacket("口令红包","口令");
+        CommonRedPacket("普通红包","祝福语", 0),
+        JieLongRedPacket("接龙红包","成语", 1),
+        PasswordRedPacket("口令红包","口令", 2);
 
         final String name;
         final String extraDataName;
+        final int code;
 
-        RedPacketType(String name,String extraDataName) {
+        RedPacketType(String name,String extraDataName, int code) {
             this.name = name;
             this.extraDataName=extraDataName;
+            this.code = code;
+        }
+
+        public int getCode() {
+            return code;
+        }
+
+        public static RedPacketType fromCode(int code) {
+            for (RedPacketType type : values()) {
+                if (type.code == code) {
+                    return type;
+                }
+            }
+            throw new IllegalArgumentException("未知的红包类型代码：" + code);
         }
 
         public String getExtraDataName() {
@@ -409,9 +818,9 @@ public class RedPacket implements Comparator<RedPacket>, Comparable<RedPacket> {
      * @see RedPacket
      */
     public static class Builder {
-        private Map<UUID, Double> moneyMap = new LinkedHashMap<>();
         private OfflinePlayer player;
-        private double money;
+        //红包总额（单位为分）
+        private long cents;
         private int amount;
         private RedPacketType type = RedPacketType.CommonRedPacket;
         private GiveType givetype = GiveType.LuckyAmount;
@@ -420,21 +829,22 @@ public class RedPacket implements Comparator<RedPacket>, Comparable<RedPacket> {
         private static final LinkedHashMap<Predicate<Builder>, String> checkMap = new LinkedHashMap<>();
         private boolean expired;
         private Set<UUID> givers=new HashSet<>();
-        private ZoneId timeZone=ZoneId.systemDefault();
-        //过期时间
-        private long expireTime = System.currentTimeMillis() + getInstance().getConfig().getLong("RedPacket.ExpiredTime");
+        private String encodedGivers;
+        private EncodedClaims encodedClaims;
+        //过期时间，内部创建时由调用者设置
+        private long expireTime;
 
         //初始化
         static {
             checkMap.put((builder) -> builder.amount > 0, "红包数量必须大于0！");
-            checkMap.put((builder) -> builder.money > 0, "红包总额必须大于0！");
-            checkMap.put((builder) -> getEco().getBalance(builder.player) >= builder.money, "你的余额不足！");
-            checkMap.put((builder) -> OperatorHelper.divide(builder.money, builder.amount) >= 0.01, "红包平均最低金额不能低于0.01！");
+            checkMap.put((builder) -> builder.cents > 0, "红包总额必须大于0！");
+            checkMap.put((builder) -> getEco().getBalance(builder.player) >= Money.toYuan(builder.cents), "你的余额不足！");
+            checkMap.put((builder) -> builder.cents >= builder.amount, "红包平均最低金额不能低于0.01！");
             checkMap.put((builder) -> builder.type != RedPacketType.PasswordRedPacket || !builder.extraData.contains("§") && !builder.extraData.startsWith("/"), "口令红包不能包含样式代码和命令！");
             checkMap.put((builder) -> builder.type != RedPacketType.JieLongRedPacket || IdiomManager.isValidIdiom(builder.extraData), "该成语无效！");
-            checkMap.put((builder) -> getInstance().getConfig().getDouble("RedPacket.MaxMoney") >= builder.money, "红包总额不能超出{MaxMoney}！");
+            checkMap.put((builder) -> Money.fromYuan(getInstance().getConfig().getDouble("RedPacket.MaxMoney")) >= builder.cents, "红包总额不能超出{MaxMoney}！");
             checkMap.put((builder) -> getInstance().getConfig().getInt("RedPacket.MaxAmount") >= builder.amount, "红包数量不能超出{MaxAmount}！");
-            checkMap.put((builder) -> getInstance().getConfig().getDouble("RedPacket.MinMoney") <= builder.money, "红包总额不能小于{MinMoney}！");
+            checkMap.put((builder) -> Money.fromYuan(getInstance().getConfig().getDouble("RedPacket.MinMoney")) <= builder.cents, "红包总额不能小于{MinMoney}！");
         }
 
         private String extraData = "恭喜发财";
@@ -447,6 +857,7 @@ public class RedPacket implements Comparator<RedPacket>, Comparable<RedPacket> {
         //外部创建红包方法
         public Builder(Player player) {
             this.player = player;
+            this.expireTime = System.currentTimeMillis() + getInstance().getConfig().getLong("RedPacket.ExpiredTime");
         }
 
         public String getExtraDataInfo() {
@@ -478,8 +889,11 @@ public class RedPacket implements Comparator<RedPacket>, Comparable<RedPacket> {
             return this;
         }
 
-        public Builder money(double money) {
-            this.money = money;
+        /**
+         * @param cents 红包总额（单位为分）
+         */
+        public Builder cents(long cents) {
+            this.cents = cents;
             return this;
         }
 
@@ -526,18 +940,29 @@ public class RedPacket implements Comparator<RedPacket>, Comparable<RedPacket> {
             return this;
         }
 
-        Builder timeZone(ZoneId timeZone) {
-            this.timeZone = timeZone;
+        /**
+         * @param claims 未解析的领取数据，null代表没有领取记录
+         */
+        Builder encodedClaims(EncodedClaims claims) {
+            if (claims != null) {
+                this.encodedClaims = claims;
+            }
             return this;
         }
 
-        Builder moneyMap(Map<UUID, Double> map) {
-            this.moneyMap=map;
+        /**
+         * @param givers 未解析的能领取红包的玩家（JSON）
+         */
+        Builder encodedGivers(String givers) {
+            this.encodedGivers = givers;
+            this.givers = null;
             return this;
         }
 
         public RedPacket build() {
-            return new RedPacket(uuid, player, givetype, type, amount, money, moneyMap, extraData,givers, expireTime,timeZone, expired);
+            //拼手气红包在此预先生成每份金额，领取时只需按下标读取；从数据库载入的红包按剩余的个数与余额重新生成
+            long[] shares = givetype == GiveType.LuckyAmount && !expired && amount > 0 ? split(cents, amount) : null;
+            return new RedPacket(uuid, player, givetype, type, amount, cents, encodedClaims, extraData, givers, encodedGivers, expireTime, expired, shares);
         }
 
         @Override
@@ -556,7 +981,7 @@ public class RedPacket implements Comparator<RedPacket>, Comparable<RedPacket> {
                     .append(ChatColor.GREEN + "红包类型：" + ChatColor.YELLOW + type.getName() + "\n").event(tipsHoverEvent).event(new ClickEvent(ClickEvent.Action.RUN_COMMAND, "/redpacket query type"))
                     .append(ChatColor.GREEN + "给予类型：" + ChatColor.YELLOW + givetype.getName() + "\n").event(new ClickEvent(ClickEvent.Action.RUN_COMMAND, "/redpacket query givetype"))
                     .append(ChatColor.GREEN + "领取人：" + ChatColor.YELLOW + (givers.isEmpty() ? "所有人" : givers.stream().map(Bukkit::getOfflinePlayer).map(OfflinePlayer::getName).collect(Collectors.joining(","))) + "\n").event(tipsHoverEvent).event(new ClickEvent(ClickEvent.Action.RUN_COMMAND, "/redpacket query giver"))
-                    .append(ChatColor.GREEN + "金额：" + ChatColor.YELLOW + money + "\n").event(new ClickEvent(ClickEvent.Action.RUN_COMMAND, "/redpacket query money"))
+                    .append(ChatColor.GREEN + "金额：" + ChatColor.YELLOW + Money.format(cents) + "\n").event(new ClickEvent(ClickEvent.Action.RUN_COMMAND, "/redpacket query money"))
                     .append(ChatColor.GREEN + "个数：" + ChatColor.YELLOW + amount + "\n").event(new ClickEvent(ClickEvent.Action.RUN_COMMAND, "/redpacket query amount"))
                     .append(ChatColor.GREEN + type.getExtraDataName() + "：" + ChatColor.YELLOW + extraData).event(new ClickEvent(ClickEvent.Action.RUN_COMMAND, "/redpacket query extradata"))
                     .append("   ").reset()
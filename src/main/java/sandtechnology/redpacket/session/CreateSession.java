@@ -2,9 +2,10 @@ package sandtechnology.redpacket.session;
 
 import org.bukkit.ChatColor;
 import org.bukkit.entity.Player;
+import sandtechnology.redpacket.Lang;
 import sandtechnology.redpacket.redpacket.RedPacket;
-import sandtechnology.redpacket.util.EcoAndPermissionHelper;
-import sandtechnology.redpacket.util.OperatorHelper;
+import sandtechnology.redpacket.util.EconomyGateway;
+import sandtechnology.redpacket.util.Money;
 import sandtechnology.redpacket.util.RedPacketManager;
 
 import java.util.UUID;
@@ -38,14 +39,17 @@ public class CreateSession {
     }
 
     /**
-     * 检查有效性并创建红包
+     * 检查有效性并创建红包，扣款失败时不创建
      *
-     * @return 创建的红包
+     * @return 创建的红包，扣款失败时返回null
      */
     public RedPacket create() {
         SessionManager.getSessionManager().remove(this);
         RedPacket redPacket = builder.build();
-        EcoAndPermissionHelper.getEco().withdrawPlayer(redPacket.getPlayer(), redPacket.getMoney());
+        if (!EconomyGateway.getEconomyGateway().withdraw(redPacket.getPlayer(), redPacket.getTotalCents(), "create " + redPacket.getUUID())) {
+            Lang.COMMANDS__SESSION__CREATE__WITHDRAW_FAILED.t(redPacket.getPlayer().getPlayer());
+            return null;
+        }
         RedPacketManager.getRedPacketManager().add(redPacket);
         return redPacket;
     }
@@ -66,7 +70,7 @@ public class CreateSession {
                     builder.givers(data);
                     break;
                 case WaitMoney:
-                    builder.money(OperatorHelper.toTwoPrecision(Double.parseDouble(data)));
+                    builder.cents(Money.parse(data));
                     break;
                 case WaitAmount:
                     builder.amount(Integer.parseInt(data));
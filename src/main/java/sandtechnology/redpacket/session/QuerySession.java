@@ -1,5 +1,299 @@
 package sandtechnology.redpacket.session;
 
-class QuerySession {
-    //TODO:支持红包查询（可领取红包、历史发送红包、历史领取红包....）
+import net.md_5.bungee.api.chat.ClickEvent;
+import net.md_5.bungee.api.chat.ComponentBuilder;
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+import sandtechnology.redpacket.Lang;
+import sandtechnology.redpacket.database.HistoryRecord;
+import sandtechnology.redpacket.redpacket.RedPacket;
+import sandtechnology.redpacket.util.Money;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import static sandtechnology.redpacket.RedPacketPlugin.getDatabaseManager;
+import static sandtechnology.redpacket.RedPacketPlugin.getInstance;
+import static sandtechnology.redpacket.RedPacketPlugin.warn;
+import static sandtechnology.redpacket.util.MessageHelper.sendSimpleMsg;
+import static sandtechnology.redpacket.util.RedPacketManager.getRedPacketManager;
+
+/**
+ * 红包查询会话，支持历史发送红包、历史领取红包与当前可领取红包
+ * 使用键集分页（记录上一页最后一条的位置），翻页耗时与页码无关
+ * 查询在异步线程中执行，结果在主线程中回调，因此既可用于聊天栏也可用于菜单界面
+ */
+public class QuerySession {
+
+    /**
+     * 聊天栏每页显示的数量
+     */
+    public static final int CHAT_PAGE_SIZE = 10;
+    private static final DateTimeFormatter timeFormatter = DateTimeFormatter.ofPattern("yyyy/MM/dd HH:mm");
+    private final UUID playerUUID;
+    private final Type type;
+    private final int pageSize;
+    //已浏览过的各页的起始位置，用于返回上一页
+    private final Deque<Cursor> previousPages = new ArrayDeque<>();
+    private Cursor current = Cursor.FIRST;
+    //下一页的起始位置，null代表没有下一页
+    private Cursor next;
+    private List<HistoryRecord> records = Collections.emptyList();
+    private volatile boolean loading;
+
+    QuerySession(Player player, Type type, int pageSize) {
+        this.playerUUID = player.getUniqueId();
+        this.type = type;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * 查询第一页
+     *
+     * @param callback 查询完成后在主线程中调用
+     * @return 是否开始查询，上一次查询尚未完成时返回false
+     */
+    public boolean first(Consumer<QuerySession> callback) {
+        return load(Cursor.FIRST, previousPages::clear, callback);
+    }
+
+    /**
+     * 查询下一页
+     *
+     * @param callback 查询完成后在主线程中调用
+     * @return 是否开始查询，没有下一页或上一次查询尚未完成时返回false
+     */
+    public boolean next(Consumer<QuerySession> callback) {
+        Cursor from = current;
+        return next != null && load(next, () -> previousPages.push(from), callback);
+    }
+
+    /**
+     * 查询上一页
+     *
+     * @param callback 查询完成后在主线程中调用
+     * @return 是否开始查询，没有上一页或上一次查询尚未完成时返回false
+     */
+    public boolean previous(Consumer<QuerySession> callback) {
+        return !previousPages.isEmpty() && load(previousPages.peek(), previousPages::pop, callback);
+    }
+
+    private synchronized boolean load(Cursor cursor, Runnable onLoaded, Consumer<QuerySession> callback) {
+        if (loading) {
+            return false;
+        }
+        loading = true;
+        Bukkit.getScheduler().runTaskAsynchronously(getInstance(), () -> {
+            try {
+                //多查询一条用于判断是否还有下一页
+                List<HistoryRecord> result = query(cursor, pageSize + 1);
+                boolean hasNext = result.size() > pageSize;
+                List<HistoryRecord> page = hasNext ? new ArrayList<>(result.subList(0, pageSize)) : result;
+                Bukkit.getScheduler().runTask(getInstance(), () -> {
+                    onLoaded.run();
+                    current = cursor;
+                    records = page;
+                    next = hasNext ? cursorAfter(page.get(page.size() - 1)) : null;
+                    loading = false;
+                    callback.accept(this);
+                });
+            } catch (RuntimeException ex) {
+                loading = false;
+                warn(ex);
+            }
+        });
+        return true;
+    }
+
+    private List<HistoryRecord> query(Cursor cursor, int limit) {
+        switch (type) {
+            case SENT:
+                return getDatabaseManager().getSentHistory(playerUUID, cursor.position, cursor.uuid, limit);
+            case CLAIMED:
+                return getDatabaseManager().getClaimHistory(playerUUID, cursor.position, limit);
+            default:
+                //可领取的红包都在内存中，无需查询数据库
+                //过期时间索引的倒序即为从新到旧
+                //先比较位置，判断能否领取时不会解析领取记录
+                return getRedPacketManager().getByExpiry().descendingSet().stream()
+                        .filter(redPacket -> cursor.isAfter(redPacket) && redPacket.isClaimableBy(playerUUID))
+                        .limit(limit)
+                        .map(HistoryRecord::new)
+                        .collect(Collectors.toList());
+        }
+    }
+
+    private Cursor cursorAfter(HistoryRecord record) {
+        if (type == Type.CLAIMED) {
+            return new Cursor(record.getClaimId(), null);
+        }
+        return new Cursor(record.getRedPacket().getExpireTime(), record.getRedPacket().getUUID());
+    }
+
+    //与数据库中二进制UUID的顺序一致
+    private static int compareUUID(UUID uuid1, UUID uuid2) {
+        int result = Long.compareUnsigned(uuid1.getMostSignificantBits(), uuid2.getMostSignificantBits());
+        return result != 0 ? result : Long.compareUnsigned(uuid1.getLeastSignificantBits(), uuid2.getLeastSignificantBits());
+    }
+
+    /**
+     * @param record 当前页中的一条记录
+     * @return 该记录的描述文本
+     */
+    public String describe(HistoryRecord record) {
+        RedPacket redPacket = record.getRedPacket();
+        switch (type) {
+            case SENT:
+                return Lang.QUERY__SENT_ENTRY.text(
+                        "%time%", format(redPacket.getExpireTime()),
+                        "%type%", redPacket.getType().getName(),
+                        "%current_amount%", redPacket.getCurrentAmount(),
+                        "%amount%", redPacket.getAmount(),
+                        "%current_money%", Money.format(redPacket.getCurrentCents()),
+                        "%money%", Money.format(redPacket.getTotalCents()),
+                        "%status%", redPacket.getStatus());
+            case CLAIMED:
+                return Lang.QUERY__CLAIMED_ENTRY.text(
+                        "%time%", record.getClaimTime() == 0 ? "-" : format(record.getClaimTime()),
+                        "%player_name%", redPacket.getPlayer().getName(),
+                        "%type%", redPacket.getType().getName(),
+                        "%money%", Money.format(record.getCents()));
+            default:
+                return Lang.QUERY__CLAIMABLE_ENTRY.text(
+                        "%player_name%", redPacket.getPlayer().getName(),
+                        "%type%", redPacket.getType().getName(),
+                        "%current_amount%", redPacket.getCurrentAmount(),
+                        "%current_money%", Money.format(redPacket.getCurrentCents()));
+        }
+    }
+
+    private static String format(long time) {
+        return Instant.ofEpochMilli(time).atZone(ZoneId.systemDefault()).format(timeFormatter);
+    }
+
+    /**
+     * 在聊天栏显示当前页
+     *
+     * @param player 玩家
+     */
+    public void showInChat(Player player) {
+        Lang.QUERY__HEADER.t(player, "%type%", type.getName(), "%page%", getPage());
+        if (records.isEmpty()) {
+            Lang.QUERY__EMPTY.t(player);
+        }
+        for (HistoryRecord record : records) {
+            ComponentBuilder builder = new ComponentBuilder(describe(record)).event(Lang.QUERY__ENTRY_HOVER.hover("%info%", record.getRedPacket().toString()));
+            //普通红包可直接点击领取，口令与接龙红包需在聊天栏发送
+            if (type == Type.CLAIMABLE && record.getRedPacket().getType() == RedPacket.RedPacketType.CommonRedPacket) {
+                builder.event(new ClickEvent(ClickEvent.Action.RUN_COMMAND, "/redpacket get " + record.getRedPacket().getUUID()));
+            }
+            sendSimpleMsg(player, builder.create());
+        }
+        if (hasPrevious() || hasNext()) {
+            ComponentBuilder builder = new ComponentBuilder("");
+            if (hasPrevious()) {
+                builder.append(Lang.QUERY__PREVIOUS.bungee()).event(new ClickEvent(ClickEvent.Action.RUN_COMMAND, "/redpacket history prev"));
+            }
+            builder.append("   ").reset();
+            if (hasNext()) {
+                builder.append(Lang.QUERY__NEXT.bungee()).event(new ClickEvent(ClickEvent.Action.RUN_COMMAND, "/redpacket history next"));
+            }
+            sendSimpleMsg(player, builder.create());
+        }
+    }
+
+    public UUID getPlayerUUID() {
+        return playerUUID;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * @return 当前页码，从1开始
+     */
+    public int getPage() {
+        return previousPages.size() + 1;
+    }
+
+    public List<HistoryRecord> getRecords() {
+        return records;
+    }
+
+    public boolean hasNext() {
+        return next != null;
+    }
+
+    public boolean hasPrevious() {
+        return !previousPages.isEmpty();
+    }
+
+    public boolean isLoading() {
+        return loading;
+    }
+
+    public enum Type {
+        SENT(Lang.QUERY__TYPE__SENT),
+        CLAIMED(Lang.QUERY__TYPE__CLAIMED),
+        CLAIMABLE(Lang.QUERY__TYPE__CLAIMABLE);
+
+        private final Lang name;
+
+        Type(Lang name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name.text();
+        }
+
+        /**
+         * @param name 类型名称，比如sent、claimed、claimable
+         * @return 对应的类型，无效的名称返回null
+         */
+        public static Type fromName(String name) {
+            try {
+                return valueOf(name.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException ex) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * 键集分页的位置，查询位于该位置之后（更旧）的记录
+     * 发送记录与可领取红包使用(过期时间, UUID)，领取记录使用领取记录编号
+     */
+    private static final class Cursor {
+        static final Cursor FIRST = new Cursor(Long.MAX_VALUE, null);
+        final long position;
+        final UUID uuid;
+
+        Cursor(long position, UUID uuid) {
+            this.position = position;
+            this.uuid = uuid;
+        }
+
+        boolean isAfter(RedPacket redPacket) {
+            if (redPacket.getExpireTime() != position) {
+                return redPacket.getExpireTime() < position;
+            }
+            return uuid == null || compareUUID(redPacket.getUUID(), uuid) < 0;
+        }
+    }
 }
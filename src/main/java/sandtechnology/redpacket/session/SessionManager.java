@@ -14,6 +14,7 @@ public class SessionManager {
 
     private static final SessionManager sessionManager=new SessionManager();
     private final Map<UUID,CreateSession> sessions=new ConcurrentHashMap<>();
+    private final Map<UUID,QuerySession> querySessions=new ConcurrentHashMap<>();
 
     public static SessionManager getSessionManager() {
         return sessionManager;
@@ -53,4 +54,36 @@ public class SessionManager {
     public CreateSession getSession(Player player){
         return sessions.get(player.getUniqueId());
     }
+
+    /**
+     * 创建查询会话，会替换玩家之前的查询会话
+     *
+     * @param player   玩家
+     * @param type     查询类型
+     * @param pageSize 每页数量
+     * @return 查询会话
+     */
+    public QuerySession createQuerySession(Player player, QuerySession.Type type, int pageSize){
+        QuerySession session=new QuerySession(player,type,pageSize);
+        querySessions.put(player.getUniqueId(),session);
+        return session;
+    }
+
+    public QuerySession getQuerySession(Player player){
+        return querySessions.get(player.getUniqueId());
+    }
+
+    public void removeQuerySession(Player player){
+        querySessions.remove(player.getUniqueId());
+    }
+
+    /**
+     * 移除查询会话，玩家已创建新的查询会话时不做任何事
+     *
+     * @param player  玩家
+     * @param session 要移除的查询会话
+     */
+    public void removeQuerySession(Player player, QuerySession session){
+        querySessions.remove(player.getUniqueId(), session);
+    }
 }
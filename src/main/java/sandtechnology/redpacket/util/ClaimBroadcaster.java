@@ -0,0 +1,154 @@
+package sandtechnology.redpacket.util;
+
+import org.bukkit.Bukkit;
+import org.bukkit.ChatColor;
+import sandtechnology.redpacket.redpacket.RedPacket;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import static sandtechnology.redpacket.RedPacketPlugin.getInstance;
+import static sandtechnology.redpacket.util.MessageHelper.broadcastMsg;
+
+/**
+ * 合并领取公告，同一红包在一个窗口内的领取只公告一次
+ * 窗口内只有一次领取时公告原来的领取信息，多次领取时公告人数、总额与手气最佳的玩家
+ * 窗口为0时每次领取立即公告
+ */
+public class ClaimBroadcaster {
+
+    private final Map<UUID, Window> windows = new ConcurrentHashMap<>();
+    private final long window;
+    //在指定的tick数后执行任务
+    private final BiConsumer<Runnable, Long> scheduler;
+    //发送一条公告
+    private final Consumer<String> sink;
+
+    /**
+     * @param window 合并窗口（单位为tick）
+     */
+    public ClaimBroadcaster(long window) {
+        this(window, (task, delay) -> Bukkit.getScheduler().runTaskLater(getInstance(), task, delay), message -> broadcastMsg(ChatColor.YELLOW, message));
+    }
+
+    /**
+     * @param window    合并窗口（单位为tick）
+     * @param scheduler 在指定的tick数后执行任务
+     * @param sink      发送一条公告
+     */
+    ClaimBroadcaster(long window, BiConsumer<Runnable, Long> scheduler, Consumer<String> sink) {
+        this.window = window;
+        this.scheduler = scheduler;
+        this.sink = sink;
+    }
+
+    /**
+     * 记录一次领取，可在任意线程中调用
+     *
+     * @param redPacket  红包
+     * @param playerName 领取的玩家
+     * @param cents      领取的金额（单位为分）
+     * @param suffix     附加在公告末尾的信息，如接龙红包下一个成语的音节
+     */
+    public void claimed(RedPacket redPacket, String playerName, long cents, String suffix) {
+        if (window <= 0) {
+            sink.accept(claimLine(redPacket, playerName, cents, suffix));
+            return;
+        }
+        append(redPacket, w -> {
+            w.count++;
+            w.totalCents += cents;
+            if (w.count == 1 || cents > w.bestCents) {
+                w.bestName = playerName;
+                w.bestCents = cents;
+            }
+            w.suffix = suffix;
+        });
+    }
+
+    /**
+     * 记录红包已被领完，在该窗口的领取公告之后公告
+     *
+     * @param redPacket 红包
+     * @param message   领完时的公告
+     */
+    public void finished(RedPacket redPacket, String message) {
+        if (window <= 0) {
+            sink.accept(message);
+            return;
+        }
+        append(redPacket, w -> w.finished.add(message));
+    }
+
+    private void append(RedPacket redPacket, Consumer<Window> action) {
+        while (true) {
+            boolean[] created = new boolean[1];
+            Window w = windows.computeIfAbsent(redPacket.getUUID(), uuid -> {
+                created[0] = true;
+                return new Window(redPacket);
+            });
+            if (created[0]) {
+                scheduler.accept(() -> flush(w), window);
+            }
+            synchronized (w) {
+                if (!w.closed) {
+                    action.accept(w);
+                    return;
+                }
+            }
+            //窗口正在公告，移除后创建新的窗口
+            windows.remove(redPacket.getUUID(), w);
+        }
+    }
+
+    private void flush(Window w) {
+        windows.remove(w.redPacket.getUUID(), w);
+        synchronized (w) {
+            if (w.closed) {
+                return;
+            }
+            w.closed = true;
+        }
+        if (w.count == 1) {
+            sink.accept(claimLine(w.redPacket, w.bestName, w.bestCents, w.suffix));
+        } else if (w.count > 1) {
+            sink.accept(ChatColor.GOLD.toString() + w.count + ChatColor.YELLOW + "位玩家抢了" + ChatColor.GOLD + w.redPacket.getPlayer().getName() + ChatColor.YELLOW + "的红包，共抢到" + ChatColor.GOLD + Money.format(w.totalCents) + ChatColor.YELLOW + "元，"
+                            + "手气最佳的是" + ChatColor.GOLD + w.bestName + ChatColor.YELLOW + "（" + ChatColor.GOLD + Money.format(w.bestCents) + ChatColor.YELLOW + "元）" + w.suffix);
+        }
+        w.finished.forEach(sink);
+    }
+
+    private static String claimLine(RedPacket redPacket, String playerName, long cents, String suffix) {
+        return "玩家" + ChatColor.GOLD + playerName +
+                ChatColor.YELLOW + "抢了" + ChatColor.GOLD + redPacket.getPlayer().getName() + ChatColor.YELLOW + "的红包" + "，抢到了" + ChatColor.GOLD + Money.format(cents) + ChatColor.YELLOW + "元" + suffix;
+    }
+
+    /**
+     * 立即公告所有窗口，在领取线程池关闭后调用
+     */
+    public void shutdown() {
+        new ArrayList<>(windows.values()).forEach(this::flush);
+    }
+
+    /**
+     * 一个红包在当前窗口内的领取，访问时需持有此对象的锁
+     */
+    private static final class Window {
+        private final RedPacket redPacket;
+        private final ArrayList<String> finished = new ArrayList<>(1);
+        private boolean closed;
+        private int count;
+        private long totalCents;
+        private String bestName;
+        private long bestCents;
+        private String suffix = "";
+
+        Window(RedPacket redPacket) {
+            this.redPacket = redPacket;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package sandtechnology.redpacket.util;
+
+import org.bukkit.entity.Player;
+import sandtechnology.redpacket.Lang;
+import sandtechnology.redpacket.redpacket.RedPacket;
+
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+import static sandtechnology.redpacket.RedPacketPlugin.getDatabaseManager;
+import static sandtechnology.redpacket.RedPacketPlugin.log;
+import static sandtechnology.redpacket.RedPacketPlugin.warn;
+
+/**
+ * 领取红包的线程池，所有领取都在固定数量的线程中执行
+ * 队列已满时拒绝领取并提示玩家；同一玩家对同一红包的领取还在排队时，新的领取会被直接丢弃
+ */
+public class ClaimExecutor {
+
+    private final ThreadPoolExecutor executor;
+    //排队中的(玩家, 红包)
+    private final Set<Key> pending = ConcurrentHashMap.newKeySet();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+
+    /**
+     * @param workers   线程数量
+     * @param queueSize 最多排队的领取数量
+     */
+    public ClaimExecutor(int workers, int queueSize) {
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueSize), runnable -> {
+            Thread thread = new Thread(runnable, "RedPacket-Claim-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * 提交一次领取，可在任意线程中调用，不会阻塞
+     *
+     * @param player    领取的玩家
+     * @param redPacket 红包
+     * @param extra     用于判断的额外数据（口令、成语）
+     */
+    public void submit(Player player, RedPacket redPacket, String extra) {
+        Key key = new Key(player.getUniqueId(), redPacket.getUUID());
+        if (!pending.add(key)) {
+            duplicates.incrementAndGet();
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                //出队后再次提交视为新的领取
+                pending.remove(key);
+                try {
+                    redPacket.giveIfValid(player, extra);
+                    getDatabaseManager().awaitDurable();
+                } catch (RuntimeException ex) {
+                    warn(ex);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            pending.remove(key);
+            rejected.incrementAndGet();
+            Lang.REDPACKET__BUSY.t(player);
+        }
+    }
+
+    /**
+     * @return 排队中的领取数量
+     */
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * @return 因队列已满被拒绝的领取次数
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * @return 因重复排队被丢弃的领取次数
+     */
+    public long getDuplicateCount() {
+        return duplicates.get();
+    }
+
+    /**
+     * 停止接受新的领取并等待排队中的领取完成，在关闭数据库前调用
+     */
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                log(Level.WARNING, "等待领取完成超时，剩余%d个领取未处理", executor.shutdownNow().size());
+            }
+        } catch (InterruptedException ex) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class Key {
+        private final UUID playerUUID;
+        private final UUID packetUUID;
+
+        Key(UUID playerUUID, UUID packetUUID) {
+            this.playerUUID = playerUUID;
+            this.packetUUID = packetUUID;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Key && ((Key) obj).playerUUID.equals(playerUUID) && ((Key) obj).packetUUID.equals(packetUUID);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * playerUUID.hashCode() + packetUUID.hashCode();
+        }
+    }
+}
@@ -157,23 +157,51 @@ public class CompatibilityHelper {
 
     // -------------------------- JSON消息 --------------------------
     public static void sendJSONMessage(Player player, BaseComponent... components) {
-        if (Bukkit.getVersion().contains("1.21")) {
-            player.spigot().sendMessage(components);
-            return;
+        PreparedMessage message = prepare(components);
+        if (Bukkit.isPrimaryThread()) {
+            sendPrepared(player, message);
+        } else {
+            Bukkit.getScheduler().runTask(getInstance(), () -> sendPrepared(player, message));
         }
+    }
 
-        Bukkit.getScheduler().runTaskAsynchronously(getInstance(), () -> {
+    /**
+     * 序列化信息，可在任意线程中调用
+     * 旧版本服务端同时转换为NMS组件，发送时无需再次转换，转换失败时改用Spigot API发送
+     *
+     * @param components 信息内容，之后对其的修改不会影响返回的信息
+     * @return 可发送给多个玩家的信息
+     */
+    public static PreparedMessage prepare(BaseComponent... components) {
+        BaseComponent[] copy = Arrays.stream(components).map(BaseComponent::duplicate).toArray(BaseComponent[]::new);
+        String json = ComponentSerializer.toString(copy);
+        Object handle = null;
+        if (!Bukkit.getVersion().contains("1.21")) {
             try {
-                Object handle = invoke(getHandle, player);
-                String json = ComponentSerializer.toString(components);
-                Object component = invoke(toComponent, null, json);
-
-                Bukkit.getScheduler().runTask(getInstance(), () -> {
-                    invoke(sendMessage, handle, component);
-                });
+                handle = invoke(toComponent, null, json);
             } catch (Exception e) {
-                RedPacketPlugin.log(Level.SEVERE, "发送JSON消息时发生错误: " + e.getMessage());
+                //转换失败时改用Spigot API发送
+                RedPacketPlugin.log(Level.SEVERE, "转换JSON消息时发生错误: " + e.getMessage());
             }
-        });
+        }
+        return new PreparedMessage(copy, json, handle);
+    }
+
+    /**
+     * 发送已序列化的信息，需在主线程中调用
+     *
+     * @param player  接收者
+     * @param message 信息
+     */
+    public static void sendPrepared(Player player, PreparedMessage message) {
+        if (message.getHandle() == null) {
+            player.spigot().sendMessage(message.getComponents());
+            return;
+        }
+        try {
+            invoke(sendMessage, invoke(getHandle, player), message.getHandle());
+        } catch (Exception e) {
+            RedPacketPlugin.log(Level.SEVERE, "发送JSON消息时发生错误: " + e.getMessage());
+        }
     }
 }
@@ -0,0 +1,463 @@
+package sandtechnology.redpacket.util;
+
+import net.milkbowl.vault.economy.EconomyResponse;
+import org.bukkit.Bukkit;
+import org.bukkit.OfflinePlayer;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+import static sandtechnology.redpacket.RedPacketPlugin.getInstance;
+import static sandtechnology.redpacket.RedPacketPlugin.log;
+import static sandtechnology.redpacket.RedPacketPlugin.warn;
+
+/**
+ * 经济操作网关，所有存款与扣款都在同一个线程（主线程或插件的独立线程）中执行
+ * 存款进入队列后立即返回，按批次执行，领取红包不会被缓慢的经济插件阻塞
+ * 每个操作都会记录到本地账本（economy-ledger.log），执行失败的存款会延迟重试，重启后继续重试
+ * 账本的每一行为：编号 时间 状态 类型 玩家UUID 金额（分） 原因，以制表符分隔
+ */
+public class EconomyGateway {
+
+    private static final EconomyGateway economyGateway = new EconomyGateway();
+    private static final String LEDGER_NAME = "economy-ledger.log";
+    private static final DateTimeFormatter ROTATE_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+    //第一次重试的延迟（单位为ms），之后每次翻倍
+    private static final long RETRY_DELAY = 1000;
+
+    private final Queue<Transaction> queue = new ConcurrentLinkedQueue<>();
+    //等待重试的操作，只在执行线程中访问
+    private final List<Transaction> retries = new ArrayList<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger retrying = new AtomicInteger();
+    private final AtomicLong nextId = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private volatile BufferedWriter ledger;
+    private BukkitTask task;
+    private ScheduledExecutorService executor;
+    private volatile Thread economyThread;
+    private volatile boolean async;
+    private int batchSize;
+    private int maxAttempts;
+
+    private EconomyGateway() {
+    }
+
+    public static EconomyGateway getEconomyGateway() {
+        return economyGateway;
+    }
+
+    /**
+     * 打开账本，将上次未完成的存款重新加入队列，并开始定时执行
+     * 需在经济插件载入后、红包载入前调用
+     */
+    public void setup() {
+        async = "async".equals(getInstance().getConfig().getString("Economy.Thread", "main").toLowerCase(Locale.ROOT));
+        long interval = Math.max(1, getInstance().getConfig().getLong("Economy.FlushInterval", 1));
+        batchSize = Math.max(1, getInstance().getConfig().getInt("Economy.BatchSize", 100));
+        maxAttempts = Math.max(1, getInstance().getConfig().getInt("Economy.MaxAttempts", 3));
+        openLedger(new File(getInstance().getDataFolder(), LEDGER_NAME));
+        if (async) {
+            executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "RedPacket-Economy");
+                thread.setDaemon(true);
+                economyThread = thread;
+                return thread;
+            });
+            //1 tick = 50ms
+            executor.scheduleWithFixedDelay(this::flush, interval * 50, interval * 50, TimeUnit.MILLISECONDS);
+        } else {
+            task = Bukkit.getScheduler().runTaskTimer(getInstance(), this::flush, interval, interval);
+        }
+    }
+
+    /**
+     * @param file 账本文件
+     * @return 旧账本的文件名，同一秒内多次打开时追加序号
+     */
+    private static File rotatedLedger(File file) {
+        String base = LEDGER_NAME.substring(0, LEDGER_NAME.lastIndexOf('.')) + "-" + LocalDateTime.now().format(ROTATE_FORMAT);
+        File rotated = new File(file.getParentFile(), base + ".log");
+        for (int i = 1; rotated.exists(); i++) {
+            rotated = new File(file.getParentFile(), base + "-" + i + ".log");
+        }
+        return rotated;
+    }
+
+    /**
+     * 读取上次的账本，只保留未完成的操作
+     * 旧账本按打开时间重命名为economy-ledger-yyyyMMdd-HHmmss.log保留，用于核对，不会覆盖已有的旧账本
+     *
+     * @param file 账本文件
+     */
+    private void openLedger(File file) {
+        Map<Long, Transaction> transactions = new LinkedHashMap<>();
+        Map<Long, Status> statuses = new LinkedHashMap<>();
+        long maxId = 0;
+        try {
+            if (file.exists()) {
+                try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        String[] parts = line.split("\t", 7);
+                        try {
+                            long id = Long.parseLong(parts[0]);
+                            maxId = Math.max(maxId, id);
+                            transactions.putIfAbsent(id, new Transaction(id, Type.valueOf(parts[3]), UUID.fromString(parts[4]), Long.parseLong(parts[5]), parts[6]));
+                            statuses.put(id, Status.valueOf(parts[2]));
+                        } catch (RuntimeException ex) {
+                            //崩溃时最后一行可能不完整
+                            log(Level.WARNING, "忽略账本中无法解析的记录：%s", line);
+                        }
+                    }
+                }
+                Files.move(file.toPath(), rotatedLedger(file).toPath(), StandardCopyOption.ATOMIC_MOVE);
+            }
+            nextId.set(maxId);
+            ledger = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException ex) {
+            throw new RuntimeException("经济操作账本打开失败！", ex);
+        }
+        int requeued = 0;
+        int unknown = 0;
+        for (Map.Entry<Long, Status> entry : statuses.entrySet()) {
+            Transaction transaction = transactions.get(entry.getKey());
+            switch (entry.getValue()) {
+                case QUEUED:
+                case RETRY:
+                case FAILED:
+                    //确定未到账，可以安全地重试
+                    record(transaction, Status.QUEUED);
+                    queue.add(transaction);
+                    queued.incrementAndGet();
+                    requeued++;
+                    break;
+                case SENDING:
+                case UNKNOWN:
+                    //执行时服务器崩溃，无法确定是否到账，需要人工核对
+                    record(transaction, Status.UNKNOWN);
+                    log(Level.WARNING, "无法确认经济操作是否完成，请人工核对：%s %s %s元（%s），核对后可从账本中删除该行",
+                            transaction.type, transaction.playerUUID, Money.format(transaction.cents), transaction.reason);
+                    unknown++;
+                    break;
+                default:
+                    break;
+            }
+        }
+        flushLedger();
+        if (requeued > 0 || unknown > 0) {
+            log(Level.INFO, "经济操作账本：%d个未完成的存款已重新加入队列，%d个需要人工核对", requeued, unknown);
+        }
+    }
+
+    /**
+     * 存款，可在任意线程中调用，记录到账本后立即返回
+     *
+     * @param player 玩家
+     * @param cents  金额（单位为分）
+     * @param reason 原因，记录在账本中
+     */
+    public void deposit(OfflinePlayer player, long cents, String reason) {
+        checkRunning();
+        Transaction transaction = new Transaction(nextId.incrementAndGet(), Type.DEPOSIT, player.getUniqueId(), cents, reason);
+        synchronized (this) {
+            record(transaction, Status.QUEUED);
+            flushLedger();
+        }
+        queue.add(transaction);
+        queued.incrementAndGet();
+    }
+
+    /**
+     * 扣款，在执行线程中立即执行并等待结果，扣款失败时不会重试
+     * 不能在执行线程以外持有锁时调用，否则可能与执行线程互相等待
+     *
+     * @param player 玩家
+     * @param cents  金额（单位为分）
+     * @param reason 原因，记录在账本中
+     * @return 是否扣款成功
+     */
+    public boolean withdraw(OfflinePlayer player, long cents, String reason) {
+        checkRunning();
+        Transaction transaction = new Transaction(nextId.incrementAndGet(), Type.WITHDRAW, player.getUniqueId(), cents, reason);
+        Callable<Boolean> call = () -> {
+            synchronized (this) {
+                record(transaction, Status.SENDING);
+                flushLedger();
+            }
+            boolean success = apply(transaction);
+            synchronized (this) {
+                record(transaction, success ? Status.DONE : Status.ABORTED);
+                flushLedger();
+            }
+            return success;
+        };
+        try {
+            if (isEconomyThread()) {
+                return call.call();
+            }
+            Future<Boolean> future = async ? executor.submit(call) : Bukkit.getScheduler().callSyncMethod(getInstance(), call);
+            return future.get();
+        } catch (CancellationException ex) {
+            //插件关闭时未执行的任务会被取消
+            return false;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("等待扣款结果时被中断！", ex);
+        } catch (ExecutionException ex) {
+            throw new RuntimeException("扣款失败！", ex.getCause());
+        } catch (Exception ex) {
+            throw new RuntimeException("扣款失败！", ex);
+        }
+    }
+
+    private void checkRunning() {
+        if (ledger == null) {
+            throw new IllegalStateException("经济操作网关未启动！");
+        }
+    }
+
+    private boolean isEconomyThread() {
+        return async ? Thread.currentThread() == economyThread : Bukkit.isPrimaryThread();
+    }
+
+    /**
+     * 执行一批到期的重试与排队的存款，只在执行线程中调用
+     */
+    private void flush() {
+        try {
+            long now = System.currentTimeMillis();
+            List<Transaction> batch = new ArrayList<>();
+            Iterator<Transaction> iterator = retries.iterator();
+            while (iterator.hasNext() && batch.size() < batchSize) {
+                Transaction transaction = iterator.next();
+                if (transaction.nextAttempt <= now) {
+                    iterator.remove();
+                    retrying.decrementAndGet();
+                    batch.add(transaction);
+                }
+            }
+            Transaction polled;
+            while (batch.size() < batchSize && (polled = queue.poll()) != null) {
+                queued.decrementAndGet();
+                batch.add(polled);
+            }
+            if (batch.isEmpty()) {
+                return;
+            }
+            synchronized (this) {
+                batch.forEach(transaction -> record(transaction, Status.SENDING));
+                flushLedger();
+            }
+            List<Status> results = new ArrayList<>(batch.size());
+            for (Transaction transaction : batch) {
+                if (apply(transaction)) {
+                    completed.incrementAndGet();
+                    results.add(Status.DONE);
+                } else if (++transaction.attempts >= maxAttempts) {
+                    failed.incrementAndGet();
+                    results.add(Status.FAILED);
+                    log(Level.WARNING, "向%s存入%s元（%s）失败%d次，将在下次启动时重试",
+                            transaction.playerUUID, Money.format(transaction.cents), transaction.reason, transaction.attempts);
+                } else {
+                    transaction.nextAttempt = System.currentTimeMillis() + (RETRY_DELAY << (transaction.attempts - 1));
+                    retries.add(transaction);
+                    retrying.incrementAndGet();
+                    results.add(Status.RETRY);
+                }
+            }
+            synchronized (this) {
+                for (int i = 0; i < batch.size(); i++) {
+                    record(batch.get(i), results.get(i));
+                }
+                flushLedger();
+            }
+        } catch (RuntimeException ex) {
+            warn(ex);
+        }
+    }
+
+    /**
+     * 调用经济插件执行操作
+     *
+     * @return 是否成功
+     */
+    private boolean apply(Transaction transaction) {
+        try {
+            OfflinePlayer player = Bukkit.getOfflinePlayer(transaction.playerUUID);
+            double yuan = Money.toYuan(transaction.cents);
+            EconomyResponse response = transaction.type == Type.DEPOSIT
+                    ? EcoAndPermissionHelper.getEco().depositPlayer(player, yuan)
+                    : EcoAndPermissionHelper.getEco().withdrawPlayer(player, yuan);
+            if (response != null && response.transactionSuccess()) {
+                return true;
+            }
+            log(Level.WARNING, "经济插件拒绝了操作：%s %s %s元（%s）：%s", transaction.type, transaction.playerUUID,
+                    Money.format(transaction.cents), transaction.reason, response == null ? "无返回结果" : response.errorMessage);
+        } catch (RuntimeException ex) {
+            warn(ex);
+        }
+        return false;
+    }
+
+    /**
+     * 写入账本，需要连续写入多条时在外部持有此对象的锁
+     */
+    private synchronized void record(Transaction transaction, Status status) {
+        if (ledger == null) {
+            log(Level.WARNING, "经济操作网关已关闭，未记录：%s %s %s %s元（%s）", status, transaction.type, transaction.playerUUID, Money.format(transaction.cents), transaction.reason);
+            return;
+        }
+        try {
+            ledger.write(transaction.id + "\t" + System.currentTimeMillis() + "\t" + status + "\t" + transaction.type + "\t"
+                    + transaction.playerUUID + "\t" + transaction.cents + "\t" + transaction.reason);
+            ledger.newLine();
+        } catch (IOException ex) {
+            //账本写入失败不影响经济操作本身
+            warn(ex);
+        }
+    }
+
+    private synchronized void flushLedger() {
+        if (ledger == null) {
+            return;
+        }
+        try {
+            ledger.flush();
+        } catch (IOException ex) {
+            warn(ex);
+        }
+    }
+
+    /**
+     * @return 排队中的存款数量
+     */
+    public int getQueueDepth() {
+        return queued.get();
+    }
+
+    /**
+     * @return 等待重试的存款数量
+     */
+    public int getRetryingCount() {
+        return retrying.get();
+    }
+
+    /**
+     * @return 已完成的存款数量
+     */
+    public long getCompletedCount() {
+        return completed.get();
+    }
+
+    /**
+     * @return 多次失败后留待下次启动重试的存款数量
+     */
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    /**
+     * 停止定时执行，在当前线程中执行完排队的存款并关闭账本
+     * 需在领取线程池关闭之后、插件关闭之前调用，等待重试的存款留在账本中
+     */
+    public void shutdown() {
+        if (ledger == null) {
+            return;
+        }
+        if (task != null) {
+            task.cancel();
+        }
+        if (executor != null) {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        while (!queue.isEmpty()) {
+            flush();
+        }
+        log(Level.INFO, "经济操作：完成%d个，%d个等待重试，%d个失败", completed.get(), retrying.get(), failed.get());
+        synchronized (this) {
+            try {
+                ledger.close();
+            } catch (IOException ex) {
+                warn(ex);
+            }
+            ledger = null;
+        }
+    }
+
+    private enum Type {
+        DEPOSIT, WITHDRAW
+    }
+
+    /**
+     * 账本中操作的状态，以最后一条记录为准
+     */
+    private enum Status {
+        //已排队，尚未执行
+        QUEUED,
+        //正在调用经济插件
+        SENDING,
+        //已完成
+        DONE,
+        //失败，等待重试
+        RETRY,
+        //多次失败，下次启动时重试
+        FAILED,
+        //扣款失败，不会重试
+        ABORTED,
+        //执行时服务器崩溃，需要人工核对
+        UNKNOWN
+    }
+
+    private static final class Transaction {
+        private final long id;
+        private final Type type;
+        private final UUID playerUUID;
+        private final long cents;
+        private final String reason;
+        private int attempts;
+        private long nextAttempt;
+
+        Transaction(long id, Type type, UUID playerUUID, long cents, String reason) {
+            this.id = id;
+            this.type = type;
+            this.playerUUID = playerUUID;
+            this.cents = cents;
+            this.reason = reason;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package sandtechnology.redpacket.util;
+
+import sandtechnology.redpacket.redpacket.RedPacket;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static sandtechnology.redpacket.RedPacketPlugin.warn;
+
+/**
+ * 红包过期调度器，在红包过期时立即退款
+ * 使用单线程的ScheduledThreadPoolExecutor，任务按过期时间保存在堆中，添加与取消均为O(log n)
+ */
+public class ExpiryScheduler {
+
+    private final ScheduledThreadPoolExecutor executor;
+    private final Map<UUID, Expiry> expiries = new ConcurrentHashMap<>();
+
+    public ExpiryScheduler() {
+        executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "RedPacket-Expiry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        //取消的任务立即从堆中移除，避免已领完的红包堆积到过期时间
+        executor.setRemoveOnCancelPolicy(true);
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    }
+
+    /**
+     * 在红包过期时退款，已过期的红包会立即退款，重复调度时只保留最后一次
+     *
+     * @param redPacket 红包
+     */
+    public void schedule(RedPacket redPacket) {
+        Expiry expiry = new Expiry(redPacket);
+        Expiry old = expiries.put(redPacket.getUUID(), expiry);
+        if (old != null) {
+            old.cancel();
+        }
+        //退款要求当前时间晚于过期时间
+        long delay = Math.max(0, redPacket.getExpireTime() + 1 - System.currentTimeMillis());
+        expiry.future = executor.schedule(expiry, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 取消红包的退款任务，用于红包被领完或被移除时
+     * 与{@link #schedule(RedPacket)}同时调用时任务可能仍会执行，此时退款会因红包已领完而不做任何事
+     *
+     * @param redPacket 红包
+     */
+    public void cancel(RedPacket redPacket) {
+        Expiry expiry = expiries.remove(redPacket.getUUID());
+        if (expiry != null) {
+            expiry.cancel();
+        }
+    }
+
+    /**
+     * @return 等待过期的红包数量
+     */
+    public int size() {
+        return expiries.size();
+    }
+
+    /**
+     * 停止调度器，未执行的退款任务会被丢弃，下次启动载入红包时重新调度
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+        expiries.clear();
+    }
+
+    private final class Expiry implements Runnable {
+        private final RedPacket redPacket;
+        private volatile ScheduledFuture<?> future;
+
+        Expiry(RedPacket redPacket) {
+            this.redPacket = redPacket;
+        }
+
+        @Override
+        public void run() {
+            try {
+                redPacket.refundIfExpired();
+            } catch (RuntimeException ex) {
+                warn(ex);
+            } finally {
+                expiries.remove(redPacket.getUUID(), this);
+            }
+        }
+
+        void cancel() {
+            ScheduledFuture<?> scheduled = future;
+            if (scheduled != null) {
+                scheduled.cancel(false);
+            }
+        }
+    }
+}
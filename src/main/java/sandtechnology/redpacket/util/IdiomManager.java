@@ -104,6 +104,24 @@ public class IdiomManager {
         }
         return null;
     }
+    /**
+     * @param former 上一个成语
+     * @return 下一个成语需要的首个音节，不是成语时返回null
+     */
+    public static String getRequiredSyllable(String former) {
+        POJOIdiom idiom = idiomMap.get(former);
+        return idiom == null ? null : getLastPinyin(idiom.pinyin);
+    }
+
+    /**
+     * @param idiom 成语
+     * @return 成语的首个音节，不是成语时返回null
+     */
+    public static String getFirstSyllable(String idiom) {
+        POJOIdiom pojo = idiomMap.get(idiom);
+        return pojo == null ? null : getFirstPinyin(pojo.pinyin);
+    }
+
     public static String getIdiomPinyin(String idiom){
         return idiomMap.containsKey(idiom)? getLastPinyin(idiomMap.get(idiom).pinyin):"无";
     }
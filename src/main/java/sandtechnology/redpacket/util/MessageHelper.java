@@ -4,6 +4,7 @@ import com.google.gson.reflect.TypeToken;
 import net.md_5.bungee.api.chat.BaseComponent;
 import net.md_5.bungee.api.chat.TextComponent;
 import net.md_5.bungee.chat.ComponentSerializer;
+import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
 import org.bukkit.OfflinePlayer;
 import org.bukkit.command.CommandSender;
@@ -101,14 +102,25 @@ public class MessageHelper {
     }
 
     /**
-     * 公告JSON信息
+     * 公告JSON信息，只序列化一次，并在同一个主线程任务中发送给所有在线玩家
      * @param msg 内容
      */
     public static void broadcastMsg(BaseComponent...msg) {
         List<BaseComponent> components = new ArrayList<>(Arrays.asList(msg));
         components.add(0, new TextComponent(ChatColor.GREEN + "[红包]"));
-        getServer().getOnlinePlayers().forEach(player -> CompatibilityHelper.sendJSONMessage(player, components.toArray(baseComponentType)));
+        broadcastMsg(CompatibilityHelper.prepare(components.toArray(baseComponentType)));
+    }
 
+    /**
+     * 公告已序列化的JSON信息，可在任意线程中调用
+     * @param msg 内容
+     */
+    public static void broadcastMsg(PreparedMessage msg) {
+        if (Bukkit.isPrimaryThread()) {
+            getServer().getOnlinePlayers().forEach(player -> CompatibilityHelper.sendPrepared(player, msg));
+        } else {
+            Bukkit.getScheduler().runTask(getInstance(), () -> broadcastMsg(msg));
+        }
     }
 
     /**
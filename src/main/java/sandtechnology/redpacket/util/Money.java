@@ -0,0 +1,70 @@
+package sandtechnology.redpacket.util;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * 金额工具类，插件内部的金额一律以long类型的分存储与计算
+ * 只在与经济插件交互时转换为以元为单位的double，只在显示时转换为字符串
+ */
+public final class Money {
+
+    private Money() {
+    }
+
+    /**
+     * 将玩家输入的金额转换为分，超出两位的小数会被舍去
+     *
+     * @param text 以元为单位的金额
+     * @return 金额（单位为分）
+     * @throws NumberFormatException 格式错误或超出范围
+     */
+    public static long parse(String text) {
+        try {
+            return new BigDecimal(text.trim()).setScale(2, RoundingMode.DOWN).unscaledValue().longValueExact();
+        } catch (ArithmeticException e) {
+            throw new NumberFormatException(text);
+        }
+    }
+
+    /**
+     * 将经济插件或配置中的金额转换为分，四舍五入到分
+     *
+     * @param yuan 以元为单位的金额
+     * @return 金额（单位为分）
+     */
+    public static long fromYuan(double yuan) {
+        return Math.round(yuan * 100);
+    }
+
+    /**
+     * 将金额转换为经济插件使用的元
+     *
+     * @param cents 金额（单位为分）
+     * @return 以元为单位的金额
+     */
+    public static double toYuan(long cents) {
+        return cents / 100.0;
+    }
+
+    /**
+     * 将金额格式化为两位小数的字符串，如1234格式化为12.34
+     *
+     * @param cents 金额（单位为分）
+     * @return 以元为单位的字符串
+     */
+    public static String format(long cents) {
+        StringBuilder builder = new StringBuilder(24);
+        if (cents < 0) {
+            builder.append('-');
+        }
+        //Long.MIN_VALUE取反后仍为负数，使用无符号运算
+        long abs = Math.abs(cents);
+        long fraction = Long.remainderUnsigned(abs, 100);
+        builder.append(Long.toUnsignedString(Long.divideUnsigned(abs, 100))).append('.');
+        if (fraction < 10) {
+            builder.append('0');
+        }
+        return builder.append(fraction).toString();
+    }
+}
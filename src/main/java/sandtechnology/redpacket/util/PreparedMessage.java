@@ -0,0 +1,36 @@
+package sandtechnology.redpacket.util;
+
+import net.md_5.bungee.api.chat.BaseComponent;
+
+/**
+ * 已序列化的JSON信息，由{@link CompatibilityHelper#prepare(BaseComponent...)}创建
+ * 创建后不可修改，可以发送给任意多个玩家，序列化只在创建时进行一次
+ */
+public final class PreparedMessage {
+
+    private final BaseComponent[] components;
+    private final String json;
+    //旧版本服务端的IChatBaseComponent，1.21及以上为null
+    private final Object handle;
+
+    PreparedMessage(BaseComponent[] components, String json, Object handle) {
+        this.components = components;
+        this.json = json;
+        this.handle = handle;
+    }
+
+    BaseComponent[] getComponents() {
+        return components;
+    }
+
+    Object getHandle() {
+        return handle;
+    }
+
+    /**
+     * @return 序列化后的JSON
+     */
+    public String getJson() {
+        return json;
+    }
+}
@@ -1,43 +1,328 @@
 package sandtechnology.redpacket.util;
 
 import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
 import sandtechnology.redpacket.redpacket.RedPacket;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.logging.Level;
 
 import static sandtechnology.redpacket.RedPacketPlugin.getDatabaseManager;
 import static sandtechnology.redpacket.RedPacketPlugin.getInstance;
+import static sandtechnology.redpacket.RedPacketPlugin.log;
+import static sandtechnology.redpacket.RedPacketPlugin.warn;
 
 /**
  * 红包管理
+ * 以UUID索引所有可领取的红包，并按红包类型、发送者与过期时间建立二级索引，添加与移除不会复制整个集合
  */
 public class RedPacketManager {
 
     private static final RedPacketManager redPacketManager = new RedPacketManager();
-    private final List<RedPacket> redPackets = new CopyOnWriteArrayList<>();
+    //按过期时间从旧到新排序，过期时间相同时按UUID（无符号）排序，与记录查询的顺序一致
+    private static final Comparator<RedPacket> byExpireTime = Comparator.comparingLong(RedPacket::getExpireTime)
+            .thenComparing(RedPacket::getUUID, (uuid1, uuid2) -> {
+                int result = Long.compareUnsigned(uuid1.getMostSignificantBits(), uuid2.getMostSignificantBits());
+                return result != 0 ? result : Long.compareUnsigned(uuid1.getLeastSignificantBits(), uuid2.getLeastSignificantBits());
+            });
+    private final Map<UUID, RedPacket> redPackets = new ConcurrentHashMap<>();
+    private final Map<RedPacket.RedPacketType, Set<RedPacket>> byType = new EnumMap<>(RedPacket.RedPacketType.class);
+    private final Map<UUID, Set<RedPacket>> bySender = new ConcurrentHashMap<>();
+    private final NavigableSet<RedPacket> byExpiry = new ConcurrentSkipListSet<>(byExpireTime);
+    //口令 -> 口令红包
+    private final Map<String, Set<RedPacket>> byPassword = new ConcurrentHashMap<>();
+    //下一个成语需要的首个音节 -> 接龙红包
+    private final Map<String, Set<RedPacket>> bySyllable = new ConcurrentHashMap<>();
+    //接龙红包当前所在的音节，修改bySyllable时需持有此对象的锁
+    private final Map<UUID, String> syllables = new HashMap<>();
+    private final ExpiryScheduler expiryScheduler = new ExpiryScheduler();
+    private ClaimExecutor claimExecutor;
+    private ClaimBroadcaster claimBroadcaster;
+    //是否退还过期红包，只在启动时读取一次
+    private volatile boolean refundExpired;
+    private volatile boolean loading;
+
+    private RedPacketManager() {
+        //类型索引在构造时创建完毕，之后只读，无需并发的EnumMap
+        for (RedPacket.RedPacketType type : RedPacket.RedPacketType.values()) {
+            byType.put(type, ConcurrentHashMap.newKeySet());
+        }
+    }
 
     public static RedPacketManager getRedPacketManager() {
         return redPacketManager;
     }
 
+    /**
+     * 在后台载入可被领取的红包，每解析完一批就立即加入，无需等待全部载入
+     */
     public void setup() {
-        redPackets.addAll(getDatabaseManager().getValid());
-        redPackets.forEach(RedPacket::refundIfExpired);
-        Bukkit.getScheduler().runTaskTimerAsynchronously(getInstance(),()->redPackets.forEach(RedPacket::refundIfExpired),200,20000);
+        refundExpired = getInstance().getConfig().getBoolean("RedPacket.Expired");
+        claimExecutor = new ClaimExecutor(Math.max(1, getInstance().getConfig().getInt("RedPacket.Claim.Workers", 2)),
+                Math.max(1, getInstance().getConfig().getInt("RedPacket.Claim.QueueSize", 1000)));
+        claimBroadcaster = new ClaimBroadcaster(Math.max(0, getInstance().getConfig().getLong("RedPacket.Claim.BroadcastWindow", 10)));
+        loading = true;
+        Bukkit.getScheduler().runTaskAsynchronously(getInstance(), () -> {
+            long start = System.currentTimeMillis();
+            try {
+                getDatabaseManager().loadValid(this::publish);
+            } catch (RuntimeException ex) {
+                warn(ex);
+            } finally {
+                loading = false;
+            }
+            log(Level.INFO, "红包载入完成，共%d个，耗时%dms", redPackets.size(), System.currentTimeMillis() - start);
+        });
+    }
+
+    private void publish(List<RedPacket> batch) {
+        for (RedPacket redPacket : batch) {
+            if (index(redPacket)) {
+                scheduleExpiry(redPacket);
+            }
+        }
+    }
+
+    /**
+     * 将红包加入所有索引，红包已存在时不做任何事
+     *
+     * @return 红包是否被加入索引，同一UUID的红包已存在时返回false
+     */
+    private boolean index(RedPacket redPacket) {
+        if (redPackets.putIfAbsent(redPacket.getUUID(), redPacket) == null) {
+            byType.get(redPacket.getType()).add(redPacket);
+            bySender.computeIfAbsent(redPacket.getPlayer().getUniqueId(), uuid -> ConcurrentHashMap.newKeySet()).add(redPacket);
+            byExpiry.add(redPacket);
+            if (redPacket.getType() == RedPacket.RedPacketType.PasswordRedPacket) {
+                addTo(byPassword, redPacket.getExtraData(), redPacket);
+            } else if (redPacket.getType() == RedPacket.RedPacketType.JieLongRedPacket) {
+                updateSyllable(redPacket);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 接龙红包的成语被接上后调用，按新成语的尾音更新索引
+     * 在锁内根据红包的当前成语更新，多次接龙同时完成时索引最终与最后一个成语一致
+     *
+     * @param redPacket 接龙红包
+     */
+    public void updateSyllable(RedPacket redPacket) {
+        synchronized (syllables) {
+            //红包已被移除时不再加入索引
+            if (redPackets.get(redPacket.getUUID()) != redPacket) {
+                return;
+            }
+            String syllable = IdiomManager.getRequiredSyllable(redPacket.getExtraData());
+            String old = syllable == null ? syllables.remove(redPacket.getUUID()) : syllables.put(redPacket.getUUID(), syllable);
+            if (old != null && !old.equals(syllable)) {
+                removeFrom(bySyllable, old, redPacket);
+            }
+            if (syllable != null) {
+                addTo(bySyllable, syllable, redPacket);
+            }
+        }
+    }
+
+    private static void addTo(Map<String, Set<RedPacket>> index, String key, RedPacket redPacket) {
+        index.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet()).add(redPacket);
+    }
+
+    private static void removeFrom(Map<String, Set<RedPacket>> index, String key, RedPacket redPacket) {
+        index.computeIfPresent(key, (k, packets) -> {
+            packets.remove(redPacket);
+            return packets.isEmpty() ? null : packets;
+        });
+    }
+
+    /**
+     * 在红包过期时退款，已过期的红包会立即退款
+     */
+    private void scheduleExpiry(RedPacket redPacket) {
+        if (refundExpired) {
+            expiryScheduler.schedule(redPacket);
+        }
+    }
+
+    /**
+     * 将领取交给领取线程池处理，可在任意线程中调用，不会阻塞
+     *
+     * @param player    领取的玩家
+     * @param redPacket 红包
+     * @param extra     用于判断的额外数据（口令、成语）
+     */
+    public void claim(Player player, RedPacket redPacket, String extra) {
+        claimExecutor.submit(player, redPacket, extra);
+    }
+
+    /**
+     * @return 领取线程池
+     */
+    public ClaimExecutor getClaimExecutor() {
+        return claimExecutor;
+    }
+
+    /**
+     * @return 领取公告的合并器
+     */
+    public ClaimBroadcaster getClaimBroadcaster() {
+        return claimBroadcaster;
+    }
+
+    /**
+     * 等待排队中的领取完成并停止过期调度器，在关闭插件时调用
+     */
+    public void shutdown() {
+        if (claimExecutor != null) {
+            claimExecutor.shutdown();
+            claimBroadcaster.shutdown();
+        }
+        expiryScheduler.shutdown();
+    }
+
+    /**
+     * @return 等待过期退款的红包数量
+     */
+    public int getPendingExpiries() {
+        return expiryScheduler.size();
+    }
+
+    /**
+     * @return 是否仍在载入红包，载入期间找不到的红包可能尚未载入
+     */
+    public boolean isLoading() {
+        return loading;
     }
 
     public void add(RedPacket redPacket) {
         getDatabaseManager().store(redPacket);
-        redPackets.add(redPacket);
+        if (index(redPacket)) {
+            scheduleExpiry(redPacket);
+        }
     }
 
+    /**
+     * 移除红包并取消过期退款，红包被领完或已退款时调用
+     *
+     * @param redPacket 红包
+     */
     public void remove(RedPacket redPacket) {
-        redPackets.remove(redPacket);
+        if (redPackets.remove(redPacket.getUUID(), redPacket)) {
+            byType.get(redPacket.getType()).remove(redPacket);
+            bySender.computeIfPresent(redPacket.getPlayer().getUniqueId(), (uuid, packets) -> {
+                packets.remove(redPacket);
+                return packets.isEmpty() ? null : packets;
+            });
+            byExpiry.remove(redPacket);
+            if (redPacket.getType() == RedPacket.RedPacketType.PasswordRedPacket) {
+                removeFrom(byPassword, redPacket.getExtraData(), redPacket);
+            } else if (redPacket.getType() == RedPacket.RedPacketType.JieLongRedPacket) {
+                synchronized (syllables) {
+                    String syllable = syllables.remove(redPacket.getUUID());
+                    if (syllable != null) {
+                        removeFrom(bySyllable, syllable, redPacket);
+                    }
+                }
+            }
+        }
+        expiryScheduler.cancel(redPacket);
+    }
+
+    /**
+     * @param uuid 红包唯一识别码
+     * @return 红包，不存在或已被移除时返回null
+     */
+    public RedPacket get(UUID uuid) {
+        return redPackets.get(uuid);
+    }
+
+    /**
+     * @param uuid 红包唯一识别码的字符串形式
+     * @return 红包，格式错误、不存在或已被移除时返回null
+     */
+    public RedPacket get(String uuid) {
+        try {
+            RedPacket redPacket = redPackets.get(UUID.fromString(uuid));
+            //UUID.fromString允许省略前导零，只接受完全相同的字符串
+            return redPacket != null && redPacket.getUUID().toString().equals(uuid) ? redPacket : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 查找聊天消息可能领取的口令红包与接龙红包，大多数消息只需一次哈希查找即可确定没有候选
+     *
+     * @param message 聊天消息
+     * @return 口令相同的口令红包与能接上该成语的接龙红包，领取时仍会再次检查
+     */
+    public List<RedPacket> getChatCandidates(String message) {
+        Set<RedPacket> passwordPackets = byPassword.get(message);
+        String syllable = IdiomManager.getFirstSyllable(message);
+        Set<RedPacket> jieLongPackets = syllable == null ? null : bySyllable.get(syllable);
+        if (passwordPackets == null && jieLongPackets == null) {
+            return Collections.emptyList();
+        }
+        List<RedPacket> candidates = new ArrayList<>();
+        if (passwordPackets != null) {
+            candidates.addAll(passwordPackets);
+        }
+        if (jieLongPackets != null) {
+            candidates.addAll(jieLongPackets);
+        }
+        return candidates;
+    }
+
+    /**
+     * @return 所有可领取的红包（只读视图）
+     */
+    public Collection<RedPacket> getRedPackets() {
+        return Collections.unmodifiableCollection(redPackets.values());
+    }
+
+    /**
+     * @param type 红包类型
+     * @return 该类型的红包（只读视图）
+     */
+    public Set<RedPacket> getByType(RedPacket.RedPacketType type) {
+        return Collections.unmodifiableSet(byType.get(type));
+    }
+
+    /**
+     * @param playerUUID 发送红包的玩家
+     * @return 该玩家发送的红包（只读视图）
+     */
+    public Set<RedPacket> getBySender(UUID playerUUID) {
+        Set<RedPacket> packets = bySender.get(playerUUID);
+        return packets == null ? Collections.emptySet() : Collections.unmodifiableSet(packets);
+    }
+
+    /**
+     * @return 按过期时间从旧到新排序的红包（只读视图）
+     */
+    public NavigableSet<RedPacket> getByExpiry() {
+        return Collections.unmodifiableNavigableSet(byExpiry);
     }
 
-    public List<RedPacket> getRedPackets() {
-        return redPackets;
+    /**
+     * @return 可领取的红包数量
+     */
+    public int size() {
+        return redPackets.size();
     }
 
 }
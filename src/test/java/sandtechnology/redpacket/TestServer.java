@@ -0,0 +1,236 @@
+package sandtechnology.redpacket;
+
+import net.md_5.bungee.api.chat.BaseComponent;
+import org.bukkit.Bukkit;
+import org.bukkit.OfflinePlayer;
+import org.bukkit.Server;
+import org.bukkit.entity.Player;
+import org.bukkit.scheduler.BukkitScheduler;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Logger;
+
+/**
+ * 单元测试使用的服务器，通过动态代理实现插件用到的Server、Player与BukkitScheduler方法，其余方法返回默认值
+ * 调度器收到的任务不会自动执行，由测试调用{@link #runTasks()}在当前线程中执行
+ * 调用{@link #get()}的线程视为主线程
+ */
+public final class TestServer {
+
+    private static TestServer server;
+    private final Logger logger = Logger.getLogger("TestServer");
+    private final Map<UUID, OfflinePlayer> offlinePlayers = new ConcurrentHashMap<>();
+    private final List<Player> onlinePlayers = new CopyOnWriteArrayList<>();
+    private final Map<UUID, RecordingSpigot> spigots = new ConcurrentHashMap<>();
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final List<String> broadcasts = new CopyOnWriteArrayList<>();
+    private final BukkitScheduler scheduler = proxy(BukkitScheduler.class, this::schedule);
+    private volatile Thread primaryThread;
+
+    private TestServer() {
+    }
+
+    /**
+     * 获取测试服务器，首次调用时注册到Bukkit，并清除上一个测试留下的玩家、任务与公告
+     *
+     * @return 测试服务器
+     */
+    public static synchronized TestServer get() {
+        if (server == null) {
+            server = new TestServer();
+            Bukkit.setServer(proxy(Server.class, server::handle));
+        }
+        server.primaryThread = Thread.currentThread();
+        server.onlinePlayers.clear();
+        server.spigots.clear();
+        server.tasks.clear();
+        server.broadcasts.clear();
+        return server;
+    }
+
+    /**
+     * 创建在线玩家，发送给该玩家的JSON信息会被记录
+     *
+     * @param name 玩家名称
+     * @return 玩家
+     */
+    public Player addPlayer(String name) {
+        UUID uuid = UUID.randomUUID();
+        RecordingSpigot spigot = new RecordingSpigot();
+        Player player = proxy(Player.class, (method, args) -> {
+            switch (method.getName()) {
+                case "getUniqueId":
+                    return uuid;
+                case "getName":
+                    return name;
+                case "isOnline":
+                    return true;
+                case "spigot":
+                    return spigot;
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        });
+        spigots.put(uuid, spigot);
+        offlinePlayers.put(uuid, player);
+        onlinePlayers.add(player);
+        return player;
+    }
+
+    /**
+     * @param name 玩家名称
+     * @return 离线玩家
+     */
+    public OfflinePlayer offlinePlayer(String name) {
+        UUID uuid = UUID.randomUUID();
+        OfflinePlayer player = offlinePlayer(uuid, name);
+        offlinePlayers.put(uuid, player);
+        return player;
+    }
+
+    private static OfflinePlayer offlinePlayer(UUID uuid, String name) {
+        return proxy(OfflinePlayer.class, (method, args) -> {
+            switch (method.getName()) {
+                case "getUniqueId":
+                    return uuid;
+                case "getName":
+                    return name;
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        });
+    }
+
+    /**
+     * @param player 由{@link #addPlayer(String)}创建的玩家
+     * @return 按顺序排列的发送给该玩家的JSON信息，每个元素为一次发送的参数
+     */
+    public List<BaseComponent[]> getMessages(Player player) {
+        return spigots.get(player.getUniqueId()).messages;
+    }
+
+    /**
+     * @return 按顺序排列的公告的文本信息
+     */
+    public List<String> getBroadcasts() {
+        return broadcasts;
+    }
+
+    /**
+     * 执行调度器收到的所有任务，包括执行期间新加入的任务
+     *
+     * @return 执行的任务数量
+     */
+    public int runTasks() {
+        int count = 0;
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+            count++;
+        }
+        return count;
+    }
+
+    private Object handle(Method method, Object[] args) {
+        switch (method.getName()) {
+            case "getLogger":
+                return logger;
+            case "getName":
+                return "TestServer";
+            case "getVersion":
+                return "1.21 (TestServer)";
+            case "getBukkitVersion":
+                return "1.21-R0.1-SNAPSHOT";
+            case "isPrimaryThread":
+                return Thread.currentThread() == primaryThread;
+            case "getScheduler":
+                return scheduler;
+            case "getOnlinePlayers":
+                return Collections.unmodifiableList(new ArrayList<>(onlinePlayers));
+            case "getOfflinePlayer":
+                if (args[0] instanceof UUID) {
+                    return offlinePlayers.computeIfAbsent((UUID) args[0], uuid -> offlinePlayer(uuid, uuid.toString().substring(0, 8)));
+                }
+                return defaultValue(method.getReturnType());
+            case "broadcastMessage":
+                broadcasts.add((String) args[0]);
+                return onlinePlayers.size();
+            default:
+                return defaultValue(method.getReturnType());
+        }
+    }
+
+    private Object schedule(Method method, Object[] args) {
+        if (method.getName().startsWith("run") && args != null) {
+            for (Object arg : args) {
+                if (arg instanceof Runnable) {
+                    tasks.add((Runnable) arg);
+                    return proxy(BukkitTask.class, (m, a) -> defaultValue(m.getReturnType()));
+                }
+            }
+        }
+        return defaultValue(method.getReturnType());
+    }
+
+    private interface Handler {
+        Object handle(Method method, Object[] args) throws Throwable;
+    }
+
+    private static <T> T proxy(Class<T> type, Handler handler) {
+        InvocationHandler invocationHandler = (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return type.getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(proxy));
+                default:
+                    return handler.handle(method, args);
+            }
+        };
+        return type.cast(Proxy.newProxyInstance(TestServer.class.getClassLoader(), new Class<?>[]{type}, invocationHandler));
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        } else if (type == double.class) {
+            return 0D;
+        } else if (type == float.class) {
+            return 0F;
+        } else if (type == short.class) {
+            return (short) 0;
+        } else if (type == byte.class) {
+            return (byte) 0;
+        } else if (type == char.class) {
+            return (char) 0;
+        }
+        return null;
+    }
+
+    private static final class RecordingSpigot extends Player.Spigot {
+        private final List<BaseComponent[]> messages = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void sendMessage(BaseComponent... components) {
+            messages.add(components);
+        }
+    }
+}
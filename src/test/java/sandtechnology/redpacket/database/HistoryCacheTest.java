@@ -0,0 +1,124 @@
+package sandtechnology.redpacket.database;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class HistoryCacheTest {
+
+    private static List<HistoryRecord> page(int size) {
+        List<HistoryRecord> page = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            page.add(new HistoryRecord(null));
+        }
+        return page;
+    }
+
+    private static HistoryCache.Key key(UUID playerUUID, long beforeExpireTime) {
+        return new HistoryCache.Key(playerUUID, beforeExpireTime, null, 10);
+    }
+
+    @Test
+    void cachedPageIsReturned() {
+        HistoryCache cache = new HistoryCache();
+        UUID player = UUID.randomUUID();
+        List<HistoryRecord> page = page(3);
+        assertNull(cache.get(key(player, Long.MAX_VALUE)));
+        cache.put(key(player, Long.MAX_VALUE), page, cache.stamp());
+        assertSame(page, cache.get(key(player, Long.MAX_VALUE)));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(4, cache.getRecords());
+    }
+
+    @Test
+    void invalidateOnlyClearsThatPlayer() {
+        HistoryCache cache = new HistoryCache();
+        UUID player = UUID.randomUUID();
+        UUID other = UUID.randomUUID();
+        List<HistoryRecord> otherPage = page(1);
+        cache.put(key(player, Long.MAX_VALUE), page(2), cache.stamp());
+        cache.put(key(player, 100), page(2), cache.stamp());
+        cache.put(key(other, Long.MAX_VALUE), otherPage, cache.stamp());
+
+        cache.invalidate(player);
+
+        assertNull(cache.get(key(player, Long.MAX_VALUE)));
+        assertNull(cache.get(key(player, 100)));
+        assertSame(otherPage, cache.get(key(other, Long.MAX_VALUE)));
+        assertEquals(2, cache.getRecords());
+    }
+
+    @Test
+    void resultOfQueryRacingInvalidationIsNotCached() {
+        HistoryCache cache = new HistoryCache();
+        UUID player = UUID.randomUUID();
+        UUID other = UUID.randomUUID();
+        //查询开始后该玩家的红包被修改，查询结果可能是旧数据
+        long since = cache.stamp();
+        cache.invalidate(player);
+        cache.put(key(player, Long.MAX_VALUE), page(1), since);
+        cache.put(key(other, Long.MAX_VALUE), page(1), since);
+        assertNull(cache.get(key(player, Long.MAX_VALUE)));
+        assertEquals(2, cache.getRecords());
+
+        //清除之后开始的查询可以缓存
+        List<HistoryRecord> fresh = page(1);
+        cache.put(key(player, Long.MAX_VALUE), fresh, cache.stamp());
+        assertSame(fresh, cache.get(key(player, Long.MAX_VALUE)));
+    }
+
+    @Test
+    void staleResultIsRejectedAfterTrackedPlayersOverflow() {
+        HistoryCache cache = new HistoryCache();
+        UUID player = UUID.randomUUID();
+        long since = cache.stamp();
+        cache.invalidate(player);
+        //清除记录超出上限后被丢弃，仍需拒绝丢弃前开始的查询
+        for (int i = 0; i < 10000; i++) {
+            cache.invalidate(UUID.randomUUID());
+        }
+        cache.put(key(player, Long.MAX_VALUE), page(1), since);
+        assertNull(cache.get(key(player, Long.MAX_VALUE)));
+    }
+
+    @Test
+    void leastRecentlyUsedPageIsEvicted() {
+        HistoryCache cache = new HistoryCache();
+        cache.configure(6);
+        UUID player = UUID.randomUUID();
+        UUID other = UUID.randomUUID();
+        cache.put(key(player, 1), page(2), cache.stamp());
+        cache.put(key(other, 1), page(2), cache.stamp());
+        //访问后变为最近使用
+        cache.get(key(player, 1));
+        cache.put(key(other, 2), page(2), cache.stamp());
+
+        assertNull(cache.get(key(other, 1)));
+        assertEquals(2, cache.get(key(player, 1)).size());
+        assertEquals(2, cache.get(key(other, 2)).size());
+        assertEquals(1, cache.getEvictions());
+        assertEquals(6, cache.getRecords());
+
+        //被淘汰的页不再属于该玩家，清除时不会重复扣减
+        cache.invalidate(other);
+        assertEquals(3, cache.getRecords());
+    }
+
+    @Test
+    void zeroCapacityDisablesCaching() {
+        HistoryCache cache = new HistoryCache();
+        cache.configure(0);
+        UUID player = UUID.randomUUID();
+        cache.put(key(player, Long.MAX_VALUE), Collections.emptyList(), cache.stamp());
+        assertNull(cache.get(key(player, Long.MAX_VALUE)));
+        assertEquals(0, cache.getRecords());
+    }
+}
@@ -0,0 +1,218 @@
+package sandtechnology.redpacket.database;
+
+import org.bukkit.OfflinePlayer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import sandtechnology.redpacket.TestServer;
+import sandtechnology.redpacket.redpacket.RedPacket;
+import sandtechnology.redpacket.redpacket.TestRedPackets;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JournalManagerTest {
+
+    private File folder;
+    private JournalManager storage;
+    private OfflinePlayer sender;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        sender = TestServer.get().offlinePlayer("sender");
+        folder = Files.createTempDirectory("journal").toFile();
+        storage = open();
+    }
+
+    @AfterEach
+    void tearDown() {
+        storage.shutdown();
+        File[] files = folder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        folder.delete();
+    }
+
+    private JournalManager open() {
+        return new JournalManager(folder, "test", 65536, Long.MAX_VALUE, 2);
+    }
+
+    private JournalManager reopen() {
+        storage.shutdown();
+        storage = open();
+        return storage;
+    }
+
+    private void claim(RedPacket redPacket, UUID playerUUID) {
+        long cents = TestRedPackets.claim(redPacket, playerUUID);
+        assertTrue(cents > 0);
+        storage.claim(redPacket, playerUUID, cents);
+        storage.update(redPacket);
+    }
+
+    private List<HistoryRecord> sentHistory() {
+        return storage.getSentHistory(sender.getUniqueId(), Long.MAX_VALUE, null, 10);
+    }
+
+    @Test
+    void finishedPacketIsArchivedButStillInHistory() {
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        RedPacket finished = TestRedPackets.create(sender, 2, 200);
+        RedPacket active = TestRedPackets.create(sender, 2, 200);
+        storage.store(finished);
+        storage.store(active);
+        claim(finished, first);
+        claim(finished, second);
+        claim(active, first);
+
+        //关闭时压缩，已领完的红包移动到归档文件
+        reopen();
+        assertTrue(new File(folder, "test.archive").length() > 4);
+        List<RedPacket> valid = storage.getValid();
+        assertEquals(1, valid.size());
+        assertEquals(active.getUUID(), valid.get(0).getUUID());
+
+        List<HistoryRecord> sent = sentHistory();
+        assertEquals(2, sent.size());
+        for (HistoryRecord record : sent) {
+            if (record.getRedPacket().getUUID().equals(finished.getUUID())) {
+                //从归档文件读取的红包保留领取记录
+                assertEquals(0, record.getRedPacket().getCurrentAmount());
+                assertFalse(record.getRedPacket().isClaimableBy(first));
+                assertFalse(record.getRedPacket().isClaimableBy(second));
+            }
+        }
+        assertEquals(2, storage.getClaimHistory(first, Long.MAX_VALUE, 10).size());
+        List<HistoryRecord> claims = storage.getClaimHistory(second, Long.MAX_VALUE, 10);
+        assertEquals(1, claims.size());
+        assertEquals(finished.getUUID(), claims.get(0).getRedPacket().getUUID());
+    }
+
+    @Test
+    void archivedPacketIsNotArchivedTwice() {
+        RedPacket finished = TestRedPackets.create(sender, 1, 100);
+        storage.store(finished);
+        claim(finished, UUID.randomUUID());
+        reopen();
+        long size = new File(folder, "test.archive").length();
+
+        storage.store(TestRedPackets.create(sender, 1, 100));
+        reopen();
+        assertEquals(size, new File(folder, "test.archive").length());
+        assertEquals(2, sentHistory().size());
+    }
+
+    @Test
+    void deletedArchivedPacketStaysDeleted() {
+        UUID player = UUID.randomUUID();
+        RedPacket finished = TestRedPackets.create(sender, 1, 100);
+        storage.store(finished);
+        claim(finished, player);
+        reopen();
+        assertEquals(1, sentHistory().size());
+
+        storage.delete(finished);
+        storage.awaitDurable();
+        reopen();
+        assertEquals(0, sentHistory().size());
+        assertEquals(0, storage.getClaimHistory(player, Long.MAX_VALUE, 10).size());
+        reopen();
+        assertEquals(0, sentHistory().size());
+    }
+
+    private static List<List<RedPacket>> load(JournalManager storage) {
+        List<List<RedPacket>> batches = new ArrayList<>();
+        storage.loadValid(batches::add);
+        return batches;
+    }
+
+    private static RedPacket find(List<List<RedPacket>> batches, UUID uuid) {
+        for (List<RedPacket> batch : batches) {
+            for (RedPacket redPacket : batch) {
+                if (redPacket.getUUID().equals(uuid)) {
+                    return redPacket;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 重启后只载入可领取的红包，领取记录与余额保留，每批不超过FetchSize个
+     */
+    @Test
+    void validPacketsAreLoadedAfterRestart() {
+        UUID player = UUID.randomUUID();
+        Set<UUID> active = new HashSet<>();
+        for (int i = 0; i < 5; i++) {
+            RedPacket redPacket = TestRedPackets.create(sender, 3, 300);
+            storage.store(redPacket);
+            active.add(redPacket.getUUID());
+        }
+        RedPacket claimed = TestRedPackets.create(sender, 3, 300);
+        storage.store(claimed);
+        claim(claimed, player);
+        active.add(claimed.getUUID());
+        RedPacket finished = TestRedPackets.create(sender, 1, 100);
+        storage.store(finished);
+        claim(finished, player);
+
+        List<List<RedPacket>> batches = load(reopen());
+        assertEquals(3, batches.size());
+        Set<UUID> loaded = new HashSet<>();
+        for (List<RedPacket> batch : batches) {
+            assertEquals(2, batch.size());
+            batch.forEach(redPacket -> loaded.add(redPacket.getUUID()));
+        }
+        assertEquals(active, loaded);
+        RedPacket restored = find(batches, claimed.getUUID());
+        assertNotNull(restored);
+        assertEquals(2, restored.getCurrentAmount());
+        assertEquals(claimed.getCurrentCents(), restored.getCurrentCents());
+        assertFalse(restored.isClaimableBy(player));
+        assertTrue(restored.isClaimableBy(UUID.randomUUID()));
+    }
+
+    /**
+     * 未正常关闭时没有生成快照，重启后从日志回放
+     */
+    @Test
+    void journalIsReplayedWithoutSnapshot() throws InterruptedException {
+        UUID player = UUID.randomUUID();
+        RedPacket redPacket = TestRedPackets.create(sender, 3, 300);
+        storage.store(redPacket);
+        claim(redPacket, player);
+        //等待写入线程将记录写入日志（内存映射的写入对其他读取立即可见）
+        for (int i = 0; i < 500 && storage.getClaimHistory(player, Long.MAX_VALUE, 1).isEmpty(); i++) {
+            Thread.sleep(10);
+        }
+        assertFalse(new File(folder, "test.snapshot").exists());
+
+        JournalManager recovered = open();
+        try {
+            List<List<RedPacket>> batches = load(recovered);
+            assertEquals(1, batches.size());
+            RedPacket restored = find(batches, redPacket.getUUID());
+            assertNotNull(restored);
+            assertEquals(2, restored.getCurrentAmount());
+            assertFalse(restored.isClaimableBy(player));
+        } finally {
+            recovered.shutdown();
+        }
+    }
+}
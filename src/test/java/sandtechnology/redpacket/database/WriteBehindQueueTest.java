@@ -0,0 +1,150 @@
+package sandtechnology.redpacket.database;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import sandtechnology.redpacket.TestServer;
+import sandtechnology.redpacket.redpacket.RedPacket;
+import sandtechnology.redpacket.redpacket.TestRedPackets;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class WriteBehindQueueTest {
+
+    private final RecordingFlusher flusher = new RecordingFlusher();
+    private final WriteBehindQueue queue = new WriteBehindQueue(flusher);
+    private RedPacket redPacket;
+
+    @BeforeEach
+    void setUp() {
+        redPacket = TestRedPackets.create(TestServer.get().offlinePlayer("sender"), 10, 1000);
+        queue.configure(DurabilityMode.GROUP, 1, 0, 0);
+        queue.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        queue.shutdown();
+    }
+
+    private static ClaimRecord claim() {
+        return new ClaimRecord(UUID.randomUUID(), UUID.randomUUID(), 1, System.currentTimeMillis());
+    }
+
+    private void awaitCommitted(int claims) throws InterruptedException {
+        for (int i = 0; i < 1000 && flusher.getCommittedClaims().size() < claims; i++) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    void failedFlushIsRolledBackAndRetried() throws InterruptedException {
+        flusher.flushFailures.set(1);
+        ClaimRecord first = claim();
+        ClaimRecord second = claim();
+        queue.enqueue(redPacket, WriteBehindQueue.Operation.INSERT);
+        queue.enqueueClaim(first);
+        queue.enqueueClaim(second);
+        awaitCommitted(2);
+
+        assertEquals(1, flusher.rollbacks.get());
+        assertEquals(Arrays.asList(first, second), flusher.getCommittedClaims());
+        assertEquals(1, flusher.getCommittedWrites().size());
+        assertEquals(WriteBehindQueue.Operation.INSERT, flusher.getCommittedWrites().get(0).operation);
+    }
+
+    @Test
+    void failedCommitIsRetriedBeforeNewerClaims() throws InterruptedException {
+        flusher.commitFailures.set(1);
+        ClaimRecord first = claim();
+        queue.enqueueClaim(first);
+        //等待第一次提交失败后再加入新的领取记录
+        for (int i = 0; i < 500 && flusher.rollbacks.get() == 0; i++) {
+            Thread.sleep(10);
+        }
+        ClaimRecord second = claim();
+        queue.enqueueClaim(second);
+        awaitCommitted(2);
+
+        assertEquals(1, flusher.rollbacks.get());
+        assertEquals(Arrays.asList(first, second), flusher.getCommittedClaims());
+        assertEquals(0, queue.getDepth());
+    }
+
+    /**
+     * SYNC模式下写入失败时等待的线程收到异常，而不是被当作已持久化
+     */
+    @Test
+    void syncWaiterIsToldAboutFailedWrite() throws InterruptedException {
+        queue.configure(DurabilityMode.SYNC, 1, 0, 0);
+        flusher.flushFailures.set(1);
+        queue.enqueueClaim(claim());
+        assertThrows(RuntimeException.class, queue::awaitDurable);
+        assertEquals(0, flusher.getCommittedClaims().size());
+
+        //重试成功后之后的修改正常等待
+        awaitCommitted(1);
+        queue.enqueueClaim(claim());
+        assertDoesNotThrow(queue::awaitDurable);
+        assertEquals(2, flusher.getCommittedClaims().size());
+    }
+
+    /**
+     * 模拟数据库事务：写入的数据在提交后才生效，回滚时丢弃
+     */
+    private static final class RecordingFlusher implements WriteBehindQueue.Flusher {
+        final AtomicInteger flushFailures = new AtomicInteger();
+        final AtomicInteger commitFailures = new AtomicInteger();
+        final AtomicInteger rollbacks = new AtomicInteger();
+        private final List<WriteBehindQueue.PendingWrite> writes = new ArrayList<>();
+        private final List<ClaimRecord> claims = new ArrayList<>();
+        private final List<WriteBehindQueue.PendingWrite> committedWrites = new ArrayList<>();
+        private final List<ClaimRecord> committedClaims = new ArrayList<>();
+
+        @Override
+        public synchronized void flush(List<WriteBehindQueue.PendingWrite> writes, List<ClaimRecord> claims) {
+            if (flushFailures.getAndDecrement() > 0) {
+                throw new RuntimeException("模拟写入失败");
+            }
+            this.writes.addAll(writes);
+            this.claims.addAll(claims);
+        }
+
+        @Override
+        public synchronized void commit() {
+            if (commitFailures.getAndDecrement() > 0) {
+                //提交失败时数据库中的事务已不存在
+                writes.clear();
+                claims.clear();
+                throw new RuntimeException("模拟提交失败");
+            }
+            committedWrites.addAll(writes);
+            committedClaims.addAll(claims);
+            writes.clear();
+            claims.clear();
+        }
+
+        @Override
+        public synchronized void rollback() {
+            rollbacks.incrementAndGet();
+            writes.clear();
+            claims.clear();
+        }
+
+        synchronized List<WriteBehindQueue.PendingWrite> getCommittedWrites() {
+            return new ArrayList<>(committedWrites);
+        }
+
+        synchronized List<ClaimRecord> getCommittedClaims() {
+            return new ArrayList<>(committedClaims);
+        }
+    }
+}
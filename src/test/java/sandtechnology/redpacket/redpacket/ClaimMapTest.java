@@ -0,0 +1,131 @@
+package sandtechnology.redpacket.redpacket;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ClaimMapTest {
+
+    //两个long异或后相同的UUID哈希值相同，用于构造探测链
+    private static UUID colliding(long i) {
+        return new UUID(i, i ^ 0x5DEECE66DL);
+    }
+
+    private static List<UUID> keys(ClaimMap map) {
+        List<UUID> keys = new ArrayList<>();
+        map.forEach((mostBits, leastBits, cents) -> keys.add(new UUID(mostBits, leastBits)));
+        return keys;
+    }
+
+    @Test
+    void collidingKeysAreAllFound() {
+        ClaimMap map = new ClaimMap();
+        for (int i = 0; i < 200; i++) {
+            assertTrue(map.putIfAbsent(colliding(i), i + 1));
+        }
+        for (int i = 0; i < 200; i++) {
+            assertEquals(i + 1, map.get(colliding(i)));
+            assertFalse(map.putIfAbsent(colliding(i), 0));
+        }
+        assertFalse(map.containsKey(colliding(200)));
+        assertEquals(-1, map.get(colliding(200)));
+        assertEquals(200, map.size());
+    }
+
+    @Test
+    void removeKeepsProbeChainIntact() {
+        ClaimMap map = new ClaimMap();
+        for (int i = 0; i < 20; i++) {
+            map.put(colliding(i), 10);
+        }
+        //移除探测链中间的记录后，之后的记录仍能找到
+        for (int i = 0; i < 20; i += 2) {
+            assertTrue(map.remove(colliding(i), 10));
+        }
+        assertEquals(10, map.size());
+        for (int i = 0; i < 20; i++) {
+            assertEquals(i % 2 == 1, map.containsKey(colliding(i)));
+        }
+        assertFalse(map.remove(colliding(0), 10));
+        //金额不一致时不移除
+        assertFalse(map.remove(colliding(1), 0));
+        assertTrue(map.containsKey(colliding(1)));
+        //移除后可以重新添加，顺序在最后
+        assertTrue(map.putIfAbsent(colliding(0), 5));
+        assertEquals(5, map.get(colliding(0)));
+        List<UUID> keys = keys(map);
+        assertEquals(11, keys.size());
+        assertEquals(colliding(0), keys.get(keys.size() - 1));
+    }
+
+    @Test
+    void resizeKeepsValuesAndOrder() {
+        ClaimMap map = new ClaimMap(4);
+        Map<UUID, Long> expected = new LinkedHashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            UUID uuid = UUID.randomUUID();
+            expected.put(uuid, (long) i);
+            map.put(uuid, i);
+        }
+        assertEquals(1000, map.size());
+        assertEquals(new ArrayList<>(expected.keySet()), keys(map));
+        expected.forEach((uuid, cents) -> assertEquals(cents.longValue(), map.get(uuid)));
+    }
+
+    @Test
+    void rehashDropsRemovedRecords() {
+        ClaimMap map = new ClaimMap(4);
+        List<UUID> kept = new ArrayList<>();
+        //反复占位与移除，被移除的记录在扩容时清理，不会无限增长
+        for (int i = 0; i < 1000; i++) {
+            UUID uuid = UUID.randomUUID();
+            map.put(uuid, 0L);
+            if (i % 10 == 0) {
+                map.put(uuid, i);
+                kept.add(uuid);
+            } else {
+                assertTrue(map.remove(uuid, 0L));
+            }
+        }
+        assertEquals(kept.size(), map.size());
+        assertEquals(kept, keys(map));
+    }
+
+    @Test
+    void putKeepsOriginalOrder() {
+        ClaimMap map = new ClaimMap();
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        map.putIfAbsent(first, 0);
+        map.putIfAbsent(second, 0);
+        map.put(first, 30);
+        map.put(second, 30);
+        List<UUID> keys = keys(map);
+        assertEquals(first, keys.get(0));
+        assertEquals(second, keys.get(1));
+        //金额相同时取先领取的
+        assertEquals(first, map.maxKey());
+        map.put(second, 31);
+        assertEquals(second, map.maxKey());
+    }
+
+    @Test
+    void emptyMapHasNoMaxKey() {
+        ClaimMap map = new ClaimMap();
+        assertNull(map.maxKey());
+        UUID uuid = UUID.randomUUID();
+        map.put(uuid, 1);
+        map.remove(uuid, 1);
+        assertNull(map.maxKey());
+        assertEquals(0, map.size());
+    }
+}
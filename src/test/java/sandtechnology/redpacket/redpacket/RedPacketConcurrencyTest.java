@@ -0,0 +1,167 @@
+package sandtechnology.redpacket.redpacket;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import sandtechnology.redpacket.TestServer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 多个线程同时领取同一个红包，领取次数与总额必须与红包完全一致
+ */
+class RedPacketConcurrencyTest {
+
+    private static final int THREADS = 16;
+    private TestServer server;
+
+    @BeforeEach
+    void setUp() {
+        server = TestServer.get();
+    }
+
+    private RedPacket newRedPacket(RedPacket.GiveType giveType, int amount, long cents) {
+        return new RedPacket.Builder()
+                .player(server.offlinePlayer("sender"))
+                .giveType(giveType)
+                .amount(amount)
+                .cents(cents)
+                .expireTime(System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(10))
+                .build();
+    }
+
+    /**
+     * 每个线程使用各自的玩家领取，玩家总数多于红包个数
+     *
+     * @return 每个玩家领取的金额
+     */
+    private Map<UUID, Long> hammer(RedPacket redPacket, int playersPerThread) throws Exception {
+        Map<UUID, Long> claims = new ConcurrentHashMap<>();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < playersPerThread; i++) {
+                        UUID playerUUID = UUID.randomUUID();
+                        if (redPacket.hold(playerUUID)) {
+                            RedPacket.Reservation reservation = redPacket.reserve(playerUUID, null);
+                            if (reservation != null) {
+                                assertNull(claims.put(playerUUID, reservation.cents));
+                            }
+                        }
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return claims;
+    }
+
+    private void assertExact(RedPacket redPacket, Map<UUID, Long> claims, int amount, long cents) {
+        assertEquals(amount, claims.size());
+        assertEquals(cents, claims.values().stream().mapToLong(Long::longValue).sum());
+        assertTrue(claims.values().stream().allMatch(value -> value >= 1));
+        assertEquals(0, redPacket.getCurrentAmount());
+        assertEquals(0, redPacket.getCurrentCents());
+    }
+
+    @Test
+    void luckyAmountIsClaimedExactly() throws Exception {
+        for (int round = 0; round < 20; round++) {
+            RedPacket redPacket = newRedPacket(RedPacket.GiveType.LuckyAmount, 100, 10000);
+            assertExact(redPacket, hammer(redPacket, 20), 100, 10000);
+        }
+    }
+
+    @Test
+    void fixAmountIsClaimedExactly() throws Exception {
+        for (int round = 0; round < 20; round++) {
+            //总额不能被个数整除，最后一个领取的玩家获得余数
+            RedPacket redPacket = newRedPacket(RedPacket.GiveType.FixAmount, 7, 1000);
+            assertExact(redPacket, hammer(redPacket, 5), 7, 1000);
+        }
+    }
+
+    @Test
+    void luckyAmountWithOneCentPerShare() throws Exception {
+        RedPacket redPacket = newRedPacket(RedPacket.GiveType.LuckyAmount, 64, 64);
+        assertExact(redPacket, hammer(redPacket, 10), 64, 64);
+    }
+
+    @Test
+    void samePlayerClaimsOnce() throws Exception {
+        RedPacket redPacket = newRedPacket(RedPacket.GiveType.LuckyAmount, 50, 5000);
+        UUID[] players = new UUID[10];
+        for (int i = 0; i < players.length; i++) {
+            players[i] = UUID.randomUUID();
+        }
+        Map<UUID, Long> claims = new ConcurrentHashMap<>();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (UUID playerUUID : players) {
+                        if (redPacket.hold(playerUUID)) {
+                            RedPacket.Reservation reservation = redPacket.reserve(playerUUID, null);
+                            if (reservation != null) {
+                                assertNull(claims.put(playerUUID, reservation.cents));
+                            }
+                        }
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(players.length, claims.size());
+        assertEquals(50 - players.length, redPacket.getCurrentAmount());
+        assertEquals(5000, redPacket.getCurrentCents() + claims.values().stream().mapToLong(Long::longValue).sum());
+    }
+
+    @Test
+    void expiredRedPacketReleasesHold() {
+        RedPacket redPacket = new RedPacket.Builder()
+                .player(server.offlinePlayer("sender"))
+                .amount(3)
+                .cents(300)
+                .expireTime(System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(10))
+                .expired(true)
+                .build();
+        UUID playerUUID = UUID.randomUUID();
+        assertTrue(redPacket.hold(playerUUID));
+        assertNull(redPacket.reserve(playerUUID, null));
+        //预留失败后占位被移除，玩家仍可再次尝试
+        assertTrue(redPacket.hold(playerUUID));
+        assertEquals(3, redPacket.getCurrentAmount());
+        assertEquals(300, redPacket.getCurrentCents());
+    }
+}
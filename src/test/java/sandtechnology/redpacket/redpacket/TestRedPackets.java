@@ -0,0 +1,45 @@
+package sandtechnology.redpacket.redpacket;
+
+import org.bukkit.OfflinePlayer;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 供其他包的测试创建红包与领取，不经过经济插件、数据库与公告
+ */
+public final class TestRedPackets {
+
+    private TestRedPackets() {
+    }
+
+    /**
+     * @param sender 发红包的玩家
+     * @param amount 红包数量
+     * @param cents  红包总额（单位为分）
+     * @return 10分钟后过期的拼手气红包
+     */
+    public static RedPacket create(OfflinePlayer sender, int amount, long cents) {
+        return new RedPacket.Builder()
+                .player(sender)
+                .amount(amount)
+                .cents(cents)
+                .expireTime(System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(10))
+                .build();
+    }
+
+    /**
+     * 只修改红包自身的状态，相当于领取时的占位与预留
+     *
+     * @param redPacket  红包
+     * @param playerUUID 领取的玩家
+     * @return 领取的金额（单位为分），不能领取时为-1
+     */
+    public static long claim(RedPacket redPacket, UUID playerUUID) {
+        if (!redPacket.hold(playerUUID)) {
+            return -1;
+        }
+        RedPacket.Reservation reservation = redPacket.reserve(playerUUID, null);
+        return reservation == null ? -1 : reservation.cents;
+    }
+}
@@ -0,0 +1,183 @@
+package sandtechnology.redpacket.util;
+
+import org.bukkit.ChatColor;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import sandtechnology.redpacket.TestServer;
+import sandtechnology.redpacket.redpacket.RedPacket;
+import sandtechnology.redpacket.redpacket.TestRedPackets;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ClaimBroadcasterTest {
+
+    private static final Pattern SINGLE = Pattern.compile("^玩家(\\S+)抢了(\\S+)的红包，抢到了([0-9.]+)元");
+    private static final Pattern SUMMARY = Pattern.compile("^(\\d+)位玩家抢了(\\S+)的红包，共抢到([0-9.]+)元，手气最佳的是(\\S+)（([0-9.]+)元）");
+    private final Queue<Runnable> scheduled = new ConcurrentLinkedQueue<>();
+    private final List<Long> delays = new CopyOnWriteArrayList<>();
+    private final List<String> messages = new CopyOnWriteArrayList<>();
+    private RedPacket redPacket;
+
+    @BeforeEach
+    void setUp() {
+        redPacket = TestRedPackets.create(TestServer.get().offlinePlayer("sender"), 10, 1000);
+    }
+
+    private ClaimBroadcaster broadcaster(long window) {
+        return new ClaimBroadcaster(window, (task, delay) -> {
+            scheduled.add(task);
+            delays.add(delay);
+        }, message -> messages.add(ChatColor.stripColor(message)));
+    }
+
+    private int runScheduled() {
+        int count = 0;
+        Runnable task;
+        while ((task = scheduled.poll()) != null) {
+            task.run();
+            count++;
+        }
+        return count;
+    }
+
+    @Test
+    void zeroWindowBroadcastsImmediately() {
+        ClaimBroadcaster broadcaster = broadcaster(0);
+        broadcaster.claimed(redPacket, "a", 150, "");
+        broadcaster.finished(redPacket, "finished");
+        assertTrue(scheduled.isEmpty());
+        assertEquals(2, messages.size());
+        assertTrue(messages.get(0).startsWith("玩家a抢了sender的红包，抢到了1.50元"), messages.get(0));
+        assertEquals("finished", messages.get(1));
+    }
+
+    @Test
+    void singleClaimKeepsOriginalLine() {
+        ClaimBroadcaster broadcaster = broadcaster(10);
+        broadcaster.claimed(redPacket, "a", 150, "，后缀");
+        assertTrue(messages.isEmpty());
+        assertEquals(1, scheduled.size());
+        assertEquals(10L, delays.get(0).longValue());
+        runScheduled();
+        assertEquals(1, messages.size());
+        assertEquals("玩家a抢了sender的红包，抢到了1.50元，后缀", messages.get(0));
+    }
+
+    @Test
+    void claimsInWindowAreSummarized() {
+        ClaimBroadcaster broadcaster = broadcaster(10);
+        broadcaster.claimed(redPacket, "a", 100, "");
+        broadcaster.claimed(redPacket, "b", 300, "");
+        broadcaster.claimed(redPacket, "c", 200, "");
+        broadcaster.finished(redPacket, "finished");
+        //同一红包在一个窗口内只调度一次
+        assertEquals(1, scheduled.size());
+        runScheduled();
+        assertEquals(2, messages.size());
+        assertEquals("3位玩家抢了sender的红包，共抢到6.00元，手气最佳的是b（3.00元）", messages.get(0));
+        //领完的公告在领取公告之后
+        assertEquals("finished", messages.get(1));
+
+        //窗口结束后的领取进入新的窗口
+        broadcaster.claimed(redPacket, "d", 100, "");
+        assertEquals(1, scheduled.size());
+        runScheduled();
+        assertEquals(3, messages.size());
+    }
+
+    @Test
+    void redPacketsHaveSeparateWindows() {
+        ClaimBroadcaster broadcaster = broadcaster(10);
+        RedPacket other = TestRedPackets.create(TestServer.get().offlinePlayer("other"), 10, 1000);
+        broadcaster.claimed(redPacket, "a", 100, "");
+        broadcaster.claimed(other, "b", 100, "");
+        assertEquals(2, scheduled.size());
+        runScheduled();
+        assertEquals(2, messages.size());
+    }
+
+    @Test
+    void shutdownFlushesOpenWindows() {
+        ClaimBroadcaster broadcaster = broadcaster(10);
+        broadcaster.claimed(redPacket, "a", 100, "");
+        broadcaster.shutdown();
+        assertEquals(1, messages.size());
+        //之后执行的定时任务不会重复公告
+        runScheduled();
+        assertEquals(1, messages.size());
+    }
+
+    /**
+     * 领取线程与关闭窗口的定时任务同时进行，每次领取都恰好被公告一次
+     */
+    @Test
+    void claimsRacingFlushAreNeitherLostNorRepeated() throws Exception {
+        ClaimBroadcaster broadcaster = broadcaster(1);
+        int threads = 8;
+        int claimsPerThread = 2000;
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicBoolean done = new AtomicBoolean();
+        ExecutorService executor = Executors.newFixedThreadPool(threads + 1);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                String name = "p" + t;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < claimsPerThread; i++) {
+                        broadcaster.claimed(redPacket, name, 1, "");
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            //模拟主线程在领取期间不断执行到期的窗口
+            Future<?> flusher = executor.submit(() -> {
+                while (!done.get()) {
+                    runScheduled();
+                }
+            });
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+            done.set(true);
+            flusher.get(30, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+        runScheduled();
+        broadcaster.shutdown();
+
+        long claims = 0;
+        long cents = 0;
+        for (String message : messages) {
+            Matcher summary = SUMMARY.matcher(message);
+            Matcher single = SINGLE.matcher(message);
+            if (summary.find()) {
+                claims += Long.parseLong(summary.group(1));
+                cents += Money.parse(summary.group(3));
+            } else {
+                assertTrue(single.find(), message);
+                claims++;
+                cents += Money.parse(single.group(3));
+            }
+        }
+        assertEquals((long) threads * claimsPerThread, claims);
+        assertEquals((long) threads * claimsPerThread, cents);
+    }
+}
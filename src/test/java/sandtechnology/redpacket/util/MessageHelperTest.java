@@ -0,0 +1,96 @@
+package sandtechnology.redpacket.util;
+
+import net.md_5.bungee.api.chat.BaseComponent;
+import net.md_5.bungee.api.chat.TextComponent;
+import org.bukkit.entity.Player;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import sandtechnology.redpacket.TestServer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 公告只序列化一次，所有玩家收到的是同一份已序列化的信息
+ */
+class MessageHelperTest {
+
+    private final AtomicInteger duplicates = new AtomicInteger();
+    private TestServer server;
+
+    @BeforeEach
+    void setUp() {
+        server = TestServer.get();
+    }
+
+    @Test
+    void broadcastIsPreparedOnce() {
+        List<Player> players = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            players.add(server.addPlayer("player" + i));
+        }
+        MessageHelper.broadcastMsg(new CountingComponent("content", duplicates));
+
+        //序列化前复制一次组件，与在线人数无关
+        assertEquals(1, duplicates.get());
+        BaseComponent[] sent = server.getMessages(players.get(0)).get(0);
+        assertEquals(2, sent.length);
+        assertTrue(((TextComponent) sent[0]).getText().contains("[红包]"));
+        assertEquals("content", ((TextComponent) sent[1]).getText());
+        for (Player player : players) {
+            assertEquals(1, server.getMessages(player).size());
+            assertSame(sent, server.getMessages(player).get(0));
+        }
+        //主线程中直接发送，不再调度任务
+        assertEquals(0, server.runTasks());
+    }
+
+    @Test
+    void preparedMessageIsReused() {
+        Player first = server.addPlayer("first");
+        Player second = server.addPlayer("second");
+        PreparedMessage message = CompatibilityHelper.prepare(new CountingComponent("content", duplicates));
+        CompatibilityHelper.sendPrepared(first, message);
+        CompatibilityHelper.sendPrepared(second, message);
+        MessageHelper.broadcastMsg(message);
+
+        assertEquals(1, duplicates.get());
+        assertSame(server.getMessages(first).get(0), server.getMessages(second).get(0));
+        assertSame(server.getMessages(first).get(0), server.getMessages(first).get(1));
+        assertSame(server.getMessages(second).get(0), server.getMessages(second).get(1));
+    }
+
+    @Test
+    void preparedComponentsAreIsolatedFromCaller() {
+        Player player = server.addPlayer("player");
+        TextComponent component = new TextComponent("before");
+        PreparedMessage message = CompatibilityHelper.prepare(component);
+        //准备后修改原组件不影响已准备的信息
+        component.setText("after");
+        CompatibilityHelper.sendPrepared(player, message);
+        assertEquals("before", ((TextComponent) server.getMessages(player).get(0)[0]).getText());
+    }
+
+    /**
+     * 记录被复制的次数
+     */
+    private static final class CountingComponent extends TextComponent {
+        private final AtomicInteger duplicates;
+
+        CountingComponent(String text, AtomicInteger duplicates) {
+            super(text);
+            this.duplicates = duplicates;
+        }
+
+        @Override
+        public TextComponent duplicate() {
+            duplicates.incrementAndGet();
+            return new TextComponent(getText());
+        }
+    }
+}